@@ -0,0 +1,159 @@
+package org.animatedglyphplugin.benchmark;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Bộ GIF tổng hợp dùng cho benchmark (src/jmh/resources/benchmark-gifs).
+ * <p>
+ * Mỗi GIF nhắm một grid từ 2x2 đến 10x10, với kích thước và số frame khác nhau để phủ cả ba
+ * trường hợp chọn frame: lặp lại (ít frame hơn grid), cắt bớt và lấy mẫu đều (nhiều frame hơn grid).
+ * Chạy {@link #main(String[])} để tạo lại bộ GIF.
+ */
+public final class BenchmarkGifs {
+
+    /**
+     * Tên file, kích thước, số frame trong GIF và số frame của sprite sheet
+     */
+    public static final String[][] GIFS = {
+            {"grid2-32x32.gif", "32", "32", "4", "4"},
+            {"grid3-48x48.gif", "48", "48", "12", "9"},
+            {"grid4-64x48.gif", "64", "48", "16", "16"},
+            {"grid5-100x100.gif", "100", "100", "10", "25"},
+            {"grid6-128x96.gif", "128", "96", "36", "36"},
+            {"grid7-160x160.gif", "160", "160", "120", "49"},
+            {"grid8-200x150.gif", "200", "150", "64", "64"},
+            {"grid9-240x240.gif", "240", "240", "81", "81"},
+            {"grid10-320x240.gif", "320", "240", "100", "100"},
+    };
+
+    public static final String RESOURCE_DIR = "/benchmark-gifs/";
+
+    private BenchmarkGifs() {
+    }
+
+    public static int getSheetFrames(String fileName) {
+        for (String[] gif : GIFS) {
+            if (gif[0].equals(fileName)) {
+                return Integer.parseInt(gif[4]);
+            }
+        }
+        throw new IllegalArgumentException("Không có GIF benchmark: " + fileName);
+    }
+
+    /**
+     * Copy các GIF từ classpath ra thư mục để converter đọc như file thật
+     */
+    public static void extractTo(File directory) throws IOException {
+        directory.mkdirs();
+        for (String[] gif : GIFS) {
+            try (InputStream in = BenchmarkGifs.class.getResourceAsStream(RESOURCE_DIR + gif[0])) {
+                if (in == null) {
+                    throw new IOException("Thiếu GIF benchmark trong classpath: " + gif[0]);
+                }
+                Files.copy(in, new File(directory, gif[0]).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Tạo lại bộ GIF: {@code java ... BenchmarkGifs src/jmh/resources/benchmark-gifs}
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args.length > 0 ? args[0] : "src/jmh/resources/benchmark-gifs");
+        directory.mkdirs();
+        for (String[] gif : GIFS) {
+            File output = new File(directory, gif[0]);
+            writeGif(output, Integer.parseInt(gif[1]), Integer.parseInt(gif[2]), Integer.parseInt(gif[3]));
+            System.out.println(output.getPath() + " (" + output.length() + " byte)");
+        }
+    }
+
+    private static void writeGif(File output, int width, int height, int frames) throws IOException {
+        // ImageOutputStream không cắt ngắn file cũ
+        output.delete();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            for (int i = 0; i < frames; i++) {
+                BufferedImage frame = renderFrame(width, height, i, frames);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(frame), param);
+                String format = metadata.getNativeMetadataFormatName();
+                IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+                IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+                control.setAttribute("disposalMethod", "none");
+                control.setAttribute("userInputFlag", "FALSE");
+                control.setAttribute("transparentColorFlag", "FALSE");
+                control.setAttribute("delayTime", "5");
+                control.setAttribute("transparentColorIndex", "0");
+                root.appendChild(control);
+                metadata.setFromTree(format, root);
+                writer.writeToSequence(new IIOImage(frame, null, metadata), param);
+            }
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Nền sọc cùng một hình tròn đổi màu chạy ngang. Bảng màu riêng của mỗi frame chứa đúng các màu
+     * được vẽ nên ảnh không bị dither và GIF nén gọn.
+     */
+    private static BufferedImage renderFrame(int width, int height, int index, int frames) {
+        int stripes = 8;
+        byte[] red = new byte[stripes + 1];
+        byte[] green = new byte[stripes + 1];
+        byte[] blue = new byte[stripes + 1];
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            red[stripe] = (byte) (20 + stripe * 8);
+            green[stripe] = 40;
+            blue[stripe] = (byte) (80 - stripe * 4);
+        }
+        Color circle = Color.getHSBColor(index / (float) frames, 0.9f, 1f);
+        red[stripes] = (byte) circle.getRed();
+        green[stripes] = (byte) circle.getGreen();
+        blue[stripes] = (byte) circle.getBlue();
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, stripes + 1, red, green, blue));
+        Graphics2D graphics = image.createGraphics();
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            graphics.setColor(new Color(red[stripe] & 0xFF, green[stripe] & 0xFF, blue[stripe] & 0xFF));
+            graphics.fillRect(0, stripe * height / stripes, width, height / stripes + 1);
+        }
+        graphics.setColor(circle);
+        int size = Math.max(4, Math.min(width, height) / 2);
+        int x = (int) ((width - size) * (index / (double) Math.max(1, frames - 1)));
+        graphics.fillOval(x, (height - size) / 2, size, size);
+        graphics.dispose();
+        return image;
+    }
+}
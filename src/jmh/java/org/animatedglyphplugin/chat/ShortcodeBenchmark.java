@@ -0,0 +1,101 @@
+package org.animatedglyphplugin.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark thay shortcode trên một loạt tin nhắn chat: thời gian của automaton gần như không đổi
+ * khi số glyph tăng, còn cách thay lần lượt từng tên (naiveReplace) tăng tuyến tính theo số glyph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortcodeBenchmark {
+
+    private static final int MESSAGES = 256;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int glyphCount;
+
+    // Tỉ lệ tin nhắn có shortcode (phần trăm)
+    @Param({"0", "25", "100"})
+    public int shortcodePercent;
+
+    private Map<String, String> shortcodes;
+    private ShortcodeMatcher matcher;
+    private String[] messages;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        shortcodes = new LinkedHashMap<>();
+        String[] names = new String[glyphCount];
+        for (int i = 0; i < glyphCount; i++) {
+            names[i] = "glyph_" + Integer.toString(i, 36);
+            shortcodes.put(names[i], new String(Character.toChars(0xE000 + i % 6400)));
+        }
+        matcher = ShortcodeMatcher.compile(shortcodes);
+
+        String[] words = {"hello", "gg", "anyone", "want", "to", "trade", "diamonds", "at", "spawn", "lol",
+                "10:30", "meet", "me", "near", "the", "portal"};
+        messages = new String[MESSAGES];
+        for (int m = 0; m < MESSAGES; m++) {
+            StringBuilder message = new StringBuilder();
+            int wordCount = 4 + random.nextInt(16);
+            boolean withShortcode = random.nextInt(100) < shortcodePercent;
+            for (int w = 0; w < wordCount; w++) {
+                if (message.length() > 0) {
+                    message.append(' ');
+                }
+                if (withShortcode && w % 5 == 2) {
+                    message.append(':').append(names[random.nextInt(glyphCount)]).append(':');
+                } else {
+                    message.append(words[random.nextInt(words.length)]);
+                }
+            }
+            messages[m] = message.toString();
+        }
+    }
+
+    @Benchmark
+    public void automaton(Blackhole blackhole) {
+        for (String message : messages) {
+            blackhole.consume(matcher.replace(message));
+        }
+    }
+
+    @Benchmark
+    public void naiveReplace(Blackhole blackhole) {
+        for (String message : messages) {
+            String result = message;
+            for (Map.Entry<String, String> entry : shortcodes.entrySet()) {
+                result = result.replace(":" + entry.getKey() + ":", entry.getValue());
+            }
+            blackhole.consume(result);
+        }
+    }
+
+    @Benchmark
+    public ShortcodeMatcher compile() {
+        return ShortcodeMatcher.compile(shortcodes);
+    }
+}
@@ -0,0 +1,132 @@
+package org.animatedglyphplugin.gif;
+
+import org.animatedglyphplugin.benchmark.BenchmarkGifs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark từng bước chuyển đổi GIF -> sprite sheet trên bộ GIF tổng hợp (grid 2x2 đến 10x10)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({
+            "grid2-32x32.gif",
+            "grid3-48x48.gif",
+            "grid4-64x48.gif",
+            "grid5-100x100.gif",
+            "grid6-128x96.gif",
+            "grid7-160x160.gif",
+            "grid8-200x150.gif",
+            "grid9-240x240.gif",
+            "grid10-320x240.gif"
+    })
+    public String gif;
+
+    private File directory;
+    private File gifFile;
+    private File pngFile;
+    private int frames;
+    private SheetLayout layout;
+    private int[] sheetPixels;
+    private int[] sourceIndices;
+
+    private FrameResampler resampler;
+    private int[] framePixels;
+    private int frameWidth;
+    private int frameHeight;
+
+    private BufferedImage sheet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("animatedglyph-bench").toFile();
+        BenchmarkGifs.extractTo(directory);
+        gifFile = new File(directory, gif);
+        pngFile = new File(directory, "sheet.png");
+
+        frames = BenchmarkGifs.getSheetFrames(gif);
+        layout = SheetLayout.of(frames, SheetLayout.DEFAULT_FRAME_SIZE);
+        sheetPixels = new int[layout.getWidth() * layout.getHeight()];
+        sourceIndices = GifToPngConverter.loadAndProcessGifFrames(gifFile, sheetPixels, layout);
+
+        // Frame đầu tiên đã ghép hoàn chỉnh, dùng cho benchmark resize
+        GifDecoder decoder = GifDecoder.open(gifFile);
+        frameWidth = decoder.getWidth();
+        frameHeight = decoder.getHeight();
+        decoder.decode((frameIndex, canvas, delayMillis) -> {
+            framePixels = canvas.clone();
+            return false;
+        });
+        resampler = new FrameResampler(layout.getFrameWidth(), layout.getFrameHeight());
+
+        sheet = GifToPngConverter.convertGifToPngSheet(gifFile, 2.0, frames);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkGifs.deleteRecursively(directory);
+    }
+
+    /**
+     * Decode GIF và resize các frame được dùng vào sprite sheet
+     */
+    @Benchmark
+    public int[] loadAndProcessGifFrames() throws IOException {
+        return GifToPngConverter.loadAndProcessGifFrames(gifFile, sheetPixels, layout);
+    }
+
+    /**
+     * Resize một frame vào ô đầu tiên của sheet
+     */
+    @Benchmark
+    public int[] resizeFrame() {
+        GifToPngConverter.resizeFrame(resampler, framePixels, frameWidth, frameHeight, sheetPixels, layout.cellOffset(0), layout.getWidth());
+        return sheetPixels;
+    }
+
+    /**
+     * Lấp các ô lặp lại và ghi metadata
+     */
+    @Benchmark
+    public int[] buildConfigurableSpriteSheet() {
+        GifToPngConverter.buildConfigurableSpriteSheet(sheetPixels, layout, sourceIndices, 2.0);
+        return sheetPixels;
+    }
+
+    @Benchmark
+    public long savePng() throws IOException {
+        GifToPngConverter.savePng(sheet, pngFile);
+        return pngFile.length();
+    }
+
+    /**
+     * Toàn bộ chuyển đổi một GIF thành ảnh sprite sheet
+     */
+    @Benchmark
+    public BufferedImage convertGifToPngSheet() throws IOException {
+        return GifToPngConverter.convertGifToPngSheet(gifFile, 2.0, frames);
+    }
+}
@@ -0,0 +1,95 @@
+package org.animatedglyphplugin.resourcepack;
+
+import org.animatedglyphplugin.benchmark.BenchmarkGifs;
+import org.animatedglyphplugin.config.ConfigManager;
+import org.animatedglyphplugin.glyph.GlyphManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Benchmark build toàn bộ resourcepack (mỗi GIF tổng hợp là một glyph), không cần Bukkit server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PackBuildBenchmark {
+
+    @Param({"false", "true"})
+    public boolean parallelBuild;
+
+    @Param({"false", "true"})
+    public boolean atlasMode;
+
+    @Param({"directory", "zip"})
+    public String outputMode;
+
+    private File dataFolder;
+    private ResourcePackBuilder builder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataFolder = Files.createTempDirectory("animatedglyph-bench").toFile();
+        File pluginFolder = new File(dataFolder, "animatedGlyph");
+        BenchmarkGifs.extractTo(new File(pluginFolder, "gif"));
+
+        // Tắt cache để mỗi lần build đều chuyển đổi lại từ GIF
+        String config = "parallel-build: " + parallelBuild + "\n"
+                + "build-threads: 0\n"
+                + "sheet-cache: false\n"
+                + "atlas-mode: " + atlasMode + "\n"
+                + "output-mode: " + outputMode + "\n";
+        Files.write(new File(pluginFolder, "config.yml").toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+        File glyphFolder = new File(pluginFolder, "glyph");
+        glyphFolder.mkdirs();
+        for (String[] gif : BenchmarkGifs.GIFS) {
+            String name = gif[0].substring(0, gif[0].length() - ".gif".length()).replace('-', '_');
+            String glyph = "name: " + name + "\n"
+                    + "file: " + gif[0] + "\n"
+                    + "frames: " + gif[4] + "\n"
+                    + "duration: 2.0\n";
+            Files.write(new File(glyphFolder, name + ".yml").toPath(), glyph.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Logger logger = Logger.getLogger("AnimatedGlyphBenchmark");
+        logger.setLevel(java.util.logging.Level.WARNING);
+        ConfigManager configManager = new ConfigManager(dataFolder, logger);
+        GlyphManager glyphManager = new GlyphManager(dataFolder, logger, configManager);
+        glyphManager.reload();
+        builder = new ResourcePackBuilder(dataFolder, logger, glyphManager, configManager);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkGifs.deleteRecursively(dataFolder);
+    }
+
+    /**
+     * Build đầy đủ mỗi lần: build() bình thường sẽ giữ nguyên pack khi không có gì thay đổi
+     */
+    @Benchmark
+    public BuildResult build() throws Exception {
+        return builder.buildFull();
+    }
+}
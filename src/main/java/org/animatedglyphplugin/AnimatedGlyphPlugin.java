@@ -1,21 +1,53 @@
 package org.animatedglyphplugin;
 
+import org.animatedglyphplugin.chat.ShortcodeListener;
+import org.animatedglyphplugin.chat.ShortcodeMatcher;
 import org.animatedglyphplugin.config.ConfigManager;
+import org.animatedglyphplugin.gif.FrameSource;
 import org.animatedglyphplugin.gif.GifToPngConverter;
+import org.animatedglyphplugin.gif.SheetLayout;
+import org.animatedglyphplugin.glyph.GlyphDefinition;
 import org.animatedglyphplugin.glyph.GlyphManager;
+import org.animatedglyphplugin.glyph.GlyphRegistry;
+import org.animatedglyphplugin.http.PackHttpServer;
+import org.animatedglyphplugin.http.PackPushListener;
+import org.animatedglyphplugin.metrics.BuildStats;
+import org.animatedglyphplugin.metrics.BuildStatsJmx;
+import org.animatedglyphplugin.resourcepack.BuildResult;
 import org.animatedglyphplugin.resourcepack.ResourcePackBuilder;
+import org.animatedglyphplugin.scheduler.BuildScheduler;
+import org.animatedglyphplugin.scheduler.BuildThrottle;
+import org.animatedglyphplugin.watch.GlyphFileWatcher;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class AnimatedGlyphPlugin extends JavaPlugin {
 
     private ConfigManager configManager;
     private GlyphManager glyphManager;
     private ResourcePackBuilder resourcePackBuilder;
+    private BuildScheduler buildScheduler;
+    private final AtomicBoolean reloading = new AtomicBoolean(false);
+    private volatile PackHttpServer packServer;
+    private volatile String packServerAddress;
+    // Kết quả build đang được HTTP server phục vụ: URL và hash gửi cho người chơi đều lấy từ đây
+    private volatile BuildResult publishedPack;
+    private BuildStatsJmx buildStatsJmx;
+    private GlyphFileWatcher fileWatcher;
+    private volatile ShortcodeMatcher shortcodes = ShortcodeMatcher.empty();
+    // Đã có một lần build chờ chạy cho các glyph đăng ký qua API
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
 
     @Override
     public void onEnable() {
@@ -31,8 +63,12 @@ public final class AnimatedGlyphPlugin extends JavaPlugin {
             configManager = new ConfigManager(this);
             glyphManager = new GlyphManager(this, configManager);
             resourcePackBuilder = new ResourcePackBuilder(this, glyphManager, configManager);
+            buildScheduler = new BuildScheduler(this, configManager);
+            getServer().getPluginManager().registerEvents(new PackPushListener(this), this);
+            getServer().getPluginManager().registerEvents(new ShortcodeListener(() -> shortcodes), this);
+            registerBuildStatsMBean();
 
-            // Tạo resourcepack
+            // Tạo resourcepack (lúc khởi động server chưa có người chơi nên không giới hạn CPU)
             buildResourcePack();
 
             getLogger().info("AnimatedGlyph Plugin đã khởi động thành công!");
@@ -44,6 +80,18 @@ public final class AnimatedGlyphPlugin extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (packServer != null) {
+            packServer.stop();
+            packServer = null;
+        }
+        stopFileWatcher();
+        if (buildScheduler != null) {
+            buildScheduler.shutdown();
+        }
+        if (buildStatsJmx != null) {
+            buildStatsJmx.unregister();
+            buildStatsJmx = null;
+        }
         getLogger().info("AnimatedGlyph Plugin đã tắt.");
     }
 
@@ -54,14 +102,7 @@ public final class AnimatedGlyphPlugin extends JavaPlugin {
                 switch (args[0].toLowerCase()) {
                     case "reload":
                         if (sender.hasPermission("animatedglyph.reload")) {
-                            try {
-                                buildResourcePack();
-                                sender.sendMessage("§a[AnimatedGlyph] ✅ Resourcepack đã được tạo lại thành công!");
-                            } catch (Exception e) {
-                                sender.sendMessage("§c[AnimatedGlyph] ❌ Lỗi: " + e.getMessage());
-                                getLogger().severe("Lỗi reload: " + e.getMessage());
-                                e.printStackTrace();
-                            }
+                            reloadAsync(sender);
                         } else {
                             sender.sendMessage("§c[AnimatedGlyph] Bạn không có quyền!");
                         }
@@ -88,6 +129,23 @@ public final class AnimatedGlyphPlugin extends JavaPlugin {
                         }
                         return true;
 
+                    case "stats":
+                        if (sender.hasPermission("animatedglyph.reload")) {
+                            BuildStats stats = resourcePackBuilder.getLastStats();
+                            if (stats == null) {
+                                sender.sendMessage("§c[AnimatedGlyph] Chưa có lần build nào");
+                                return true;
+                            }
+                            List<String> report = stats.toReport(5);
+                            sender.sendMessage("§e[AnimatedGlyph] " + report.get(0));
+                            for (int i = 1; i < report.size(); i++) {
+                                sender.sendMessage("§7" + report.get(i));
+                            }
+                        } else {
+                            sender.sendMessage("§c[AnimatedGlyph] Bạn không có quyền!");
+                        }
+                        return true;
+
                     case "test":
                         if (sender.hasPermission("animatedglyph.reload")) {
                             try {
@@ -106,15 +164,324 @@ public final class AnimatedGlyphPlugin extends JavaPlugin {
                         return true;
                 }
             }
-            sender.sendMessage("§e[AnimatedGlyph] Lệnh: /animatedglyph reload | debug");
+            sender.sendMessage("§e[AnimatedGlyph] Lệnh: /animatedglyph reload | debug | stats");
             return true;
         }
         return false;
     }
 
-    private void buildResourcePack() throws Exception {
+    /**
+     * Snapshot glyph hiện tại cho plugin khác: tra cứu theo tên hoặc codepoint từ mọi thread, không cần khóa.
+     * Lưu ý snapshot được thay mới sau mỗi lần reload, nên lấy lại khi cần dữ liệu mới nhất.
+     */
+    public GlyphRegistry getGlyphRegistry() {
+        return glyphManager != null ? glyphManager.getRegistry() : GlyphRegistry.EMPTY;
+    }
+
+    /**
+     * Đăng ký glyph từ danh sách frame trong bộ nhớ, tham số giống file glyph YAML.
+     * Các lần đăng ký gần nhau được gom vào một lần build resourcepack (xem api.rebuild-delay-ms).
+     * Khi config bật default-frame-error, frameCount là số frame tối đa như với file glyph.
+     *
+     * @param chars ký tự của glyph, rỗng hoặc null để tự cấp ký tự Private Use Area
+     * @return glyph đã được cấp ký tự
+     */
+    public GlyphDefinition registerGlyph(String name, List<BufferedImage> frames, int ascent, int height,
+                                         List<String> chars, double duration, int frameCount) {
+        return registerGlyph(name, FrameSource.ofFrames(frames), ascent, height, chars, duration, frameCount,
+                SheetLayout.DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * Đăng ký glyph từ nội dung file GIF
+     *
+     * @see #registerGlyph(String, List, int, int, List, double, int)
+     */
+    public GlyphDefinition registerGlyph(String name, byte[] gif, int ascent, int height,
+                                         List<String> chars, double duration, int frameCount) {
+        return registerGlyph(name, FrameSource.ofGif(gif), ascent, height, chars, duration, frameCount,
+                SheetLayout.DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * Đăng ký glyph từ stream GIF (đọc hết ngay, stream không bị đóng)
+     *
+     * @see #registerGlyph(String, List, int, int, List, double, int)
+     */
+    public GlyphDefinition registerGlyph(String name, InputStream gif, int ascent, int height,
+                                         List<String> chars, double duration, int frameCount) throws IOException {
+        return registerGlyph(name, FrameSource.ofGif(gif), ascent, height, chars, duration, frameCount,
+                SheetLayout.DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * Đăng ký glyph với frame-size riêng (chiều cao mỗi frame trong sprite sheet, như key frame-size của file glyph)
+     *
+     * @see #registerGlyph(String, List, int, int, List, double, int)
+     */
+    public GlyphDefinition registerGlyph(String name, FrameSource source, int ascent, int height,
+                                         List<String> chars, double duration, int frameCount, int frameSize) {
+        if (glyphManager == null) {
+            throw new IllegalStateException("AnimatedGlyph chưa khởi động");
+        }
+        GlyphDefinition glyph = glyphManager.register(
+                new GlyphDefinition(name, ascent, height, chars, duration, frameCount, frameSize, source)
+                        .withFrameError(configManager.getDefaultFrameError()));
+        scheduleRebuild();
+        return glyph;
+    }
+
+    /**
+     * Gỡ glyph đã đăng ký qua API, resourcepack được build lại như khi đăng ký
+     *
+     * @return false nếu không có glyph đăng ký với tên này
+     */
+    public boolean unregisterGlyph(String name) {
+        if (glyphManager == null || !glyphManager.unregister(name)) {
+            return false;
+        }
+        scheduleRebuild();
+        return true;
+    }
+
+    /**
+     * Hẹn một lần build tăng dần sau api.rebuild-delay-ms, các lần gọi trong lúc chờ dùng chung lần build đó
+     */
+    private void scheduleRebuild() {
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            getServer().getScheduler().runTaskLaterAsynchronously(this, this::runScheduledRebuild, rebuildDelayTicks());
+        }
+    }
+
+    private long rebuildDelayTicks() {
+        return Math.max(1, (configManager.getApiRebuildDelayMillis() + 49) / 50);
+    }
+
+    private void runScheduledRebuild() {
+        if (!reloading.compareAndSet(false, true)) {
+            // Đang có reload khác: chờ thêm một khoảng rồi thử lại
+            getServer().getScheduler().runTaskLaterAsynchronously(this, this::runScheduledRebuild, rebuildDelayTicks());
+            return;
+        }
+        // Đăng ký đến sau thời điểm này sẽ hẹn lần build tiếp theo
+        rebuildScheduled.set(false);
+        try {
+            getLogger().info("🧩 Đang build lại cho glyph đăng ký qua API...");
+            boolean packChanged = buildResourcePack(Collections.emptySet(), true, null);
+            if (packChanged && isEnabled()) {
+                getServer().getScheduler().runTask(this, this::pushToOnlinePlayers);
+            }
+        } catch (Exception e) {
+            getLogger().severe("Lỗi build lại cho glyph đăng ký qua API: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            reloading.set(false);
+        }
+    }
+
+    /**
+     * Đăng ký MXBean số liệu build, lỗi JMX không được chặn plugin khởi động
+     */
+    private void registerBuildStatsMBean() {
+        BuildStatsJmx jmx = new BuildStatsJmx(resourcePackBuilder::getLastStats);
+        try {
+            jmx.register();
+            buildStatsJmx = jmx;
+        } catch (Exception e) {
+            getLogger().warning("Không thể đăng ký MBean số liệu build: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Build lại resourcepack ngoài main thread, báo kết quả về sender trên main thread
+     */
+    private void reloadAsync(CommandSender sender) {
+        if (!reloading.compareAndSet(false, true)) {
+            sender.sendMessage("§e[AnimatedGlyph] ⏳ Đang có một lần reload khác chạy, vui lòng đợi!");
+            return;
+        }
+
+        sender.sendMessage("§e[AnimatedGlyph] ⏳ Đang tạo lại resourcepack...");
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                boolean packChanged = buildResourcePack(null, true, sender);
+                getServer().getScheduler().runTask(this, () -> {
+                    sender.sendMessage("§a[AnimatedGlyph] ✅ Resourcepack đã được tạo lại thành công!");
+                    if (packChanged) {
+                        pushToOnlinePlayers();
+                    }
+                });
+            } catch (Exception e) {
+                getLogger().severe("Lỗi reload: " + e.getMessage());
+                e.printStackTrace();
+                getServer().getScheduler().runTask(this, () ->
+                        sender.sendMessage("§c[AnimatedGlyph] ❌ Lỗi: " + e.getMessage()));
+            } finally {
+                reloading.set(false);
+            }
+        });
+    }
+
+    /**
+     * Build toàn bộ, không giới hạn CPU
+     *
+     * @return true nếu HTTP server đang phục vụ một pack mới (hash khác lần trước)
+     */
+    private boolean buildResourcePack() throws Exception {
+        return buildResourcePack(null, false, null);
+    }
+
+    /**
+     * @param changedGifs file GIF đã thay đổi (build tăng dần), null để build lại toàn bộ
+     * @param budgeted    build trong ngân sách CPU của build-budget (server đang chạy, gọi ngoài main thread)
+     * @param sender      nhận tiến độ build, null nếu build tự động
+     * @return true nếu HTTP server đang phục vụ một pack mới (hash khác lần trước)
+     */
+    private boolean buildResourcePack(Collection<String> changedGifs, boolean budgeted, CommandSender sender) throws Exception {
         configManager.reload();
         glyphManager.reload();
-        resourcePackBuilder.build();
+        shortcodes = configManager.isShortcodesEnabled()
+                ? ShortcodeMatcher.forGlyphs(glyphManager.getGlyphs())
+                : ShortcodeMatcher.empty();
+        BuildThrottle throttle = budgeted ? buildScheduler.begin(sender) : BuildThrottle.UNLIMITED;
+        BuildResult result;
+        try {
+            result = changedGifs == null
+                    ? resourcePackBuilder.build(throttle)
+                    : resourcePackBuilder.buildIncremental(changedGifs, throttle);
+        } finally {
+            if (budgeted) {
+                buildScheduler.end(throttle);
+            }
+        }
+
+        syncPackServer();
+        syncFileWatcher();
+        BuildResult published = publishedPack;
+        if (packServer == null || result.getSha1Hex() == null
+                || (published != null && result.getSha1Hex().equals(published.getSha1Hex()))) {
+            return false;
+        }
+        try {
+            if (!packServer.publish(result)) {
+                return false;
+            }
+        } catch (IOException e) {
+            getLogger().severe("Không thể publish resourcepack mới, tiếp tục phục vụ bản cũ: " + e.getMessage());
+            return false;
+        }
+        publishedPack = result;
+        return true;
+    }
+
+    /**
+     * Bật/tắt hoặc khởi động lại watcher theo config hiện tại
+     */
+    private synchronized void syncFileWatcher() {
+        long debounce = configManager.getWatcherDebounceMillis();
+        if (fileWatcher != null && (!configManager.isWatcherEnabled() || fileWatcher.getDebounceMillis() != debounce)) {
+            stopFileWatcher();
+        }
+
+        if (fileWatcher == null && configManager.isWatcherEnabled()) {
+            GlyphFileWatcher watcher = new GlyphFileWatcher(getDataFolder(), debounce, this::onFilesChanged, getLogger());
+            try {
+                watcher.start();
+                fileWatcher = watcher;
+            } catch (IOException e) {
+                getLogger().severe("Không thể bật watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void stopFileWatcher() {
+        if (fileWatcher != null) {
+            fileWatcher.stop();
+            fileWatcher = null;
+        }
+    }
+
+    /**
+     * Chạy trên thread của watcher: build tăng dần rồi gửi pack mới cho người chơi trên main thread
+     *
+     * @return false nếu đang có reload khác, watcher sẽ thử lại sau
+     */
+    private boolean onFilesChanged(GlyphFileWatcher.ChangeSet changes) {
+        if (!reloading.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            getLogger().info("👀 Phát hiện thay đổi: " + changes + ", đang build lại...");
+            boolean packChanged = buildResourcePack(changes.isConfigChanged() ? null : changes.getGifFiles(), true, null);
+            if (packChanged && isEnabled()) {
+                getServer().getScheduler().runTask(this, this::pushToOnlinePlayers);
+            }
+        } catch (Exception e) {
+            getLogger().severe("Lỗi build lại khi file thay đổi: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            reloading.set(false);
+        }
+        return true;
+    }
+
+    /**
+     * Bật/tắt hoặc khởi động lại HTTP server theo config hiện tại
+     */
+    private synchronized void syncPackServer() {
+        String address = configManager.getHttpBindAddress() + ":" + configManager.getHttpPort();
+        if (packServer != null && (!configManager.isHttpServerEnabled() || !address.equals(packServerAddress))) {
+            packServer.stop();
+            packServer = null;
+            publishedPack = null;
+        }
+
+        if (packServer == null && configManager.isHttpServerEnabled()) {
+            PackHttpServer server = new PackHttpServer(configManager.getHttpBindAddress(), configManager.getHttpPort(),
+                    new File(getDataFolder(), "animatedGlyph/http"), getLogger());
+            try {
+                server.start();
+                packServer = server;
+                packServerAddress = address;
+            } catch (IOException e) {
+                getLogger().severe("Không thể khởi động HTTP server resourcepack: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gửi pack mới cho tất cả người chơi đang online (gọi trên main thread)
+     */
+    private void pushToOnlinePlayers() {
+        for (Player player : getServer().getOnlinePlayers()) {
+            sendResourcePack(player, true);
+        }
+    }
+
+    /**
+     * Gửi pack đang được phục vụ cho người chơi vừa vào server
+     */
+    public void sendResourcePack(Player player) {
+        sendResourcePack(player, configManager.isPushOnJoin());
+    }
+
+    private void sendResourcePack(Player player, boolean enabled) {
+        PackHttpServer server = packServer;
+        BuildResult published = publishedPack;
+        if (!enabled || server == null || published == null || !server.hasPack()) {
+            return;
+        }
+        player.setResourcePack(getPackUrl(server, published.getSha1Hex()), published.getSha1(), configManager.isRequirePack());
+    }
+
+    /**
+     * URL người chơi tải pack, kèm hash để client không dùng nhầm bản cache cũ
+     */
+    private String getPackUrl(PackHttpServer server, String sha1) {
+        String baseUrl = configManager.getHttpPublicUrl();
+        if (baseUrl == null || baseUrl.isEmpty()) {
+            baseUrl = "http://" + configManager.getHttpBindAddress() + ":" + server.getPort() + PackHttpServer.PACK_PATH;
+        }
+        return baseUrl + (baseUrl.contains("?") ? "&" : "?") + "sha1=" + sha1;
     }
 }
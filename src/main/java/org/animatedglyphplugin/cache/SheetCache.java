@@ -0,0 +1,150 @@
+package org.animatedglyphplugin.cache;
+
+import org.animatedglyphplugin.gif.FrameSource;
+import org.animatedglyphplugin.util.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.logging.Logger;
+
+/**
+ * Cache sprite sheet đã chuyển đổi trên đĩa, khóa theo hash nội dung GIF và tham số chuyển đổi
+ */
+public class SheetCache {
+
+    // Tăng giá trị này mỗi khi định dạng sprite sheet đầu ra thay đổi để bỏ cache cũ
+    private static final int KEY_VERSION = 5;
+
+    private final File cacheDir;
+    private final long maxBytes;
+    private final Logger logger;
+
+    public SheetCache(File cacheDir, long maxBytes, Logger logger) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.logger = logger;
+    }
+
+    /**
+     * Tính khóa cache từ nội dung file GIF, các tham số chuyển đổi và tùy chọn encode PNG
+     */
+    public String computeKey(File gifFile, int frames, double duration, int frameSize, double frameError,
+                             String encoding) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(gifFile.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        digest.update(params(frames, duration, frameSize, frameError, encoding).getBytes(StandardCharsets.UTF_8));
+        return Hex.toHex(digest.digest());
+    }
+
+    /**
+     * Khóa cache cho glyph có ảnh nguồn trong bộ nhớ, tính từ hash nội dung của nguồn
+     */
+    public String computeKey(FrameSource source, int frames, double duration, int frameSize, double frameError,
+                             String encoding) {
+        MessageDigest digest = newDigest();
+        digest.update(("source=" + source.getContentHash()).getBytes(StandardCharsets.UTF_8));
+        digest.update(params(frames, duration, frameSize, frameError, encoding).getBytes(StandardCharsets.UTF_8));
+        return Hex.toHex(digest.digest());
+    }
+
+    private static String params(int frames, double duration, int frameSize, double frameError, String encoding) {
+        // frame-error chỉ có trong khóa khi bật chọn frame thích ứng, để khóa của sheet cũ vẫn khớp
+        return "|v" + KEY_VERSION + "|frames=" + frames + "|duration=" + Double.toString(duration) + "|size=" + frameSize
+                + (frameError > 0 ? "|error=" + Double.toString(frameError) : "")
+                + "|png=" + encoding;
+    }
+
+    /**
+     * Đọc nội dung PNG của sprite sheet trong cache. Trả về null nếu chưa có trong cache.
+     */
+    public byte[] read(String key) {
+        File cached = new File(cacheDir, key + ".png");
+        if (!cached.isFile()) {
+            return null;
+        }
+
+        try {
+            byte[] png = Files.readAllBytes(cached.toPath());
+            // Cập nhật thời gian sử dụng để eviction theo LRU
+            cached.setLastModified(System.currentTimeMillis());
+            return png;
+        } catch (IOException e) {
+            logger.warning("Không thể đọc sprite sheet từ cache " + cached.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lưu nội dung PNG của sprite sheet vừa tạo vào cache
+     */
+    public void store(String key, byte[] png) {
+        try {
+            cacheDir.mkdirs();
+            File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+            try {
+                Files.write(tempFile.toPath(), png);
+                Files.move(tempFile.toPath(), new File(cacheDir, key + ".png").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            logger.warning("Không thể ghi sprite sheet vào cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Xóa các sprite sheet ít được dùng nhất cho đến khi cache nằm trong giới hạn dung lượng
+     */
+    public void evict() {
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) {
+            return;
+        }
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        int removed = 0;
+        for (File file : files) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            long size = file.length();
+            if (file.delete()) {
+                totalBytes -= size;
+                removed++;
+            }
+        }
+        logger.info("Đã xóa " + removed + " sprite sheet cũ khỏi cache");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+}
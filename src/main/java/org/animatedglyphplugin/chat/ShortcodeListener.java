@@ -0,0 +1,117 @@
+package org.animatedglyphplugin.chat;
+
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.inventory.PrepareAnvilEvent;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerEditBookEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Thay shortcode {@code :tên:} bằng ký tự glyph trong chat, bảng, sách và tên đặt ở đe
+ */
+public class ShortcodeListener implements Listener {
+
+    public static final String PERMISSION = "animatedglyph.shortcode";
+
+    private final Supplier<ShortcodeMatcher> matcher;
+
+    /**
+     * @param matcher automaton hiện tại (được thay mới mỗi lần reload)
+     */
+    public ShortcodeListener(Supplier<ShortcodeMatcher> matcher) {
+        this.matcher = matcher;
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onChat(AsyncPlayerChatEvent event) {
+        if (!event.getPlayer().hasPermission(PERMISSION)) {
+            return;
+        }
+        String message = event.getMessage();
+        String replaced = matcher.get().replace(message);
+        // replace() trả về chính chuỗi cũ khi không có shortcode, so sánh tham chiếu là đủ
+        if (replaced != message) {
+            event.setMessage(replaced);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onSignChange(SignChangeEvent event) {
+        if (!event.getPlayer().hasPermission(PERMISSION)) {
+            return;
+        }
+        ShortcodeMatcher current = matcher.get();
+        String[] lines = event.getLines();
+        for (int i = 0; i < lines.length; i++) {
+            String replaced = current.replace(lines[i]);
+            if (replaced != lines[i]) {
+                event.setLine(i, replaced);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOW, ignoreCancelled = true)
+    public void onEditBook(PlayerEditBookEvent event) {
+        if (!event.getPlayer().hasPermission(PERMISSION)) {
+            return;
+        }
+        ShortcodeMatcher current = matcher.get();
+        BookMeta meta = event.getNewBookMeta();
+        boolean changed = false;
+
+        List<String> pages = new ArrayList<>(meta.getPages());
+        for (int i = 0; i < pages.size(); i++) {
+            String replaced = current.replace(pages.get(i));
+            if (replaced != pages.get(i)) {
+                pages.set(i, replaced);
+                changed = true;
+            }
+        }
+        if (changed) {
+            meta.setPages(pages);
+        }
+
+        if (event.isSigning() && meta.hasTitle()) {
+            String title = meta.getTitle();
+            String replaced = current.replace(title);
+            if (replaced != title) {
+                meta.setTitle(replaced);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            event.setNewBookMeta(meta);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOW)
+    public void onPrepareAnvil(PrepareAnvilEvent event) {
+        ItemStack result = event.getResult();
+        HumanEntity player = event.getView().getPlayer();
+        if (result == null || !result.hasItemMeta() || !player.hasPermission(PERMISSION)) {
+            return;
+        }
+        ItemMeta meta = result.getItemMeta();
+        if (!meta.hasDisplayName()) {
+            return;
+        }
+        String name = meta.getDisplayName();
+        String replaced = matcher.get().replace(name);
+        if (replaced != name) {
+            meta.setDisplayName(replaced);
+            result.setItemMeta(meta);
+            event.setResult(result);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package org.animatedglyphplugin.chat;
+
+import org.animatedglyphplugin.glyph.GlyphDefinition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thay shortcode dạng {@code :tên:} bằng ký tự của glyph, dùng automaton Aho-Corasick biên dịch sẵn
+ * trên tất cả tên glyph. Chi phí mỗi tin nhắn tuyến tính theo độ dài tin nhắn, không phụ thuộc số glyph.
+ * <p>
+ * Đối tượng không thay đổi sau khi tạo nên dùng chung được giữa các thread (chat chạy bất đồng bộ).
+ * Các shortcode chồng lên nhau (dùng chung dấu hai chấm) được thay theo thứ tự từ trái sang phải.
+ */
+public final class ShortcodeMatcher {
+
+    private static final char DELIMITER = ':';
+    private static final int ROOT = 0;
+    private static final int ASCII = 128;
+    private static final ShortcodeMatcher EMPTY = compile(new HashMap<>());
+
+    // Bảng băm (state, ký tự) → state con, địa chỉ mở với dò tuyến tính
+    private final long[] edgeKeys;
+    private final int[] edgeTargets;
+    private final int edgeMask;
+    // Chuyển tiếp của root cho ký tự ASCII (phần lớn ký tự chat), -1 nếu không có
+    private final int[] rootAscii;
+    private final int[] fail;
+    // Với state kết thúc một shortcode: chỉ số shortcode, ngược lại -1
+    private final int[] output;
+    private final int[] patternLengths;
+    private final String[] replacements;
+
+    private ShortcodeMatcher(long[] edgeKeys, int[] edgeTargets, int[] rootAscii, int[] fail, int[] output,
+                             int[] patternLengths, String[] replacements) {
+        this.edgeKeys = edgeKeys;
+        this.edgeTargets = edgeTargets;
+        this.edgeMask = edgeKeys.length - 1;
+        this.rootAscii = rootAscii;
+        this.fail = fail;
+        this.output = output;
+        this.patternLengths = patternLengths;
+        this.replacements = replacements;
+    }
+
+    public static ShortcodeMatcher empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Tạo automaton cho các glyph: {@code :tên:} → ký tự đầu tiên của glyph
+     */
+    public static ShortcodeMatcher forGlyphs(List<GlyphDefinition> glyphs) {
+        Map<String, String> shortcodes = new LinkedHashMap<>();
+        for (GlyphDefinition glyph : glyphs) {
+            List<String> chars = glyph.getChars();
+            if (chars == null || chars.isEmpty() || chars.get(0).isEmpty()) {
+                continue;
+            }
+            String first = chars.get(0);
+            shortcodes.putIfAbsent(glyph.getName(), first.substring(0, Character.charCount(first.codePointAt(0))));
+        }
+        return compile(shortcodes);
+    }
+
+    /**
+     * @param shortcodes tên (không có dấu hai chấm) → chuỗi thay thế. Tên rỗng hoặc chứa dấu hai chấm bị bỏ qua.
+     */
+    public static ShortcodeMatcher compile(Map<String, String> shortcodes) {
+        // Trie tạm dùng HashMap, sau đó nén vào bảng băm mảng
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        children.add(new HashMap<>());
+        List<Integer> outputs = new ArrayList<>();
+        outputs.add(-1);
+        List<Integer> lengths = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : shortcodes.entrySet()) {
+            String name = entry.getKey();
+            if (name == null || name.isEmpty() || name.indexOf(DELIMITER) >= 0 || entry.getValue() == null) {
+                continue;
+            }
+            String pattern = DELIMITER + name + DELIMITER;
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = children.get(state).get(pattern.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(pattern.charAt(i), next);
+                    children.add(new HashMap<>());
+                    outputs.add(-1);
+                }
+                state = next;
+            }
+            outputs.set(state, values.size());
+            lengths.add(pattern.length());
+            values.add(entry.getValue());
+        }
+
+        int states = children.size();
+        int edges = states - 1;
+        int capacity = Integer.highestOneBit(Math.max(4, edges * 2) - 1) << 1;
+        long[] edgeKeys = new long[capacity];
+        int[] edgeTargets = new int[capacity];
+        Arrays.fill(edgeKeys, -1L);
+        int[] rootAscii = new int[ASCII];
+        Arrays.fill(rootAscii, -1);
+        int[] output = new int[states];
+        for (int state = 0; state < states; state++) {
+            output[state] = outputs.get(state);
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                long key = edgeKey(state, child.getKey());
+                int slot = (int) mix(key) & (capacity - 1);
+                while (edgeKeys[slot] != -1L) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                edgeKeys[slot] = key;
+                edgeTargets[slot] = child.getValue();
+                if (state == ROOT && child.getKey() < ASCII) {
+                    rootAscii[child.getKey()] = child.getValue();
+                }
+            }
+        }
+
+        // Failure link theo BFS
+        int[] fail = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : children.get(ROOT).values()) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+        ShortcodeMatcher partial = new ShortcodeMatcher(edgeKeys, edgeTargets, rootAscii, fail, output,
+                new int[0], new String[0]);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                int target = child.getValue();
+                int f = fail[state];
+                int next;
+                while ((next = partial.next(f, child.getKey())) < 0 && f != ROOT) {
+                    f = fail[f];
+                }
+                fail[target] = next >= 0 ? next : ROOT;
+                queue.add(target);
+            }
+        }
+
+        int[] patternLengths = new int[lengths.size()];
+        for (int i = 0; i < patternLengths.length; i++) {
+            patternLengths[i] = lengths.get(i);
+        }
+        return new ShortcodeMatcher(edgeKeys, edgeTargets, rootAscii, fail, output,
+                patternLengths, values.toArray(new String[0]));
+    }
+
+    /**
+     * Số shortcode trong automaton
+     */
+    public int size() {
+        return replacements.length;
+    }
+
+    /**
+     * Thay mọi shortcode trong văn bản. Trả về chính chuỗi đầu vào (không cấp phát) nếu không có shortcode nào.
+     */
+    public String replace(String text) {
+        if (text == null || replacements.length == 0) {
+            return text;
+        }
+        StringBuilder result = null;
+        int copied = 0;  // Vị trí trong text đã được chép sang result
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = next(state, c)) < 0 && state != ROOT) {
+                state = fail[state];
+            }
+            state = next >= 0 ? next : ROOT;
+
+            int match = output[state];
+            if (match >= 0) {
+                int start = i + 1 - patternLengths[match];
+                // Bỏ qua shortcode dùng chung dấu hai chấm với shortcode vừa thay
+                if (start >= copied) {
+                    if (result == null) {
+                        result = new StringBuilder(text.length());
+                    }
+                    result.append(text, copied, start).append(replacements[match]);
+                    copied = i + 1;
+                }
+            }
+        }
+        if (result == null) {
+            return text;
+        }
+        return result.append(text, copied, text.length()).toString();
+    }
+
+    private int next(int state, char c) {
+        if (state == ROOT && c < ASCII) {
+            return rootAscii[c];
+        }
+        long key = edgeKey(state, c);
+        int slot = (int) mix(key) & edgeMask;
+        long candidate;
+        while ((candidate = edgeKeys[slot]) != -1L) {
+            if (candidate == key) {
+                return edgeTargets[slot];
+            }
+            slot = (slot + 1) & edgeMask;
+        }
+        return -1;
+    }
+
+    private static long edgeKey(int state, char c) {
+        return ((long) state << 16) | c;
+    }
+
+    private static long mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return key ^ (key >>> 32);
+    }
+}
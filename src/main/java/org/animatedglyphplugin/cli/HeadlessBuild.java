@@ -0,0 +1,162 @@
+package org.animatedglyphplugin.cli;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.animatedglyphplugin.config.ConfigManager;
+import org.animatedglyphplugin.glyph.GlyphManager;
+import org.animatedglyphplugin.metrics.BuildStats;
+import org.animatedglyphplugin.resourcepack.BuildResult;
+import org.animatedglyphplugin.resourcepack.ResourcePackBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * Build resourcepack ngoài server (CI): chạy cùng quy trình tải glyph → chuyển đổi → đóng gói như plugin
+ * trên một thư mục dữ liệu, dùng mọi nhân CPU, rồi ghi pack.zip, SHA-1 và báo cáo thời gian dạng JSON.
+ * <pre>
+ * java -jar AnimatedGlyphPlugin-1.0.jar &lt;thư mục dữ liệu&gt; [--threads N] [--report file.json]
+ * </pre>
+ * Thư mục dữ liệu là thư mục của plugin (chứa animatedGlyph/). Mã thoát: 0 thành công, 1 build lỗi, 2 sai tham số.
+ */
+public final class HeadlessBuild {
+
+    private static final String USAGE =
+            "Cách dùng: java -jar AnimatedGlyphPlugin.jar <thư mục dữ liệu> [--threads N] [--report file.json]";
+
+    private HeadlessBuild() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        File dataFolder = null;
+        File reportFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ((arg.equals("--threads") || arg.equals("--report")) && i + 1 >= args.length) {
+                System.err.println("Thiếu giá trị cho " + arg);
+                System.err.println(USAGE);
+                return 2;
+            }
+            if (arg.equals("--threads")) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads <= 0) {
+                    System.err.println("--threads phải là số nguyên dương: " + args[i]);
+                    return 2;
+                }
+            } else if (arg.equals("--report")) {
+                reportFile = new File(args[++i]);
+            } else if (arg.equals("-h") || arg.equals("--help")) {
+                System.out.println(USAGE);
+                return 0;
+            } else if (dataFolder == null && !arg.startsWith("--")) {
+                dataFolder = new File(arg);
+            } else {
+                System.err.println("Tham số không hợp lệ: " + arg);
+                System.err.println(USAGE);
+                return 2;
+            }
+        }
+        if (dataFolder == null) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (reportFile == null) {
+            reportFile = new File(dataFolder, "animatedGlyph/build-report.json");
+        }
+
+        // ImageIO / Java2D không cần màn hình
+        System.setProperty("java.awt.headless", "true");
+        Logger logger = createLogger();
+        try {
+            ConfigManager configManager = new ConfigManager(dataFolder, logger);
+            // Luôn xuất zip (giữ thêm thư mục build nếu config chọn both) và dùng đủ số thread
+            if (configManager.getOutputMode().equals("directory")) {
+                configManager.override("output-mode", "zip");
+            }
+            configManager.override("parallel-build", true);
+            configManager.override("build-threads", threads);
+
+            GlyphManager glyphManager = new GlyphManager(dataFolder, logger, configManager);
+            glyphManager.reload();
+            ResourcePackBuilder builder = new ResourcePackBuilder(dataFolder, logger, glyphManager, configManager);
+            BuildResult result = builder.build();
+            BuildStats stats = builder.getLastStats();
+
+            JsonObject report = stats.toJson();
+            report.addProperty("threads", threads);
+            report.addProperty("zip", result.getZipFile().getAbsolutePath());
+            report.addProperty("zipBytes", result.getZipFile().length());
+            report.addProperty("sha1", result.getSha1Hex());
+            writeReport(reportFile, report);
+
+            logger.info("📄 Báo cáo build: " + reportFile.getAbsolutePath());
+            System.out.println(result.getSha1Hex() + "  " + result.getZipFile().getPath());
+            return 0;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "❌ Build thất bại: " + e.getMessage(), e);
+            return 1;
+        }
+    }
+
+    private static void writeReport(File reportFile, JsonObject report) throws IOException {
+        File parent = reportFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+    }
+
+    /**
+     * Logger ghi từng dòng "[LEVEL] message" ra stderr, để stdout chỉ còn dòng hash của pack
+     */
+    private static Logger createLogger() {
+        Logger logger = Logger.getLogger("AnimatedGlyph");
+        logger.setUseParentHandlers(false);
+        StreamHandler handler = new StreamHandler(System.err, new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                StringBuilder line = new StringBuilder()
+                        .append('[').append(record.getLevel().getName()).append("] ")
+                        .append(formatMessage(record)).append(System.lineSeparator());
+                if (record.getThrown() != null) {
+                    line.append(record.getThrown()).append(System.lineSeparator());
+                }
+                return line.toString();
+            }
+        }) {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                super.publish(record);
+                flush();
+            }
+        };
+        try {
+            handler.setEncoding(StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException ignored) {
+            // UTF-8 luôn có sẵn
+        }
+        logger.addHandler(handler);
+        return logger;
+    }
+}
@@ -1,19 +1,26 @@
 package org.animatedglyphplugin.config;
 
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
 
 public class ConfigManager {
-    private final JavaPlugin plugin;
-    private FileConfiguration config;
+    private final Logger logger;
+    private YamlFile config;
     private final File configFile;
 
     public ConfigManager(JavaPlugin plugin) {
-        this.plugin = plugin;
-        this.configFile = new File(plugin.getDataFolder(), "animatedGlyph/config.yml");
+        this(plugin.getDataFolder(), plugin.getLogger());
+    }
+
+    /**
+     * @param dataFolder thư mục dữ liệu chứa animatedGlyph/
+     */
+    public ConfigManager(File dataFolder, Logger logger) {
+        this.logger = logger;
+        this.configFile = new File(dataFolder, "animatedGlyph/config.yml");
         createDefaultConfig();
         reload();
     }
@@ -22,20 +29,62 @@ public class ConfigManager {
         if (!configFile.exists()) {
             configFile.getParentFile().mkdirs();
             try {
-                YamlConfiguration defaultConfig = new YamlConfiguration();
+                YamlFile defaultConfig = new YamlFile();
                 defaultConfig.set("debug-level", 1);
                 defaultConfig.set("default-duration", 2.0);
+                defaultConfig.set("default-frame-error", 0.0);
                 defaultConfig.set("max-texture-size", 4096);
+                defaultConfig.set("parallel-build", true);
+                defaultConfig.set("build-threads", 0);
+                defaultConfig.set("pua-supplementary", false);
+                defaultConfig.set("sheet-cache", true);
+                defaultConfig.set("sheet-cache-max-mb", 256);
+                defaultConfig.set("atlas-mode", false);
+                defaultConfig.set("output-mode", "directory");
+                defaultConfig.set("png-palette", true);
+                defaultConfig.set("png-quantize", false);
+                defaultConfig.set("png-compression-level", 9);
+                defaultConfig.set("png-streaming-min-pixels", 1048576);
+                defaultConfig.set("http-server.enabled", false);
+                defaultConfig.set("http-server.bind", "127.0.0.1");
+                defaultConfig.set("http-server.port", 8163);
+                defaultConfig.set("http-server.public-url", "");
+                defaultConfig.set("http-server.push-on-join", true);
+                defaultConfig.set("http-server.require-pack", false);
+                defaultConfig.set("shortcodes.enabled", true);
+                defaultConfig.set("watcher.enabled", false);
+                defaultConfig.set("watcher.debounce-ms", 500);
+                defaultConfig.set("api.rebuild-delay-ms", 1000);
+                defaultConfig.set("build-budget.enabled", true);
+                defaultConfig.set("build-budget.max-workers", 2);
+                defaultConfig.set("build-budget.thread-priority", 1);
+                defaultConfig.set("build-budget.cpu-ms-per-second", 1000);
+                defaultConfig.set("build-budget.pause-above-mspt", 40.0);
+                defaultConfig.set("build-budget.resume-below-mspt", 30.0);
+                defaultConfig.set("build-budget.max-pause-ms", 30000);
+                defaultConfig.set("build-budget.progress-interval-ms", 5000);
                 defaultConfig.save(configFile);
-                plugin.getLogger().info("Đã tạo file config mặc định: " + configFile.getPath());
+                logger.info("Đã tạo file config mặc định: " + configFile.getPath());
             } catch (Exception e) {
-                plugin.getLogger().severe("Không thể tạo config mặc định: " + e.getMessage());
+                logger.severe("Không thể tạo config mặc định: " + e.getMessage());
             }
         }
     }
 
     public void reload() {
-        config = YamlConfiguration.loadConfiguration(configFile);
+        try {
+            config = YamlFile.load(configFile);
+        } catch (IOException e) {
+            logger.severe("Không thể đọc config, dùng giá trị mặc định: " + e.getMessage());
+            config = new YamlFile();
+        }
+    }
+
+    /**
+     * Ghi đè một giá trị chỉ trong bộ nhớ (không ghi ra config.yml, mất khi reload), ví dụ khi build ngoài server
+     */
+    public void override(String path, Object value) {
+        config.set(path, value);
     }
 
     public int getDebugLevel() {
@@ -46,7 +95,211 @@ public class ConfigManager {
         return config.getDouble("default-duration", 2.0);
     }
 
+    /**
+     * Sai số trung bình cho phép khi chọn frame thích ứng cho glyph không khai báo frame-error (0..1, 0 = tắt):
+     * frames của glyph trở thành số frame tối đa, sprite sheet chỉ có số ô nhỏ nhất đủ giữ animation trong sai số
+     */
+    public double getDefaultFrameError() {
+        double error = config.getDouble("default-frame-error", 0.0);
+        if (!(error >= 0 && error <= 1)) {
+            logger.warning("default-frame-error không hợp lệ: " + error + " (cho phép 0-1). Tắt chọn frame thích ứng.");
+            return 0;
+        }
+        return error;
+    }
+
     public int getMaxTextureSize() {
         return config.getInt("max-texture-size", 4096);
     }
+
+    public boolean isParallelBuild() {
+        return config.getBoolean("parallel-build", true);
+    }
+
+    /**
+     * Số thread xử lý glyph song song (0 hoặc âm = số nhân CPU)
+     */
+    public int getBuildThreads() {
+        int threads = config.getInt("build-threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    /**
+     * Cho phép cấp ký tự tự sinh ở Supplementary Private Use Area (plane 15, 16) khi U+E000-U+F8FF đã hết
+     */
+    public boolean isSupplementaryPuaEnabled() {
+        return config.getBoolean("pua-supplementary", false);
+    }
+
+    public boolean isSheetCacheEnabled() {
+        return config.getBoolean("sheet-cache", true);
+    }
+
+    public long getSheetCacheMaxBytes() {
+        return config.getLong("sheet-cache-max-mb", 256) * 1024L * 1024L;
+    }
+
+    /**
+     * Xếp các sprite sheet vào trang atlas dùng chung (tối đa max-texture-size) thay vì mỗi glyph một PNG
+     */
+    public boolean isAtlasMode() {
+        return config.getBoolean("atlas-mode", false);
+    }
+
+    /**
+     * Ghi PNG dạng indexed-colour khi sprite sheet có tối đa 256 màu (không mất dữ liệu)
+     */
+    public boolean isPngPalette() {
+        return config.getBoolean("png-palette", true);
+    }
+
+    /**
+     * Rút gọn bảng màu của sheet nhiều hơn 256 màu (có mất mát, metadata vẫn giữ nguyên)
+     */
+    public boolean isPngQuantize() {
+        return config.getBoolean("png-quantize", false);
+    }
+
+    /**
+     * Mức nén deflate của PNG (0-9)
+     */
+    public int getPngCompressionLevel() {
+        return Math.max(0, Math.min(9, config.getInt("png-compression-level", 9)));
+    }
+
+    /**
+     * Sprite sheet có từ bấy nhiêu pixel trở lên được ghi PNG theo từng hàng ô thay vì dựng cả ảnh
+     * trong bộ nhớ (0 = luôn luôn). Không áp dụng cho atlas-mode, nơi trang atlas luôn được ghi theo dải.
+     */
+    public long getPngStreamingMinPixels() {
+        return Math.max(0, config.getLong("png-streaming-min-pixels", 1048576));
+    }
+
+    /**
+     * Dạng xuất resourcepack: "directory", "zip" hoặc "both"
+     */
+    public String getOutputMode() {
+        String mode = config.getString("output-mode", "directory").toLowerCase();
+        if (!mode.equals("directory") && !mode.equals("zip") && !mode.equals("both")) {
+            logger.warning("output-mode không hợp lệ: " + mode + ". Sử dụng mặc định directory.");
+            return "directory";
+        }
+        return mode;
+    }
+
+    public boolean isHttpServerEnabled() {
+        return config.getBoolean("http-server.enabled", false);
+    }
+
+    public String getHttpBindAddress() {
+        return config.getString("http-server.bind", "127.0.0.1");
+    }
+
+    public int getHttpPort() {
+        return config.getInt("http-server.port", 8163);
+    }
+
+    /**
+     * URL gốc người chơi dùng để tải pack (để trống = http://bind:port/pack.zip)
+     */
+    public String getHttpPublicUrl() {
+        return config.getString("http-server.public-url", "");
+    }
+
+    public boolean isPushOnJoin() {
+        return config.getBoolean("http-server.push-on-join", true);
+    }
+
+    public boolean isRequirePack() {
+        return config.getBoolean("http-server.require-pack", false);
+    }
+
+    /**
+     * Thay :tên: bằng ký tự glyph trong chat, bảng, sách và tên đặt ở đe
+     */
+    public boolean isShortcodesEnabled() {
+        return config.getBoolean("shortcodes.enabled", true);
+    }
+
+    /**
+     * Tự build lại khi file trong gif/, glyph/ hoặc config.yml thay đổi
+     */
+    public boolean isWatcherEnabled() {
+        return config.getBoolean("watcher.enabled", false);
+    }
+
+    /**
+     * Thời gian yên lặng (ms) sau sự kiện cuối cùng trước khi build lại
+     */
+    public long getWatcherDebounceMillis() {
+        return Math.max(50, config.getLong("watcher.debounce-ms", 500));
+    }
+
+    /**
+     * Khoảng thời gian (ms) gom các lần đăng ký glyph qua API vào một lần build
+     */
+    public long getApiRebuildDelayMillis() {
+        return Math.max(50, config.getLong("api.rebuild-delay-ms", 1000));
+    }
+
+    /**
+     * Giới hạn CPU cho các lần build khi server đang chạy (không áp dụng cho build lúc khởi động và build ngoài server)
+     */
+    public boolean isBuildBudgetEnabled() {
+        return config.getBoolean("build-budget.enabled", true);
+    }
+
+    /**
+     * Số thread build tối đa khi giới hạn CPU được bật (0 hoặc âm = theo build-threads)
+     */
+    public int getBudgetMaxWorkers() {
+        int workers = config.getInt("build-budget.max-workers", 2);
+        return workers <= 0 ? getBuildThreads() : Math.min(workers, getBuildThreads());
+    }
+
+    /**
+     * Độ ưu tiên Java của thread build (1 = thấp nhất, 5 = bình thường)
+     */
+    public int getBudgetThreadPriority() {
+        return Math.max(Thread.MIN_PRIORITY, Math.min(Thread.NORM_PRIORITY,
+                config.getInt("build-budget.thread-priority", Thread.MIN_PRIORITY)));
+    }
+
+    /**
+     * Thời gian CPU (ms) các thread build được dùng chung mỗi giây (0 = không giới hạn)
+     */
+    public long getBudgetCpuMillisPerSecond() {
+        return Math.max(0, config.getLong("build-budget.cpu-ms-per-second", 1000));
+    }
+
+    /**
+     * Tạm dừng build khi thời gian tick trung bình vượt ngưỡng này (ms, 0 = không bao giờ)
+     */
+    public double getBudgetPauseAboveMspt() {
+        return Math.max(0, config.getDouble("build-budget.pause-above-mspt", 40.0));
+    }
+
+    /**
+     * Chạy tiếp khi thời gian tick trung bình xuống dưới ngưỡng này (ms, không lớn hơn ngưỡng tạm dừng)
+     */
+    public double getBudgetResumeBelowMspt() {
+        return Math.min(getBudgetPauseAboveMspt(), Math.max(0, config.getDouble("build-budget.resume-below-mspt", 30.0)));
+    }
+
+    /**
+     * Tạm dừng lâu nhất (ms) trước khi build chạy tiếp dù server vẫn chậm (0 = chờ tới khi server hồi phục)
+     */
+    public long getBudgetMaxPauseMillis() {
+        return Math.max(0, config.getLong("build-budget.max-pause-ms", 30000));
+    }
+
+    /**
+     * Khoảng thời gian (ms) giữa các lần báo tiến độ build cho người gõ lệnh
+     */
+    public long getBuildProgressIntervalMillis() {
+        return Math.max(1000, config.getLong("build-budget.progress-interval-ms", 5000));
+    }
 }
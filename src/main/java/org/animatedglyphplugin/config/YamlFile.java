@@ -0,0 +1,185 @@
+package org.animatedglyphplugin.config;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.representer.Representer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * File YAML đọc / ghi bằng SnakeYAML (đóng gói sẵn trong jar plugin), dùng thay YamlConfiguration của Bukkit
+ * để config và file glyph đọc được cả khi build ngoài server.
+ * <p>
+ * Đường dẫn dạng {@code http-server.port} trỏ vào các map lồng nhau. Getter chuyển kiểu giống Bukkit:
+ * số được ép sang kiểu yêu cầu, sai kiểu thì trả về giá trị mặc định.
+ */
+public final class YamlFile {
+
+    private final Map<String, Object> root;
+
+    public YamlFile() {
+        this(new LinkedHashMap<>());
+    }
+
+    private YamlFile(Map<String, Object> root) {
+        this.root = root;
+    }
+
+    /**
+     * @throws IOException khi không đọc được file hoặc nội dung không phải YAML dạng map
+     */
+    public static YamlFile load(File file) throws IOException {
+        Object data;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            data = newYaml().load(reader);
+        } catch (YAMLException e) {
+            throw new IOException("YAML không hợp lệ trong " + file.getName() + ": " + e.getMessage(), e);
+        }
+        if (data == null) {
+            return new YamlFile();
+        }
+        if (!(data instanceof Map)) {
+            throw new IOException("Nội dung gốc của " + file.getName() + " không phải map");
+        }
+        return new YamlFile(toSection((Map<?, ?>) data));
+    }
+
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            newYaml().dump(root, writer);
+        }
+    }
+
+    /**
+     * Giá trị tại đường dẫn, null nếu không có
+     */
+    public Object get(String path) {
+        Object current = root;
+        for (String key : path.split("\\.", -1)) {
+            if (!(current instanceof Map)) {
+                return null;
+            }
+            current = ((Map<?, ?>) current).get(key);
+        }
+        return current;
+    }
+
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * Đặt giá trị, tạo các map trung gian khi cần (value null để xóa)
+     */
+    @SuppressWarnings("unchecked")
+    public void set(String path, Object value) {
+        String[] keys = path.split("\\.", -1);
+        Map<String, Object> section = root;
+        for (int i = 0; i < keys.length - 1; i++) {
+            Object child = section.get(keys[i]);
+            if (!(child instanceof Map)) {
+                if (value == null) {
+                    return;
+                }
+                child = new LinkedHashMap<String, Object>();
+                section.put(keys[i], child);
+            }
+            section = (Map<String, Object>) child;
+        }
+        if (value == null) {
+            section.remove(keys[keys.length - 1]);
+        } else {
+            section.put(keys[keys.length - 1], value);
+        }
+    }
+
+    public String getString(String path) {
+        return getString(path, null);
+    }
+
+    public String getString(String path, String def) {
+        Object value = get(path);
+        return value != null ? value.toString() : def;
+    }
+
+    public int getInt(String path, int def) {
+        Object value = get(path);
+        return value instanceof Number ? ((Number) value).intValue() : def;
+    }
+
+    public long getLong(String path, long def) {
+        Object value = get(path);
+        return value instanceof Number ? ((Number) value).longValue() : def;
+    }
+
+    public double getDouble(String path, double def) {
+        Object value = get(path);
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
+    }
+
+    public boolean getBoolean(String path, boolean def) {
+        Object value = get(path);
+        return value instanceof Boolean ? (Boolean) value : def;
+    }
+
+    /**
+     * Các phần tử chuỗi / số / boolean của danh sách (danh sách rỗng nếu không có hoặc sai kiểu)
+     */
+    public List<String> getStringList(String path) {
+        Object value = get(path);
+        if (!(value instanceof List)) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        for (Object item : (List<?>) value) {
+            if (item instanceof String || item instanceof Number || item instanceof Boolean || item instanceof Character) {
+                result.add(String.valueOf(item));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Chuẩn hóa map đọc được: khóa luôn là chuỗi (YAML cho phép khóa số), map con cũng vậy
+     */
+    private static Map<String, Object> toSection(Map<?, ?> map) {
+        Map<String, Object> section = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            section.put(String.valueOf(entry.getKey()), value instanceof Map ? toSection((Map<?, ?>) value) : value);
+        }
+        return section;
+    }
+
+    /**
+     * Yaml không thread-safe nên mỗi lần đọc / ghi tạo một instance mới
+     */
+    private static Yaml newYaml() {
+        LoaderOptions loaderOptions = new LoaderOptions();
+        DumperOptions dumperOptions = new DumperOptions();
+        dumperOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        dumperOptions.setIndent(2);
+        dumperOptions.setAllowUnicode(true);
+        return new Yaml(new SafeConstructor(loaderOptions), new Representer(dumperOptions), dumperOptions, loaderOptions);
+    }
+}
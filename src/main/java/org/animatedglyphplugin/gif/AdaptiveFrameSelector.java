@@ -0,0 +1,148 @@
+package org.animatedglyphplugin.gif;
+
+import java.util.Arrays;
+
+/**
+ * Chọn frame thích ứng cho sprite sheet: ít ô nhất mà animation vẫn gần với GIF gốc.
+ * <p>
+ * Shader phát các ô đều nhau theo thời gian, nên sheet N ô là bản lấy mẫu đều timeline của GIF (theo delay
+ * từng frame) thành N khoảng. Mỗi khoảng hiển thị một frame thay cho các frame thật rơi vào khoảng đó.
+ * <p>
+ * Độ khác nhau giữa các frame lấy từ hiệu giữa hai frame liên tiếp trên thumbnail thu nhỏ
+ * ({@value #THUMBNAIL_SIZE}x{@value #THUMBNAIL_SIZE}): khoảng cách frame a tới frame b là tổng các hiệu liên tiếp
+ * giữa chúng (cận trên, chỉ cần giữ hai thumbnail trong bộ nhớ). Với mỗi khoảng, frame được chọn là trung vị theo
+ * thời gian, sai số là độ khác trung bình theo thời gian giữa frame hiển thị và frame thật, tính trên cả vòng lặp.
+ * <p>
+ * Gọi {@link #add} cho từng frame theo thứ tự rồi {@link #select}. Không thread-safe.
+ */
+final class AdaptiveFrameSelector {
+
+    static final int THUMBNAIL_SIZE = 16;
+    // Trình duyệt coi delay 0-10 ms là 100 ms, GIF thường dựa vào điều đó
+    private static final int MIN_DELAY_MILLIS = 20;
+    private static final int DEFAULT_DELAY_MILLIS = 100;
+    // Trên số này chỉ thử các số ô cách nhau khoảng 3%, để chi phí không tăng theo bình phương số frame tối đa
+    private static final int EXHAUSTIVE_SEARCH_LIMIT = 256;
+
+    private final FrameResampler resampler = new FrameResampler(THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+    private int[] previousThumbnail = new int[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+    private int[] thumbnail = new int[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+    private int frameCount;
+    // Thời điểm bắt đầu frame k (ms), phần tử cuối là tổng thời gian
+    private long[] startMillis = new long[16];
+    // Tổng hiệu các cặp frame liên tiếp từ frame 0 tới frame k
+    private double[] distance = new double[16];
+
+    /**
+     * Thêm frame tiếp theo của GIF
+     *
+     * @param delayMillis delay của frame trong GIF (0 nếu nguồn không có delay)
+     */
+    void add(int[] pixels, int width, int height, int delayMillis) {
+        GifToPngConverter.resizeFrame(resampler, pixels, width, height, thumbnail, 0, THUMBNAIL_SIZE);
+
+        if (frameCount + 2 > startMillis.length) {
+            startMillis = Arrays.copyOf(startMillis, startMillis.length * 2);
+            distance = Arrays.copyOf(distance, distance.length * 2);
+        }
+        distance[frameCount] = frameCount == 0 ? 0 : distance[frameCount - 1] + difference(previousThumbnail, thumbnail);
+        startMillis[frameCount + 1] = startMillis[frameCount] + (delayMillis < MIN_DELAY_MILLIS ? DEFAULT_DELAY_MILLIS : delayMillis);
+        frameCount++;
+
+        int[] swap = previousThumbnail;
+        previousThumbnail = thumbnail;
+        thumbnail = swap;
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Số ô nhỏ nhất (không quá maxFrames) có sai số trong ngân sách, cùng frame nguồn của từng ô.
+     * Không số ô nào đạt thì dùng maxFrames.
+     *
+     * @param maxError sai số trung bình cho phép, 0..1 (tỉ lệ độ sáng / alpha khác nhau trên thumbnail)
+     * @return frame nguồn của từng ô, độ dài là số ô được chọn
+     */
+    int[] select(int maxFrames, double maxError) {
+        if (frameCount == 0) {
+            throw new IllegalStateException("Chưa có frame nào");
+        }
+        int slots = maxFrames;
+        for (int candidate = 1; candidate < maxFrames; candidate = nextCandidate(candidate)) {
+            if (error(candidate, null) <= maxError) {
+                slots = candidate;
+                break;
+            }
+        }
+        int[] indices = new int[slots];
+        error(slots, indices);
+        return indices;
+    }
+
+    private static int nextCandidate(int candidate) {
+        return candidate < EXHAUSTIVE_SEARCH_LIMIT ? candidate + 1 : candidate + Math.max(1, candidate / 32);
+    }
+
+    /**
+     * Sai số trung bình theo thời gian khi lấy mẫu timeline thành số ô cho trước
+     *
+     * @param indices nếu khác null, nhận frame được chọn cho từng ô
+     */
+    double error(int slots, int[] indices) {
+        double total = startMillis[frameCount];
+        double sum = 0;
+        int first = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            double from = total * slot / slots;
+            double to = total * (slot + 1) / slots;
+            while (first < frameCount - 1 && startMillis[first + 1] <= from) {
+                first++;
+            }
+
+            // Trung vị theo thời gian: khoảng cách tăng dần theo chỉ số frame nên là frame đầu tiên đạt nửa khoảng
+            double half = (to - from) / 2;
+            double covered = 0;
+            int median = first;
+            for (int k = first; k < frameCount && startMillis[k] < to; k++) {
+                median = k;
+                covered += overlap(k, from, to);
+                if (covered >= half) {
+                    break;
+                }
+            }
+            for (int k = first; k < frameCount && startMillis[k] < to; k++) {
+                sum += overlap(k, from, to) * Math.abs(distance[k] - distance[median]);
+            }
+            if (indices != null) {
+                indices[slot] = median;
+            }
+        }
+        return sum / total;
+    }
+
+    private double overlap(int frame, double from, double to) {
+        return Math.max(0, Math.min(startMillis[frame + 1], to) - Math.max(startMillis[frame], from));
+    }
+
+    /**
+     * Hiệu trung bình trên các pixel, 0..1: lớn hơn giữa chênh lệch độ sáng (trên màu đã nhân alpha) và chênh lệch alpha
+     */
+    static double difference(int[] a, int[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            int pa = a[i];
+            int pb = b[i];
+            int alphaA = pa >>> 24;
+            int alphaB = pb >>> 24;
+            // Độ sáng nhân alpha, thang 0..255*255*1000
+            long lumaA = (299L * ((pa >> 16) & 0xFF) + 587L * ((pa >> 8) & 0xFF) + 114L * (pa & 0xFF)) * alphaA;
+            long lumaB = (299L * ((pb >> 16) & 0xFF) + 587L * ((pb >> 8) & 0xFF) + 114L * (pb & 0xFF)) * alphaB;
+            long lumaDiff = Math.abs(lumaA - lumaB);
+            long alphaDiff = Math.abs(alphaA - alphaB) * 255L * 1000L;
+            sum += Math.max(lumaDiff, alphaDiff);
+        }
+        return sum / (a.length * 255.0 * 255.0 * 1000.0);
+    }
+}
@@ -0,0 +1,160 @@
+package org.animatedglyphplugin.gif;
+
+/**
+ * Resize frame ARGB bằng bộ lọc area (box filter) trên mảng int[], ghi thẳng vào ô đích của sprite sheet.
+ * Trọng số được tính sẵn theo kích thước nguồn/đích và dùng lại cho mọi frame cùng kích thước.
+ * Không thread-safe: mỗi lần chuyển đổi dùng một instance riêng.
+ */
+final class FrameResampler {
+
+    private static final int WEIGHT_BITS = 12;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int targetWidth;
+    private final int targetHeight;
+
+    private int sourceWidth = -1;
+    private int sourceHeight = -1;
+
+    // Bảng trọng số theo trục X và Y
+    private int[] xStart, xCount, xOffset, xWeights;
+    private int[] yStart, yCount, yOffset, yWeights;
+
+    // Kết quả trung gian sau khi lọc theo chiều ngang (premultiplied alpha)
+    private int[] rowA, rowR, rowG, rowB;
+
+    FrameResampler(int targetWidth, int targetHeight) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+    }
+
+    /**
+     * Resize ảnh nguồn và ghi vào vùng targetWidth x targetHeight của mảng đích
+     */
+    void resize(int[] source, int srcWidth, int srcHeight, int[] target, int targetOffset, int targetStride) {
+        prepare(srcWidth, srcHeight);
+
+        // Lọc ngang: mỗi dòng nguồn -> targetWidth pixel
+        for (int y = 0; y < srcHeight; y++) {
+            int sourceRow = y * srcWidth;
+            int outRow = y * targetWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                int weightIndex = xOffset[x];
+                int sourceIndex = sourceRow + xStart[x];
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < xCount[x]; k++) {
+                    int pixel = source[sourceIndex + k];
+                    int alpha = pixel >>> 24;
+                    if (alpha != 0) {
+                        int weight = xWeights[weightIndex + k] * alpha;
+                        a += xWeights[weightIndex + k] * alpha;
+                        r += weight * ((pixel >> 16) & 0xFF);
+                        g += weight * ((pixel >> 8) & 0xFF);
+                        b += weight * (pixel & 0xFF);
+                    }
+                }
+                rowA[outRow + x] = (a + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS;
+                rowR[outRow + x] = (r + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS;
+                rowG[outRow + x] = (g + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS;
+                rowB[outRow + x] = (b + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS;
+            }
+        }
+
+        // Lọc dọc và bỏ premultiply khi ghi ra ô đích
+        for (int y = 0; y < targetHeight; y++) {
+            int weightIndex = yOffset[y];
+            int targetRow = targetOffset + y * targetStride;
+            for (int x = 0; x < targetWidth; x++) {
+                int index = yStart[y] * targetWidth + x;
+                long a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < yCount[y]; k++) {
+                    int weight = yWeights[weightIndex + k];
+                    a += (long) weight * rowA[index];
+                    r += (long) weight * rowR[index];
+                    g += (long) weight * rowG[index];
+                    b += (long) weight * rowB[index];
+                    index += targetWidth;
+                }
+
+                int alpha = (int) ((a + (WEIGHT_ONE >> 1)) >> WEIGHT_BITS);
+                if (alpha == 0 || a == 0) {
+                    target[targetRow + x] = 0;
+                } else {
+                    int red = (int) Math.min(255, (r + (a >> 1)) / a);
+                    int green = (int) Math.min(255, (g + (a >> 1)) / a);
+                    int blue = (int) Math.min(255, (b + (a >> 1)) / a);
+                    target[targetRow + x] = (Math.min(alpha, 255) << 24) | (red << 16) | (green << 8) | blue;
+                }
+            }
+        }
+    }
+
+    private void prepare(int srcWidth, int srcHeight) {
+        if (srcWidth != sourceWidth) {
+            int[][] table = buildWeights(srcWidth, targetWidth);
+            xStart = table[0];
+            xCount = table[1];
+            xOffset = table[2];
+            xWeights = table[3];
+            sourceWidth = srcWidth;
+        }
+        if (srcHeight != sourceHeight) {
+            int[][] table = buildWeights(srcHeight, targetHeight);
+            yStart = table[0];
+            yCount = table[1];
+            yOffset = table[2];
+            yWeights = table[3];
+            sourceHeight = srcHeight;
+        }
+
+        int scratchSize = targetWidth * srcHeight;
+        if (rowA == null || rowA.length < scratchSize) {
+            rowA = new int[scratchSize];
+            rowR = new int[scratchSize];
+            rowG = new int[scratchSize];
+            rowB = new int[scratchSize];
+        }
+    }
+
+    /**
+     * Tính phần diện tích mỗi pixel nguồn đóng góp vào từng pixel đích, chuẩn hóa tổng về WEIGHT_ONE
+     *
+     * @return {start, count, offset, weights}
+     */
+    private static int[][] buildWeights(int sourceLength, int targetLength) {
+        double scale = (double) sourceLength / targetLength;
+        int[] start = new int[targetLength];
+        int[] count = new int[targetLength];
+        int[] offset = new int[targetLength];
+        int[] weights = new int[targetLength * ((int) Math.ceil(scale) + 2)];
+
+        int used = 0;
+        for (int i = 0; i < targetLength; i++) {
+            double from = i * scale;
+            double to = Math.min(sourceLength, (i + 1) * scale);
+            int first = Math.min(sourceLength - 1, (int) Math.floor(from));
+            int last = Math.max(first, Math.min(sourceLength - 1, (int) Math.ceil(to) - 1));
+
+            start[i] = first;
+            count[i] = last - first + 1;
+            offset[i] = used;
+
+            int total = 0;
+            int largest = used;
+            for (int j = first; j <= last; j++) {
+                double coverage = Math.min(to, j + 1) - Math.max(from, j);
+                int weight = (int) Math.round(Math.max(0, coverage) / (to - from) * WEIGHT_ONE);
+                weights[used] = weight;
+                total += weight;
+                if (weight > weights[largest]) {
+                    largest = used;
+                }
+                used++;
+            }
+            // Bù sai số làm tròn để tổng trọng số đúng bằng WEIGHT_ONE
+            weights[largest] += WEIGHT_ONE - total;
+        }
+
+        return new int[][]{start, count, offset, weights};
+    }
+}
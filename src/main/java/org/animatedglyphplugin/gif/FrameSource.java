@@ -0,0 +1,160 @@
+package org.animatedglyphplugin.gif;
+
+import org.animatedglyphplugin.util.Hex;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Ảnh nguồn của glyph nằm trong bộ nhớ (không có file trong gif/): nội dung một file GIF
+ * hoặc danh sách frame đã decode sẵn.
+ * <p>
+ * Dữ liệu được copy khi tạo nên không bị ảnh hưởng khi bên gọi sửa mảng / ảnh gốc sau đó,
+ * và đối tượng dùng chung an toàn giữa các thread build.
+ */
+public final class FrameSource {
+
+    private final byte[] gifData;
+    // Pixel ARGB của từng frame khi nguồn là danh sách ảnh
+    private final int[][] framePixels;
+    private final int[] frameWidths;
+    private final int[] frameHeights;
+    private final String contentHash;
+
+    private FrameSource(byte[] gifData, int[][] framePixels, int[] frameWidths, int[] frameHeights) {
+        this.gifData = gifData;
+        this.framePixels = framePixels;
+        this.frameWidths = frameWidths;
+        this.frameHeights = frameHeights;
+        this.contentHash = computeHash();
+    }
+
+    /**
+     * Nguồn là nội dung file GIF
+     */
+    public static FrameSource ofGif(byte[] gifData) {
+        if (gifData == null || gifData.length == 0) {
+            throw new IllegalArgumentException("Dữ liệu GIF rỗng");
+        }
+        return new FrameSource(gifData.clone(), null, null, null);
+    }
+
+    /**
+     * Đọc hết nội dung GIF từ stream (stream không được đóng)
+     */
+    public static FrameSource ofGif(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return ofGif(buffer.toByteArray());
+    }
+
+    /**
+     * Nguồn là danh sách frame theo thứ tự phát, mỗi frame có thể có kích thước riêng
+     */
+    public static FrameSource ofFrames(List<BufferedImage> frames) {
+        if (frames == null || frames.isEmpty()) {
+            throw new IllegalArgumentException("Danh sách frame rỗng");
+        }
+        int count = frames.size();
+        int[][] pixels = new int[count][];
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            BufferedImage frame = frames.get(i);
+            if (frame == null) {
+                throw new IllegalArgumentException("Frame " + i + " là null");
+            }
+            widths[i] = frame.getWidth();
+            heights[i] = frame.getHeight();
+            pixels[i] = frame.getRGB(0, 0, widths[i], heights[i], null, 0, widths[i]);
+        }
+        return new FrameSource(null, pixels, widths, heights);
+    }
+
+    /**
+     * SHA-256 của nội dung nguồn, dùng làm khóa cache và để nhận ra nguồn không đổi
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Số byte dữ liệu nguồn (số liệu build)
+     */
+    public long getSizeBytes() {
+        if (gifData != null) {
+            return gifData.length;
+        }
+        long bytes = 0;
+        for (int[] frame : framePixels) {
+            bytes += frame.length * 4L;
+        }
+        return bytes;
+    }
+
+    boolean isGif() {
+        return gifData != null;
+    }
+
+    byte[] getGifData() {
+        return gifData;
+    }
+
+    int getFrameCount() {
+        return framePixels.length;
+    }
+
+    int[] getFramePixels(int index) {
+        return framePixels[index];
+    }
+
+    int getFrameWidth(int index) {
+        return frameWidths[index];
+    }
+
+    int getFrameHeight(int index) {
+        return frameHeights[index];
+    }
+
+    private String computeHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+        if (gifData != null) {
+            digest.update("gif|".getBytes(StandardCharsets.UTF_8));
+            digest.update(gifData);
+        } else {
+            digest.update("frames|".getBytes(StandardCharsets.UTF_8));
+            byte[] row = new byte[0];
+            for (int i = 0; i < framePixels.length; i++) {
+                digest.update((frameWidths[i] + "x" + frameHeights[i] + "|").getBytes(StandardCharsets.UTF_8));
+                int[] pixels = framePixels[i];
+                if (row.length < pixels.length * 4) {
+                    row = new byte[pixels.length * 4];
+                }
+                for (int p = 0; p < pixels.length; p++) {
+                    int argb = pixels[p];
+                    row[p * 4] = (byte) (argb >>> 24);
+                    row[p * 4 + 1] = (byte) (argb >>> 16);
+                    row[p * 4 + 2] = (byte) (argb >>> 8);
+                    row[p * 4 + 3] = (byte) argb;
+                }
+                digest.update(row, 0, pixels.length * 4);
+            }
+        }
+        return Hex.toHex(digest.digest());
+    }
+}
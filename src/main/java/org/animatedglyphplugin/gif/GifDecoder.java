@@ -0,0 +1,520 @@
+package org.animatedglyphplugin.gif;
+
+import org.animatedglyphplugin.metrics.StageTimer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * GIF decoder riêng cho việc tạo sprite sheet.
+ * Decode LZW bằng bảng tra, ghép frame vào một canvas ARGB dùng lại cho mọi frame
+ * và xử lý đúng disposal method, offset frame và màu trong suốt.
+ */
+public class GifDecoder {
+
+    private static final int MAX_CODES = 4096;
+
+    private static final int DISPOSAL_RESTORE_BACKGROUND = 2;
+    private static final int DISPOSAL_RESTORE_PREVIOUS = 3;
+
+    /**
+     * Nhận từng frame đã ghép. Mảng canvas chỉ hợp lệ trong lúc gọi và sẽ bị ghi đè ở frame sau.
+     */
+    public interface FrameVisitor {
+        /**
+         * @return false để dừng decode
+         */
+        boolean visit(int frameIndex, int[] canvas, int delayMillis) throws IOException;
+    }
+
+    private final ByteBuffer data;
+    private final int width;
+    private final int height;
+    private final int[] globalColorTable;
+    private final int firstBlockPosition;
+
+    // Bảng LZW dùng lại giữa các frame
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] firstByte = new byte[MAX_CODES];
+    private final short[] length = new short[MAX_CODES];
+
+    // Trạng thái đọc bit trong các sub-block
+    private int blockRemaining;
+    private int bitBuffer;
+    private int bitCount;
+
+    public GifDecoder(ByteBuffer data) throws IOException {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte[] signature = new byte[6];
+            this.data.get(signature);
+            String header = new String(signature, "US-ASCII");
+            if (!header.equals("GIF87a") && !header.equals("GIF89a")) {
+                throw new IOException("Không phải file GIF: " + header);
+            }
+
+            this.width = this.data.getShort() & 0xFFFF;
+            this.height = this.data.getShort() & 0xFFFF;
+            int packed = this.data.get() & 0xFF;
+            this.data.get(); // background color index
+            this.data.get(); // pixel aspect ratio
+
+            if (width == 0 || height == 0) {
+                throw new IOException("Kích thước GIF không hợp lệ: " + width + "x" + height);
+            }
+
+            this.globalColorTable = (packed & 0x80) != 0 ? readColorTable(packed & 0x07) : null;
+            this.firstBlockPosition = this.data.position();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Header GIF bị cắt cụt", e);
+        }
+    }
+
+    /**
+     * Đọc toàn bộ file qua FileChannel vào buffer (không map file để tránh khóa file trên Windows)
+     */
+    public static GifDecoder open(File gifFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(gifFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File GIF quá lớn: " + gifFile.getName());
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return new GifDecoder(buffer);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Đếm số frame bằng cách bỏ qua các block dữ liệu, không decode pixel
+     */
+    public int countFrames() throws IOException {
+        ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        in.position(firstBlockPosition);
+        int count = 0;
+        try {
+            while (in.hasRemaining()) {
+                int blockType = in.get() & 0xFF;
+                if (blockType == 0x21) {
+                    in.get(); // label
+                    skipSubBlocks(in);
+                } else if (blockType == 0x2C) {
+                    in.position(in.position() + 8);
+                    int packed = in.get() & 0xFF;
+                    if ((packed & 0x80) != 0) {
+                        in.position(in.position() + 3 * (1 << ((packed & 0x07) + 1)));
+                    }
+                    in.get(); // LZW minimum code size
+                    skipSubBlocks(in);
+                    count++;
+                } else {
+                    // Trailer (0x3B) hoặc dữ liệu rác ở cuối file
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // File bị cắt cụt: chỉ tính các frame đầy đủ
+        }
+        return count;
+    }
+
+    /**
+     * Decode tuần tự tất cả frame, ghép vào canvas và gọi visitor sau mỗi frame
+     */
+    public void decode(FrameVisitor visitor) throws IOException {
+        try (FrameCursor cursor = frames()) {
+            while (cursor.next()) {
+                if (!visitor.visit(cursor.getIndex(), cursor.getCanvas(), cursor.getDelayMillis())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Con trỏ decode frame theo yêu cầu, dừng được giữa chừng và tiếp tục sau (ví dụ giữa các dải dòng
+     * của sprite sheet streaming). Mỗi decoder chỉ dùng một con trỏ tại một thời điểm vì bảng LZW dùng chung.
+     */
+    public FrameCursor frames() {
+        return new FrameCursor();
+    }
+
+    /**
+     * Trạng thái decode giữa các frame: vị trí đọc, canvas đã ghép và disposal của frame trước
+     */
+    public final class FrameCursor implements Closeable {
+        private final int[] canvas = new int[width * height];
+        private int[] savedCanvas;
+        private byte[] indexBuffer = new byte[0];
+        private final ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        // Graphic Control Extension áp dụng cho frame kế tiếp
+        private int disposal;
+        private int delay;
+        private int transparentIndex = -1;
+
+        // Thông tin frame trước để xử lý disposal
+        private int prevDisposal;
+        private int prevX, prevY, prevW, prevH;
+
+        // Canvas (và canvas lưu tạm cho disposal restore-previous) được tính vào số frame giữ trong bộ nhớ
+        private final StageTimer timer = StageTimer.current();
+        private int heldFrames = 1;
+
+        private int frameIndex = -1;
+        private int frameDelay;
+        private boolean finished;
+        private boolean closed;
+
+        private FrameCursor() {
+            in.position(firstBlockPosition);
+            timer.holdFrames(heldFrames);
+        }
+
+        /**
+         * Decode frame kế tiếp vào canvas
+         *
+         * @return false khi đã hết frame
+         */
+        public boolean next() throws IOException {
+            if (finished) {
+                return false;
+            }
+            try {
+                if (readFrame()) {
+                    return true;
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                if (frameIndex < 0) {
+                    finished = true;
+                    throw new IOException("Dữ liệu GIF bị cắt cụt", e);
+                }
+                // Các frame đã decode đủ vẫn được giữ lại
+            }
+            finished = true;
+            if (frameIndex < 0) {
+                throw new IOException("GIF không có frame nào");
+            }
+            return false;
+        }
+
+        private boolean readFrame() throws IOException {
+            if (frameIndex >= 0) {
+                prevDisposal = disposal;
+                disposal = 0;
+                delay = 0;
+                transparentIndex = -1;
+            }
+
+            while (in.hasRemaining()) {
+                int blockType = in.get() & 0xFF;
+
+                if (blockType == 0x21) {
+                    int label = in.get() & 0xFF;
+                    if (label == 0xF9) {
+                        int blockSize = in.get() & 0xFF;
+                        int start = in.position();
+                        int packed = in.get() & 0xFF;
+                        delay = (in.getShort() & 0xFFFF) * 10;
+                        int transIndex = in.get() & 0xFF;
+                        disposal = (packed >> 2) & 0x07;
+                        transparentIndex = (packed & 0x01) != 0 ? transIndex : -1;
+                        in.position(start + blockSize);
+                    }
+                    skipSubBlocks(in);
+                    continue;
+                }
+
+                if (blockType != 0x2C) {
+                    // Trailer (0x3B) hoặc dữ liệu rác ở cuối file
+                    return false;
+                }
+
+                int frameX = in.getShort() & 0xFFFF;
+                int frameY = in.getShort() & 0xFFFF;
+                int frameW = in.getShort() & 0xFFFF;
+                int frameH = in.getShort() & 0xFFFF;
+                int packed = in.get() & 0xFF;
+                boolean interlaced = (packed & 0x40) != 0;
+                int[] colorTable = (packed & 0x80) != 0 ? readColorTable(in, packed & 0x07) : globalColorTable;
+                if (colorTable == null) {
+                    throw new IOException("GIF không có bảng màu");
+                }
+
+                // Áp dụng disposal của frame trước
+                if (prevDisposal == DISPOSAL_RESTORE_BACKGROUND) {
+                    clearRect(canvas, prevX, prevY, prevW, prevH);
+                } else if (prevDisposal == DISPOSAL_RESTORE_PREVIOUS && savedCanvas != null) {
+                    copyRect(savedCanvas, canvas, prevX, prevY, prevW, prevH);
+                }
+
+                if (disposal == DISPOSAL_RESTORE_PREVIOUS) {
+                    if (savedCanvas == null) {
+                        savedCanvas = new int[canvas.length];
+                        timer.holdFrames(1);
+                        heldFrames++;
+                    }
+                    copyRect(canvas, savedCanvas, frameX, frameY, frameW, frameH);
+                }
+
+                int pixelCount = frameW * frameH;
+                if (indexBuffer.length < pixelCount) {
+                    indexBuffer = new byte[pixelCount];
+                }
+                int minCodeSize = in.get() & 0xFF;
+                int decoded = decodeLzw(in, minCodeSize, indexBuffer, pixelCount);
+
+                drawFrame(canvas, indexBuffer, decoded, colorTable, transparentIndex,
+                        frameX, frameY, frameW, frameH, interlaced);
+
+                prevX = frameX;
+                prevY = frameY;
+                prevW = frameW;
+                prevH = frameH;
+                frameDelay = delay;
+                frameIndex++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Chỉ số của frame vừa decode (-1 trước lần gọi next đầu tiên)
+         */
+        public int getIndex() {
+            return frameIndex;
+        }
+
+        /**
+         * Canvas ARGB sau khi ghép frame hiện tại, bị ghi đè ở lần next sau
+         */
+        public int[] getCanvas() {
+            return canvas;
+        }
+
+        public int getDelayMillis() {
+            return frameDelay;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                timer.releaseFrames(heldFrames);
+            }
+        }
+    }
+
+    /**
+     * Decode LZW từ các data sub-block vào mảng index màu
+     *
+     * @return số pixel đã decode được
+     */
+    private int decodeLzw(ByteBuffer in, int minCodeSize, byte[] out, int pixelCount) throws IOException {
+        if (minCodeSize < 1 || minCodeSize > 11) {
+            throw new IOException("LZW code size không hợp lệ: " + minCodeSize);
+        }
+
+        int clearCode = 1 << minCodeSize;
+        int endCode = clearCode + 1;
+        for (int code = 0; code < clearCode; code++) {
+            prefix[code] = -1;
+            suffix[code] = (byte) code;
+            firstByte[code] = (byte) code;
+            length[code] = 1;
+        }
+
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int available = clearCode + 2;
+        int oldCode = -1;
+        int position = 0;
+
+        blockRemaining = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+
+        while (position < pixelCount) {
+            // Nạp đủ bit cho một code
+            while (bitCount < codeSize) {
+                int next = readDataByte(in);
+                if (next < 0) {
+                    // Hết sub-block trước mã EOI: bỏ qua block terminator để frame sau vẫn đọc được
+                    skipSubBlocks(in);
+                    return position;
+                }
+                bitBuffer |= next << bitCount;
+                bitCount += 8;
+            }
+            int code = bitBuffer & codeMask;
+            bitBuffer >>>= codeSize;
+            bitCount -= codeSize;
+
+            if (code == clearCode) {
+                codeSize = minCodeSize + 1;
+                codeMask = (1 << codeSize) - 1;
+                available = clearCode + 2;
+                oldCode = -1;
+                continue;
+            }
+            if (code == endCode) {
+                break;
+            }
+
+            if (oldCode == -1) {
+                if (code >= clearCode) {
+                    throw new IOException("Mã LZW không hợp lệ: " + code);
+                }
+                out[position++] = suffix[code];
+                oldCode = code;
+                continue;
+            }
+
+            if (code > available || (code == available && available >= MAX_CODES)) {
+                throw new IOException("Mã LZW không hợp lệ: " + code);
+            }
+
+            // Thêm entry mới = chuỗi cũ + ký tự đầu của chuỗi hiện tại (hoặc của chính nó với KwKwK)
+            if (available < MAX_CODES) {
+                prefix[available] = (short) oldCode;
+                suffix[available] = code == available ? firstByte[oldCode] : firstByte[code];
+                firstByte[available] = firstByte[oldCode];
+                length[available] = (short) (length[oldCode] + 1);
+                available++;
+                if ((available & codeMask) == 0 && available < MAX_CODES) {
+                    codeSize++;
+                    codeMask = (1 << codeSize) - 1;
+                }
+            }
+
+            // Ghi chuỗi của code từ cuối về đầu theo bảng prefix
+            int stringLength = length[code];
+            int current = code;
+            for (int i = position + stringLength - 1; i >= position; i--) {
+                if (i < pixelCount) {
+                    out[i] = suffix[current];
+                }
+                current = prefix[current];
+            }
+            position += stringLength;
+            oldCode = code;
+        }
+
+        // Bỏ qua phần dữ liệu còn lại của frame
+        in.position(in.position() + blockRemaining);
+        blockRemaining = 0;
+        skipSubBlocks(in);
+        return Math.min(position, pixelCount);
+    }
+
+    private int readDataByte(ByteBuffer in) {
+        if (blockRemaining == 0) {
+            blockRemaining = in.get() & 0xFF;
+            if (blockRemaining == 0) {
+                // Block terminator: lùi lại để skipSubBlocks đọc nó
+                in.position(in.position() - 1);
+                return -1;
+            }
+        }
+        blockRemaining--;
+        return in.get() & 0xFF;
+    }
+
+    private void drawFrame(int[] canvas, byte[] indices, int decoded, int[] colorTable, int transparentIndex,
+                           int frameX, int frameY, int frameW, int frameH, boolean interlaced) {
+        int pass = 0;
+        int step = interlaced ? 8 : 1;
+        int row = 0;
+
+        for (int i = 0; i < frameH; i++) {
+            int canvasY = frameY + row;
+            if (canvasY < height) {
+                int source = i * frameW;
+                int target = canvasY * width + frameX;
+                int visibleWidth = Math.min(frameW, width - frameX);
+                for (int x = 0; x < visibleWidth; x++) {
+                    if (source + x >= decoded) {
+                        break;
+                    }
+                    int index = indices[source + x] & 0xFF;
+                    if (index != transparentIndex && index < colorTable.length) {
+                        canvas[target + x] = colorTable[index];
+                    }
+                }
+            }
+
+            row += step;
+            if (interlaced) {
+                while (row >= frameH && pass < 3) {
+                    pass++;
+                    row = pass == 1 ? 4 : pass == 2 ? 2 : 1;
+                    step = pass == 1 ? 8 : pass == 2 ? 4 : 2;
+                }
+            }
+        }
+    }
+
+    private void clearRect(int[] canvas, int x, int y, int w, int h) {
+        int right = Math.min(x + w, width);
+        int bottom = Math.min(y + h, height);
+        for (int row = y; row < bottom; row++) {
+            if (x < right) {
+                Arrays.fill(canvas, row * width + x, row * width + right, 0);
+            }
+        }
+    }
+
+    private void copyRect(int[] from, int[] to, int x, int y, int w, int h) {
+        int right = Math.min(x + w, width);
+        int bottom = Math.min(y + h, height);
+        for (int row = y; row < bottom; row++) {
+            if (x < right) {
+                System.arraycopy(from, row * width + x, to, row * width + x, right - x);
+            }
+        }
+    }
+
+    private int[] readColorTable(int sizeBits) {
+        return readColorTable(data, sizeBits);
+    }
+
+    private static int[] readColorTable(ByteBuffer in, int sizeBits) {
+        int size = 1 << (sizeBits + 1);
+        int[] table = new int[size];
+        for (int i = 0; i < size; i++) {
+            int r = in.get() & 0xFF;
+            int g = in.get() & 0xFF;
+            int b = in.get() & 0xFF;
+            table[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return table;
+    }
+
+    private static void skipSubBlocks(ByteBuffer in) {
+        int blockSize;
+        while ((blockSize = in.get() & 0xFF) != 0) {
+            in.position(in.position() + blockSize);
+        }
+    }
+}
@@ -1,35 +1,279 @@
 package org.animatedglyphplugin.gif;
 
+import org.animatedglyphplugin.metrics.BuildStage;
+import org.animatedglyphplugin.metrics.StageTimer;
+import org.animatedglyphplugin.scheduler.BuildThrottle;
+
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 public class GifToPngConverter {
 
-    private static final int FRAME_SIZE = 40;  // Kích thước mỗi frame (có thể config sau)
+    private static final PngEncoder DEFAULT_ENCODER = new PngEncoder(true, false, 9);
 
-    // Các giá trị frames được phép (2x2, 3x3, 4x4, 5x5, 6x6, 7x7, 8x8, 9x9, 10x10)
-    private static final int[] ALLOWED_FRAMES = {4, 9, 16, 25, 36, 49, 64, 81, 100};
+    // Tag ở kênh blue của các pixel metadata; kênh alpha luôn là 1 để Minecraft không bỏ pixel trong suốt
+    private static final int METADATA_TAG = 75;
+    private static final int MARKER_X_TAG = 76;
+    private static final int MARKER_Y_TAG = 77;
+    // Vị trí pixel thời gian animation trên dòng đầu của sprite sheet
+    private static final int TIME_PIXEL = 6;
 
     /**
-     * Phương thức chính với configurable frames
+     * Phương thức chính với configurable frames (frame cao {@link SheetLayout#DEFAULT_FRAME_SIZE} pixel)
      */
     public static BufferedImage convertGifToPngSheet(File gifFile, double animationSeconds, int configFrames) throws IOException {
-        // Validate frames input
-        int gridSize = validateAndGetGridSize(configFrames);
+        return convertGifToPngSheet(gifFile, animationSeconds, configFrames, SheetLayout.DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @param frameSize chiều cao (pixel) mỗi frame trong sprite sheet
+     */
+    public static BufferedImage convertGifToPngSheet(File gifFile, double animationSeconds, int configFrames, int frameSize) throws IOException {
+        return convertGifToPngSheet(gifFile, animationSeconds, configFrames, frameSize, 0);
+    }
+
+    /**
+     * @param maxFrameError lớn hơn 0 để chọn frame thích ứng theo delay và độ khác nhau giữa các frame, khi đó
+     *                      configFrames là số ô tối đa (xem {@link AdaptiveFrameSelector}); 0 để dùng đúng configFrames ô
+     */
+    public static BufferedImage convertGifToPngSheet(File gifFile, double animationSeconds, int configFrames, int frameSize,
+                                                     double maxFrameError) throws IOException {
+        SheetLayout maxLayout = SheetLayout.of(configFrames, frameSize);
+        int[] selection = maxFrameError > 0 ? selectGifFrames(gifFile, configFrames, maxFrameError) : null;
+        return convert(animationSeconds, layoutFor(selection, maxLayout, frameSize), gifFile.getName(),
+                (sheetPixels, layout) -> loadAndProcessGifFrames(gifFile, sheetPixels, layout, selection));
+    }
+
+    /**
+     * Chuyển đổi nguồn trong bộ nhớ (nội dung GIF hoặc danh sách frame) thành sprite sheet,
+     * cùng format và cách chọn frame như khi đọc từ file
+     *
+     * @param label tên dùng trong thông báo lỗi
+     */
+    public static BufferedImage convertToPngSheet(FrameSource source, String label, double animationSeconds,
+                                                  int configFrames, int frameSize) throws IOException {
+        return convertToPngSheet(source, label, animationSeconds, configFrames, frameSize, 0);
+    }
+
+    /**
+     * @param maxFrameError như {@link #convertGifToPngSheet(File, double, int, int, double)}
+     */
+    public static BufferedImage convertToPngSheet(FrameSource source, String label, double animationSeconds,
+                                                  int configFrames, int frameSize, double maxFrameError) throws IOException {
+        SheetLayout maxLayout = SheetLayout.of(configFrames, frameSize);
+        int[] selection = maxFrameError > 0 ? selectSourceFrames(source, configFrames, maxFrameError) : null;
+        return convert(animationSeconds, layoutFor(selection, maxLayout, frameSize), label,
+                (sheetPixels, layout) -> loadAndProcessFrames(source, label, sheetPixels, layout, selection));
+    }
+
+    /**
+     * Bố cục theo số ô đã chọn thích ứng (ít hơn hoặc bằng số ô tối đa nên luôn hợp lệ)
+     */
+    private static SheetLayout layoutFor(int[] selection, SheetLayout maxLayout, int frameSize) {
+        return selection != null ? SheetLayout.of(selection.length, frameSize) : maxLayout;
+    }
 
-        List<BufferedImage> frames = loadAndProcessGifFrames(gifFile);
-        if (frames.isEmpty()) {
-            throw new IOException("Không thể đọc frames từ file GIF: " + gifFile.getName());
+    /**
+     * Đọc frame nguồn và resize vào sprite sheet
+     */
+    private interface FrameLoader {
+        int[] load(int[] sheetPixels, SheetLayout layout) throws IOException;
+    }
+
+    private static BufferedImage convert(double animationSeconds, SheetLayout layout, String label, FrameLoader loader) throws IOException {
+        // Kích thước sprite sheet: columns x rows ô cộng border 1 pixel mỗi bên
+        BufferedImage spriteSheet = new BufferedImage(layout.getWidth(), layout.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] sheetPixels = ((DataBufferInt) spriteSheet.getRaster().getDataBuffer()).getData();
+
+        int[] sourceIndices = loader.load(sheetPixels, layout);
+        if (sourceIndices == null) {
+            throw new IOException("Không thể đọc frames từ file GIF: " + label);
+        }
+
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.SHEET_ASSEMBLY);
+        try {
+            buildConfigurableSpriteSheet(sheetPixels, layout, sourceIndices, animationSeconds);
+        } finally {
+            timer.exit();
+        }
+        return spriteSheet;
+    }
+
+    /**
+     * Chuyển đổi GIF thẳng thành nội dung file PNG mà không dựng cả sprite sheet trong bộ nhớ:
+     * PNG được ghi theo từng dải một hàng ô, mỗi dải chỉ decode và resize các frame nằm trong hàng đó.
+     * Kết quả giống hệt {@link #convertGifToPngSheet(File, double, int, int)} rồi encode, đổi lại GIF được
+     * decode lại theo từng dải (hai lượt khi ghi indexed-colour).
+     * GIF mà decoder riêng không mở hoặc không decode hết được sẽ được chuyển đổi theo cách thường (qua ImageIO).
+     */
+    public static byte[] encodeGifToPngSheet(File gifFile, double animationSeconds, int configFrames, int frameSize,
+                                             PngEncoder encoder) throws IOException {
+        return encodeGifToPngSheet(gifFile, animationSeconds, configFrames, frameSize, 0, encoder);
+    }
+
+    /**
+     * @param maxFrameError như {@link #convertGifToPngSheet(File, double, int, int, double)}
+     */
+    public static byte[] encodeGifToPngSheet(File gifFile, double animationSeconds, int configFrames, int frameSize,
+                                             double maxFrameError, PngEncoder encoder) throws IOException {
+        SheetLayout.of(configFrames, frameSize);
+        GifDecoder decoder;
+        int frameCount;
+        try {
+            decoder = GifDecoder.open(gifFile);
+            frameCount = decoder.countFrames();
+        } catch (IOException | RuntimeException e) {
+            return encoder.encode(convertGifToPngSheet(gifFile, animationSeconds, configFrames, frameSize, maxFrameError));
         }
+        StageTimer.current().addBytesRead(BuildStage.DECODE, gifFile.length());
+        int[] selection = maxFrameError > 0 && frameCount > 0 ? selectFrames(decoder, configFrames, maxFrameError) : null;
+        try {
+            return encodeStreaming(new GifFrames(decoder, gifFile.getName()), frameCount, selection, configFrames, frameSize,
+                    animationSeconds, encoder);
+        } catch (GifFrameException e) {
+            // GIF hỏng giữa chừng: như khi đọc cả sheet, thử lại bằng ImageIO
+            return encoder.encode(convertGifToPngSheet(gifFile, animationSeconds, configFrames, frameSize, maxFrameError));
+        }
+    }
 
-        return buildConfigurableSpriteSheet(frames, animationSeconds, gridSize, configFrames);
+    /**
+     * Như {@link #encodeGifToPngSheet} nhưng đọc từ nguồn trong bộ nhớ
+     */
+    public static byte[] encodeToPngSheet(FrameSource source, String label, double animationSeconds, int configFrames,
+                                          int frameSize, PngEncoder encoder) throws IOException {
+        return encodeToPngSheet(source, label, animationSeconds, configFrames, frameSize, 0, encoder);
+    }
+
+    /**
+     * @param maxFrameError như {@link #convertGifToPngSheet(File, double, int, int, double)}
+     */
+    public static byte[] encodeToPngSheet(FrameSource source, String label, double animationSeconds, int configFrames,
+                                          int frameSize, double maxFrameError, PngEncoder encoder) throws IOException {
+        SheetLayout.of(configFrames, frameSize);
+        if (!source.isGif()) {
+            StageTimer.current().addBytesRead(BuildStage.DECODE, source.getSizeBytes());
+            SheetBandSource.FrameFetcher fetcher = (indices, consumer) -> {
+                for (int index : indices) {
+                    consumer.accept(index, source.getFramePixels(index), source.getFrameWidth(index), source.getFrameHeight(index));
+                }
+            };
+            int[] selection = maxFrameError > 0 ? selectSourceFrames(source, configFrames, maxFrameError) : null;
+            return encodeStreaming(fetcher, source.getFrameCount(), selection, configFrames, frameSize, animationSeconds, encoder);
+        }
+        GifDecoder decoder;
+        int frameCount;
+        try {
+            decoder = new GifDecoder(ByteBuffer.wrap(source.getGifData()));
+            frameCount = decoder.countFrames();
+        } catch (IOException | RuntimeException e) {
+            return encoder.encode(convertToPngSheet(source, label, animationSeconds, configFrames, frameSize, maxFrameError));
+        }
+        StageTimer.current().addBytesRead(BuildStage.DECODE, source.getSizeBytes());
+        int[] selection = maxFrameError > 0 && frameCount > 0 ? selectFrames(decoder, configFrames, maxFrameError) : null;
+        try {
+            return encodeStreaming(new GifFrames(decoder, label), frameCount, selection, configFrames, frameSize,
+                    animationSeconds, encoder);
+        } catch (GifFrameException e) {
+            return encoder.encode(convertToPngSheet(source, label, animationSeconds, configFrames, frameSize, maxFrameError));
+        }
+    }
+
+    /**
+     * @param selection frame nguồn của từng ô đã chọn thích ứng, null để chọn cố định configFrames ô
+     */
+    private static byte[] encodeStreaming(SheetBandSource.FrameFetcher fetcher, int frameCount, int[] selection,
+                                          int configFrames, int frameSize, double animationSeconds,
+                                          PngEncoder encoder) throws IOException {
+        if (frameCount <= 0) {
+            throw new IOException("GIF không có frame nào");
+        }
+        int[] sourceIndices = selection != null ? selection : selectSourceIndices(frameCount, configFrames);
+        SheetLayout layout = SheetLayout.of(sourceIndices.length, frameSize);
+        try {
+            return encoder.encode(new SheetBandSource(layout, sourceIndices, animationSeconds, fetcher),
+                    layout.getWidth(), layout.getHeight());
+        } finally {
+            if (fetcher instanceof Closeable) {
+                ((Closeable) fetcher).close();
+            }
+        }
+    }
+
+    /**
+     * Decoder riêng không đọc được frame giữa chừng khi encode streaming (khác với lỗi ghi PNG)
+     */
+    private static final class GifFrameException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private GifFrameException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Lấy frame từ GIF bằng một con trỏ decode: các frame được yêu cầu theo thứ tự tăng dần nên chỉ
+     * decode lại từ đầu khi cần một frame đã đi qua (sheet lặp lại frame khi GIF ít frame hơn grid)
+     */
+    private static final class GifFrames implements SheetBandSource.FrameFetcher, Closeable {
+        private final GifDecoder decoder;
+        private final String label;
+        private GifDecoder.FrameCursor cursor;
+
+        private GifFrames(GifDecoder decoder, String label) {
+            this.decoder = decoder;
+            this.label = label;
+        }
+
+        @Override
+        public void fetch(int[] sourceIndices, SheetBandSource.FrameConsumer consumer) throws IOException {
+            StageTimer timer = StageTimer.current();
+            timer.enter(BuildStage.DECODE);
+            try {
+                for (int index : sourceIndices) {
+                    consumer.accept(index, advanceTo(index), decoder.getWidth(), decoder.getHeight());
+                }
+            } finally {
+                timer.exit();
+            }
+        }
+
+        /**
+         * Đưa con trỏ tới frame index, lỗi decode được báo bằng {@link GifFrameException}
+         */
+        private int[] advanceTo(int index) throws GifFrameException {
+            try {
+                if (cursor == null || cursor.getIndex() > index) {
+                    close();
+                    cursor = decoder.frames();
+                }
+                while (cursor.getIndex() < index) {
+                    if (!cursor.next()) {
+                        throw new GifFrameException("Thiếu frame " + index + " trong file GIF: " + label, null);
+                    }
+                }
+                return cursor.getCanvas();
+            } catch (GifFrameException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                throw new GifFrameException("Không decode được frame " + index + " trong file GIF: " + label, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (cursor != null) {
+                cursor.close();
+                cursor = null;
+            }
+        }
     }
 
     /**
@@ -40,197 +284,388 @@ public class GifToPngConverter {
     }
 
     /**
-     * Validate số frames và trả về grid size
+     * Đọc GIF theo kiểu streaming: chỉ decode các frame sẽ được dùng trong sprite sheet
+     * và resize ngay vào ô đầu tiên dùng frame đó trong grid.
+     *
+     * Thời gian resize được tính vào giai đoạn resample, phần còn lại vào decode.
+     *
+     * @return frame nguồn của từng ô trong grid, hoặc null nếu GIF không có frame nào
      */
-    private static int validateAndGetGridSize(int frames) throws IllegalArgumentException {
-        for (int allowedFrames : ALLOWED_FRAMES) {
-            if (frames == allowedFrames) {
-                return (int) Math.sqrt(frames);
-            }
+    static int[] loadAndProcessGifFrames(File gifFile, int[] sheetPixels, SheetLayout layout) throws IOException {
+        return loadAndProcessGifFrames(gifFile, sheetPixels, layout, null);
+    }
+
+    /**
+     * @param selection frame nguồn của từng ô đã chọn thích ứng, null để chọn cố định theo số ô của layout
+     */
+    static int[] loadAndProcessGifFrames(File gifFile, int[] sheetPixels, SheetLayout layout, int[] selection) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.DECODE);
+        try {
+            timer.addBytesRead(BuildStage.DECODE, gifFile.length());
+            return loadFramesWithDecoder(GifDecoder.open(gifFile), gifFile.getName(), sheetPixels, layout, selection);
+        } catch (IOException | RuntimeException e) {
+            // GIF không chuẩn mà decoder riêng không đọc được: thử lại bằng ImageIO
+            return loadFramesWithImageIO(gifFile, sheetPixels, layout, selection);
+        } finally {
+            timer.exit();
         }
+    }
 
-        StringBuilder allowedList = new StringBuilder();
-        for (int i = 0; i < ALLOWED_FRAMES.length; i++) {
-            allowedList.append(ALLOWED_FRAMES[i]);
-            if (i < ALLOWED_FRAMES.length - 1) {
-                allowedList.append(", ");
+    /**
+     * Như {@link #loadAndProcessGifFrames} nhưng đọc từ nguồn trong bộ nhớ
+     */
+    static int[] loadAndProcessFrames(FrameSource source, String label, int[] sheetPixels, SheetLayout layout,
+                                      int[] selection) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.DECODE);
+        try {
+            timer.addBytesRead(BuildStage.DECODE, source.getSizeBytes());
+            if (!source.isGif()) {
+                return loadDecodedFrames(source, sheetPixels, layout, selection);
+            }
+            try {
+                GifDecoder decoder = new GifDecoder(ByteBuffer.wrap(source.getGifData()));
+                return loadFramesWithDecoder(decoder, label, sheetPixels, layout, selection);
+            } catch (IOException | RuntimeException e) {
+                return loadFramesWithImageIO(new ByteArrayInputStream(source.getGifData()), sheetPixels, layout, selection);
             }
+        } finally {
+            timer.exit();
         }
+    }
+
+    /**
+     * Đọc frame bằng GifDecoder, mỗi frame đã được ghép đầy đủ (disposal, offset, trong suốt)
+     */
+    private static int[] loadFramesWithDecoder(GifDecoder decoder, String label, int[] sheetPixels, SheetLayout layout,
+                                               int[] selection) throws IOException {
+        int frameCount = decoder.countFrames();
+        if (frameCount <= 0) {
+            return null;
+        }
+
+        int[] sourceIndices = sourceIndicesFor(selection, frameCount, layout);
+        int[] firstCell = findFirstCells(sourceIndices, frameCount);
+        int lastNeeded = 0;
+        for (int sourceIndex : sourceIndices) {
+            lastNeeded = Math.max(lastNeeded, sourceIndex);
+        }
+
+        FrameResampler resampler = new FrameResampler(layout.getFrameWidth(), layout.getFrameHeight());
+        boolean[] written = new boolean[frameCount];
+        int stopIndex = lastNeeded;
+        decoder.decode((frameIndex, canvas, delayMillis) -> {
+            if (firstCell[frameIndex] >= 0) {
+                resizeFrame(resampler, canvas, decoder.getWidth(), decoder.getHeight(),
+                        sheetPixels, layout.cellOffset(firstCell[frameIndex]), layout.getWidth());
+                written[frameIndex] = true;
+            }
+            return frameIndex < stopIndex;
+        });
 
-        throw new IllegalArgumentException(
-                "Số frames không hợp lệ: " + frames + ". " +
-                        "Chỉ cho phép các giá trị: " + allowedList.toString() + " " +
-                        "(tương ứng 2x2, 3x3, 4x4, 5x5, 6x6, 7x7, 8x8, 9x9, 10x10)"
-        );
+        for (int sourceIndex : sourceIndices) {
+            if (!written[sourceIndex]) {
+                throw new IOException("Thiếu frame " + sourceIndex + " trong file GIF: " + label);
+            }
+        }
+        return sourceIndices;
     }
 
-    private static List<BufferedImage> loadAndProcessGifFrames(File gifFile) throws IOException {
-        List<BufferedImage> originalFrames = new ArrayList<>();
+    /**
+     * Frame đã decode sẵn: chỉ resize các frame được dùng vào ô đầu tiên dùng frame đó
+     */
+    private static int[] loadDecodedFrames(FrameSource source, int[] sheetPixels, SheetLayout layout, int[] selection) {
+        int frameCount = source.getFrameCount();
+        int[] sourceIndices = sourceIndicesFor(selection, frameCount, layout);
+        int[] firstCell = findFirstCells(sourceIndices, frameCount);
+
+        FrameResampler resampler = new FrameResampler(layout.getFrameWidth(), layout.getFrameHeight());
+        for (int sourceIndex = 0; sourceIndex < frameCount; sourceIndex++) {
+            if (firstCell[sourceIndex] >= 0) {
+                resizeFrame(resampler, source.getFramePixels(sourceIndex),
+                        source.getFrameWidth(sourceIndex), source.getFrameHeight(sourceIndex),
+                        sheetPixels, layout.cellOffset(firstCell[sourceIndex]), layout.getWidth());
+            }
+        }
+        return sourceIndices;
+    }
 
-        try (ImageInputStream iis = ImageIO.createImageInputStream(gifFile)) {
+    /**
+     * Đọc frame bằng ImageIO (dự phòng), frame trả về là frame con chưa được ghép
+     *
+     * @param input file hoặc stream, như {@link ImageIO#createImageInputStream(Object)}
+     */
+    private static int[] loadFramesWithImageIO(Object input, int[] sheetPixels, SheetLayout layout,
+                                               int[] selection) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
             Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("gif");
             if (!readers.hasNext()) {
                 throw new IOException("Không tìm thấy GIF reader");
             }
 
             ImageReader reader = readers.next();
-            reader.setInput(iis);
+            try {
+                reader.setInput(iis);
+
+                // Chỉ bỏ qua các block dữ liệu để đếm frame, không decode pixel
+                int frameCount = reader.getNumImages(true);
+                if (frameCount <= 0) {
+                    return null;
+                }
+
+                int[] sourceIndices = sourceIndicesFor(selection, frameCount, layout);
+                int[] firstCell = findFirstCells(sourceIndices, frameCount);
+
+                // Decode mỗi frame nguồn cần dùng đúng một lần, theo thứ tự tăng dần
+                FrameResampler resampler = new FrameResampler(layout.getFrameWidth(), layout.getFrameHeight());
+                StageTimer timer = StageTimer.current();
+                for (int sourceIndex = 0; sourceIndex < frameCount; sourceIndex++) {
+                    if (firstCell[sourceIndex] < 0) {
+                        continue;
+                    }
+                    BufferedImage originalFrame = reader.read(sourceIndex);
+                    int width = originalFrame.getWidth();
+                    int height = originalFrame.getHeight();
+                    // Frame gốc và mảng pixel copy ra cùng nằm trong bộ nhớ khi resize
+                    timer.holdFrames(2);
+                    try {
+                        int[] pixels = originalFrame.getRGB(0, 0, width, height, null, 0, width);
+                        resizeFrame(resampler, pixels, width, height,
+                                sheetPixels, layout.cellOffset(firstCell[sourceIndex]), layout.getWidth());
+                    } finally {
+                        timer.releaseFrames(2);
+                    }
+                }
 
-            int frameCount = reader.getNumImages(true);
-            for (int i = 0; i < frameCount; i++) {
-                BufferedImage frame = reader.read(i);
-                originalFrames.add(frame);
+                return sourceIndices;
+            } finally {
+                reader.dispose();
             }
-            reader.dispose();
         }
-
-        return originalFrames;
     }
 
     /**
-     * Xử lý frames với số lượng configurable
+     * Frame nguồn của từng ô: theo lựa chọn thích ứng nếu có và khớp với số frame đọc được, nếu không thì chọn cố định
      */
-    private static List<BufferedImage> processFramesToConfigurableSize(List<BufferedImage> originalFrames, int targetFrameCount) {
-        List<BufferedImage> processedFrames = new ArrayList<>();
+    private static int[] sourceIndicesFor(int[] selection, int frameCount, SheetLayout layout) {
+        if (selection != null && selection.length == layout.getFrames() && maxIndex(selection) < frameCount) {
+            return selection;
+        }
+        return selectSourceIndices(frameCount, layout.getFrames());
+    }
 
-        // Resize tất cả frames về FRAME_SIZE x FRAME_SIZE
-        for (BufferedImage originalFrame : originalFrames) {
-            BufferedImage resizedFrame = resizeFrame(originalFrame, FRAME_SIZE, FRAME_SIZE);
-            processedFrames.add(resizedFrame);
+    /**
+     * Phân tích GIF để chọn frame thích ứng. Trả về null nếu decoder riêng không đọc được file
+     * (GIF không chuẩn sẽ được đọc bằng ImageIO với cách chọn frame cố định).
+     */
+    private static int[] selectGifFrames(File gifFile, int maxFrames, double maxError) throws IOException {
+        GifDecoder decoder;
+        try {
+            decoder = GifDecoder.open(gifFile);
+        } catch (IOException | RuntimeException e) {
+            return null;
         }
+        StageTimer.current().addBytesRead(BuildStage.DECODE, gifFile.length());
+        return selectFrames(decoder, maxFrames, maxError);
+    }
 
-        // Điều chỉnh số lượng frames theo target
-        if (processedFrames.size() < targetFrameCount) {
-            // Thiếu frame: lặp lại frames có sẵn theo pattern
-            while (processedFrames.size() < targetFrameCount) {
-                int sourceIndex = (processedFrames.size() - originalFrames.size()) % originalFrames.size();
-                BufferedImage frameToClone = processedFrames.get(sourceIndex);
-                processedFrames.add(duplicateFrame(frameToClone));
+    /**
+     * Như {@link #selectGifFrames} cho nguồn trong bộ nhớ; frame đã decode sẵn không có delay nên được coi là dài bằng nhau
+     */
+    private static int[] selectSourceFrames(FrameSource source, int maxFrames, double maxError) throws IOException {
+        if (source.isGif()) {
+            GifDecoder decoder;
+            try {
+                decoder = new GifDecoder(ByteBuffer.wrap(source.getGifData()));
+            } catch (IOException | RuntimeException e) {
+                return null;
             }
-        } else if (processedFrames.size() > targetFrameCount) {
-            // Dư frame: cắt bớt hoặc sample đều
-            if (processedFrames.size() <= targetFrameCount * 2) {
+            return selectFrames(decoder, maxFrames, maxError);
+        }
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.DECODE);
+        try {
+            AdaptiveFrameSelector selector = new AdaptiveFrameSelector();
+            for (int i = 0; i < source.getFrameCount(); i++) {
+                selector.add(source.getFramePixels(i), source.getFrameWidth(i), source.getFrameHeight(i), 0);
+            }
+            return selector.getFrameCount() > 0 ? selector.select(maxFrames, maxError) : null;
+        } finally {
+            timer.exit();
+        }
+    }
+
+    /**
+     * Decode toàn bộ GIF một lượt, chỉ giữ thumbnail của frame trước để so sánh, rồi chọn frame
+     */
+    private static int[] selectFrames(GifDecoder decoder, int maxFrames, double maxError) throws IOException {
+        AdaptiveFrameSelector selector = new AdaptiveFrameSelector();
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.DECODE);
+        try {
+            decoder.decode((frameIndex, canvas, delayMillis) -> {
+                selector.add(canvas, decoder.getWidth(), decoder.getHeight(), delayMillis);
+                return true;
+            });
+        } catch (IOException | RuntimeException e) {
+            // GIF hỏng giữa chừng: bước đọc frame sẽ thử lại (kể cả bằng ImageIO) với cách chọn cố định
+            return null;
+        } finally {
+            timer.exit();
+        }
+        return selector.getFrameCount() > 0 ? selector.select(maxFrames, maxError) : null;
+    }
+
+    /**
+     * Tính trước frame nguồn nào sẽ nằm ở mỗi ô của grid:
+     * thiếu frame thì lặp lại theo pattern, dư ít thì cắt bớt, dư nhiều thì sample đều
+     */
+    static int[] selectSourceIndices(int sourceFrameCount, int targetFrameCount) {
+        int[] indices = new int[targetFrameCount];
+        for (int i = 0; i < targetFrameCount; i++) {
+            if (sourceFrameCount <= targetFrameCount) {
+                // Thiếu frame: lặp lại frames có sẵn theo pattern
+                indices[i] = i % sourceFrameCount;
+            } else if (sourceFrameCount <= targetFrameCount * 2) {
                 // Nếu không quá nhiều, chỉ cắt bớt
-                processedFrames = processedFrames.subList(0, targetFrameCount);
+                indices[i] = i;
             } else {
                 // Nếu quá nhiều, sample đều
-                List<BufferedImage> sampledFrames = new ArrayList<>();
-                for (int i = 0; i < targetFrameCount; i++) {
-                    int sourceIndex = (i * processedFrames.size()) / targetFrameCount;
-                    sampledFrames.add(processedFrames.get(sourceIndex));
-                }
-                processedFrames = sampledFrames;
+                indices[i] = (int) ((long) i * sourceFrameCount / targetFrameCount);
             }
         }
-
-        return processedFrames;
+        return indices;
     }
 
     /**
-     * Resize frame về kích thước cố định với chất lượng cao
+     * Ô đầu tiên trong grid dùng mỗi frame nguồn (-1 nếu frame không được dùng)
      */
-    private static BufferedImage resizeFrame(BufferedImage originalFrame, int targetWidth, int targetHeight) {
-        BufferedImage resizedFrame = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = resizedFrame.createGraphics();
-
-        // Cài đặt rendering hints để có chất lượng tốt nhất
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        // Xóa nền và vẽ frame đã resize
-        g2d.setComposite(AlphaComposite.Clear);
-        g2d.fillRect(0, 0, targetWidth, targetHeight);
-        g2d.setComposite(AlphaComposite.SrcOver);
-        g2d.drawImage(originalFrame, 0, 0, targetWidth, targetHeight, null);
-        g2d.dispose();
-
-        return resizedFrame;
+    private static int[] findFirstCells(int[] sourceIndices, int sourceFrameCount) {
+        int[] firstCell = new int[sourceFrameCount];
+        Arrays.fill(firstCell, -1);
+        for (int cell = 0; cell < sourceIndices.length; cell++) {
+            if (firstCell[sourceIndices[cell]] < 0) {
+                firstCell[sourceIndices[cell]] = cell;
+            }
+        }
+        return firstCell;
     }
 
     /**
-     * Tạo bản copy của frame
+     * Resize frame ARGB về kích thước ô bằng box filter, ghi thẳng vào ô của sprite sheet
      */
-    private static BufferedImage duplicateFrame(BufferedImage sourceFrame) {
-        BufferedImage duplicatedFrame = new BufferedImage(
-                sourceFrame.getWidth(),
-                sourceFrame.getHeight(),
-                BufferedImage.TYPE_INT_ARGB
-        );
-        Graphics2D g2d = duplicatedFrame.createGraphics();
-        g2d.drawImage(sourceFrame, 0, 0, null);
-        g2d.dispose();
-        return duplicatedFrame;
+    static void resizeFrame(FrameResampler resampler, int[] framePixels, int frameWidth, int frameHeight,
+                            int[] sheetPixels, int cellOffset, int sheetWidth) {
+        // Mỗi frame là một điểm dừng của ngân sách CPU khi build trên server đang chạy
+        BuildThrottle.checkpoint();
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.RESAMPLE);
+        try {
+            resampler.resize(framePixels, frameWidth, frameHeight, sheetPixels, cellOffset, sheetWidth);
+        } finally {
+            timer.exit();
+        }
     }
 
     /**
-     * Tạo sprite sheet với grid size configurable
+     * Hoàn thiện sprite sheet: lấp các ô lặp lại từ ô đã có và ghi metadata
      */
-    private static BufferedImage buildConfigurableSpriteSheet(List<BufferedImage> originalFrames, double animationSeconds, int gridSize, int totalFrames) {
-        // Process frames theo số lượng cần thiết
-        List<BufferedImage> frames = processFramesToConfigurableSize(originalFrames, totalFrames);
+    static void buildConfigurableSpriteSheet(int[] sheetPixels, SheetLayout layout,
+                                             int[] sourceIndices, double animationSeconds) {
+        int[] firstCell = findFirstCells(sourceIndices, maxIndex(sourceIndices) + 1);
+        int sheetWidth = layout.getWidth();
+
+        // Ô dùng lại frame đã có: copy từng dòng từ ô gốc trong cùng mảng
+        for (int cell = 0; cell < sourceIndices.length; cell++) {
+            int originalCell = firstCell[sourceIndices[cell]];
+            if (originalCell != cell) {
+                int from = layout.cellOffset(originalCell);
+                int to = layout.cellOffset(cell);
+                for (int row = 0; row < layout.getFrameHeight(); row++) {
+                    System.arraycopy(sheetPixels, from + row * sheetWidth, sheetPixels, to + row * sheetWidth, layout.getFrameWidth());
+                }
+            }
+        }
 
-        // Kích thước sprite sheet: gridSize * FRAME_SIZE + 2 (border 1 pixel mỗi bên)
-        int sheetWidth = gridSize * FRAME_SIZE + 2;
-        int sheetHeight = gridSize * FRAME_SIZE + 2;
+        // Ghi metadata pixels theo đúng format shader mong đợi
+        writeMetadataPixels(sheetPixels, layout, animationSeconds);
+    }
 
-        BufferedImage spriteSheet = new BufferedImage(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = spriteSheet.createGraphics();
+    private static int maxIndex(int[] indices) {
+        int max = 0;
+        for (int index : indices) {
+            max = Math.max(max, index);
+        }
+        return max;
+    }
 
-        // Tạo nền trong suốt hoàn toàn
-        g2d.setComposite(AlphaComposite.Clear);
-        g2d.fillRect(0, 0, sheetWidth, sheetHeight);
-        g2d.setComposite(AlphaComposite.SrcOver);
+    /**
+     * Ghi metadata vào các pixel đặc biệt theo format shader. Các giá trị 16 bit được ghi dạng
+     * (r, g) = (byte cao, byte thấp), kênh blue là tag và alpha luôn là 1.
+     */
+    private static void writeMetadataPixels(int[] pixels, SheetLayout layout, double animationSeconds) {
+        writeMetadataRow(pixels, layout, animationSeconds);
+        writeBottomMarkers(pixels, (layout.getHeight() - 1) * layout.getWidth(), layout);
+    }
 
-        // Dán từng frame vào vị trí đúng trong grid
-        for (int i = 0; i < totalFrames && i < frames.size(); i++) {
-            BufferedImage frame = frames.get(i);
+    /**
+     * Dòng đầu của sprite sheet: metadata và corner marker trên phải
+     */
+    static void writeMetadataRow(int[] pixels, SheetLayout layout, double animationSeconds) {
+        // Pixel (0,0): Magic number
+        pixels[0] = packRGBA(149, 213, METADATA_TAG, 1);
 
-            // Tính tọa độ trong grid
-            int gridX = i % gridSize;
-            int gridY = i / gridSize;
+        // Pixel (1,0) và (2,0): Kích thước sprite sheet
+        pixels[1] = packUnsignedShort(layout.getWidth(), METADATA_TAG);
+        pixels[2] = packUnsignedShort(layout.getHeight(), METADATA_TAG);
 
-            // Vị trí thực tế trên sprite sheet (cộng thêm border 1 pixel)
-            int x = gridX * FRAME_SIZE + 1;
-            int y = gridY * FRAME_SIZE + 1;
+        // Pixel (3,0) và (4,0): Kích thước mỗi frame
+        pixels[3] = packUnsignedShort(layout.getFrameWidth(), METADATA_TAG);
+        pixels[4] = packUnsignedShort(layout.getFrameHeight(), METADATA_TAG);
 
-            g2d.drawImage(frame, x, y, null);
-        }
-        g2d.dispose();
+        // Pixel (5,0): Số frames
+        pixels[5] = packUnsignedShort(layout.getFrames(), METADATA_TAG);
 
-        // Ghi metadata pixels theo đúng format shader mong đợi
-        writeMetadataPixels(spriteSheet, sheetWidth, sheetHeight, animationSeconds, totalFrames);
+        // Pixel (6,0): Thời gian animation
+        pixels[TIME_PIXEL] = animationTimePixel(animationSeconds);
 
-        return spriteSheet;
+        // Corner markers: mỗi marker chỉ chứa khoảng cách theo một trục, shader đi theo marker
+        // (góc dưới phải → góc trên phải → gốc) để tìm pixel magic
+        pixels[layout.getWidth() - 1] = packUnsignedShort(layout.getWidth() - 1, MARKER_X_TAG);
     }
 
     /**
-     * Ghi metadata vào các pixel đặc biệt theo format shader (updated)
+     * Corner markers dưới trái và dưới phải, rowOffset là vị trí dòng cuối của sheet trong mảng
      */
-    private static void writeMetadataPixels(BufferedImage image, int sheetWidth, int sheetHeight, double animationSeconds, int totalFrames) {
-        // Pixel (0,0): Magic number
-        image.setRGB(0, 0, packRGBA(149, 213, 75, 1));
-
-        // Pixel (1,0): Kích thước sprite sheet
-        image.setRGB(1, 0, packRGBA(sheetWidth & 0xFF, sheetHeight & 0xFF, 75, 1));
+    static void writeBottomMarkers(int[] pixels, int rowOffset, SheetLayout layout) {
+        int sheetWidth = layout.getWidth();
+        int sheetHeight = layout.getHeight();
+        pixels[rowOffset] = packUnsignedShort(sheetHeight - 1, MARKER_Y_TAG);
+        pixels[rowOffset + sheetWidth - 1] = packUnsignedShort(sheetHeight - 1, MARKER_Y_TAG);
+    }
 
-        // Pixel (2,0): Frame dimension và số frames (cập nhật với totalFrames configurable)
-        image.setRGB(2, 0, packRGBA(FRAME_SIZE & 0xFF, totalFrames & 0xFF, 75, 1));
+    private static int packUnsignedShort(int value, int tag) {
+        return packRGBA(value >>> 8, value, tag, 1);
+    }
 
-        // Pixel (3,0): Thời gian animation
+    /**
+     * Pixel thời gian animation: giây nguyên ở kênh red, phần lẻ (x255) ở kênh green
+     */
+    private static int animationTimePixel(double animationSeconds) {
         int seconds = (int) Math.floor(animationSeconds);
         int fraction = (int) Math.floor((animationSeconds - seconds) * 255.0);
-        image.setRGB(3, 0, packRGBA(seconds & 0xFF, fraction & 0xFF, 75, 1));
-
-        // Corner markers
-        image.setRGB(sheetWidth - 1, 0, packRGBA((sheetWidth - 1) & 0xFF, 0, 75, 1));
-        image.setRGB(0, sheetHeight - 1, packRGBA(0, (sheetHeight - 1) & 0xFF, 75, 1));
-        image.setRGB(sheetWidth - 1, sheetHeight - 1, packRGBA((sheetWidth - 1) & 0xFF, (sheetHeight - 1) & 0xFF, 75, 1));
+        return packRGBA(seconds & 0xFF, fraction & 0xFF, METADATA_TAG, 1);
     }
 
     /**
-     * Đóng gói RGBA values thành int
+     * Ghi lại pixel thời gian animation trên sprite sheet đã có (TYPE_INT_ARGB), các pixel khác giữ nguyên
      */
+    public static void writeAnimationTime(BufferedImage spriteSheet, double animationSeconds) {
+        int[] pixels = ((DataBufferInt) spriteSheet.getRaster().getDataBuffer()).getData();
+        pixels[TIME_PIXEL] = animationTimePixel(animationSeconds);
+    }
+
     private static int packRGBA(int r, int g, int b, int a) {
         return ((a & 0xFF) << 24) | ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
     }
@@ -239,25 +674,30 @@ public class GifToPngConverter {
         if (!outputFile.getParentFile().exists()) {
             outputFile.getParentFile().mkdirs();
         }
-        ImageIO.write(image, "PNG", outputFile);
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            out.write(encodePng(image));
+        }
+    }
+
+    /**
+     * Encode sprite sheet thành nội dung file PNG trong bộ nhớ với tùy chọn mặc định
+     * (indexed-colour khi đủ 256 màu, nén tối đa)
+     */
+    public static byte[] encodePng(BufferedImage image) throws IOException {
+        return DEFAULT_ENCODER.encode(image);
     }
 
     /**
      * Utility method để check frames có hợp lệ không
      */
     public static boolean isValidFrameCount(int frames) {
-        for (int allowedFrames : ALLOWED_FRAMES) {
-            if (frames == allowedFrames) {
-                return true;
-            }
-        }
-        return false;
+        return SheetLayout.isValidFrameCount(frames);
     }
 
     /**
-     * Utility method để lấy grid size từ frame count
+     * Utility method để check frame-size có hợp lệ không
      */
-    public static int getGridSizeFromFrames(int frames) throws IllegalArgumentException {
-        return validateAndGetGridSize(frames);
+    public static boolean isValidFrameSize(int frameSize) {
+        return SheetLayout.isValidFrameSize(frameSize);
     }
 }
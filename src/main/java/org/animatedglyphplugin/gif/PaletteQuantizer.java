@@ -0,0 +1,382 @@
+package org.animatedglyphplugin.gif;
+
+import java.util.Arrays;
+
+/**
+ * Tạo bảng màu (tối đa 256 màu) cho PNG indexed-colour.
+ * <p>
+ * Ảnh có tối đa 256 màu được giữ nguyên từng pixel. Ảnh nhiều màu hơn được rút gọn bằng median cut,
+ * riêng các màu có alpha = 1 (metadata và corner markers mà shader đọc) luôn được giữ một ô chính xác.
+ */
+final class PaletteQuantizer {
+
+    static final int MAX_COLORS = 256;
+
+    // Alpha đánh dấu pixel metadata trong sprite sheet
+    private static final int METADATA_ALPHA = 1;
+
+    // Số màu metadata tối đa được giữ riêng, vượt quá thì ghi RGBA để không làm hỏng ảnh
+    private static final int MAX_RESERVED = MAX_COLORS / 2;
+
+    /**
+     * Bảng màu và chỉ số màu của từng pixel
+     */
+    static final class Result {
+        private final int[] palette;
+        private final byte[] indices;
+
+        private Result(int[] palette, byte[] indices) {
+            this.palette = palette;
+            this.indices = indices;
+        }
+
+        int[] getPalette() { return palette; }
+        byte[] getIndices() { return indices; }
+    }
+
+    /**
+     * Histogram màu cộng dồn từng phần của ảnh (ví dụ từng dải dòng khi encode streaming)
+     */
+    static final class Histogram {
+        private final boolean quantize;
+        // Các màu khác nhau đã gặp (tăng dần) và số pixel của từng màu
+        private int[] colors = new int[0];
+        private int[] counts = new int[0];
+        private boolean overflow;
+
+        /**
+         * @param quantize false: ngừng đếm khi vượt quá 256 màu vì ảnh sẽ được ghi RGBA
+         */
+        Histogram(boolean quantize) {
+            this.quantize = quantize;
+        }
+
+        void add(int[] argb, int offset, int length) {
+            if (overflow || length == 0) {
+                return;
+            }
+            // Sắp xếp bản sao rồi đếm các màu giống nhau liên tiếp
+            int[] sorted = Arrays.copyOfRange(argb, offset, offset + length);
+            Arrays.sort(sorted);
+            int uniqueCount = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    uniqueCount++;
+                }
+            }
+            int[] addedColors = new int[uniqueCount];
+            int[] addedCounts = new int[uniqueCount];
+            for (int i = 0, u = -1; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    addedColors[++u] = sorted[i];
+                }
+                addedCounts[u]++;
+            }
+            merge(addedColors, addedCounts);
+            if (!quantize && colors.length > MAX_COLORS) {
+                overflow = true;
+                colors = null;
+                counts = null;
+            }
+        }
+
+        private void merge(int[] addedColors, int[] addedCounts) {
+            if (colors.length == 0) {
+                colors = addedColors;
+                counts = addedCounts;
+                return;
+            }
+            int[] mergedColors = new int[colors.length + addedColors.length];
+            int[] mergedCounts = new int[mergedColors.length];
+            int i = 0, j = 0, m = 0;
+            while (i < colors.length || j < addedColors.length) {
+                if (j >= addedColors.length || (i < colors.length && colors[i] < addedColors[j])) {
+                    mergedColors[m] = colors[i];
+                    mergedCounts[m++] = counts[i++];
+                } else if (i >= colors.length || addedColors[j] < colors[i]) {
+                    mergedColors[m] = addedColors[j];
+                    mergedCounts[m++] = addedCounts[j++];
+                } else {
+                    mergedColors[m] = colors[i];
+                    mergedCounts[m++] = counts[i++] + addedCounts[j++];
+                }
+            }
+            colors = Arrays.copyOf(mergedColors, m);
+            counts = Arrays.copyOf(mergedCounts, m);
+        }
+    }
+
+    /**
+     * Bảng màu đã chốt và cách tra ô trong bảng của từng màu gốc
+     */
+    static final class Palette {
+        private final int[] colors;
+        private final int[] slots;
+        private final int[] palette;
+
+        private Palette(int[] colors, int[] slots, int[] palette) {
+            this.colors = colors;
+            this.slots = slots;
+            this.palette = palette;
+        }
+
+        int[] getColors() { return palette; }
+
+        /**
+         * Ghi chỉ số màu của length pixel (màu phải có trong histogram tạo ra bảng màu)
+         */
+        void index(int[] argb, int offset, byte[] target, int targetOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                target[targetOffset + i] = (byte) slots[Arrays.binarySearch(colors, argb[offset + i])];
+            }
+        }
+    }
+
+    private PaletteQuantizer() {
+    }
+
+    /**
+     * @return bảng màu cho ảnh, hoặc null nếu không thể biểu diễn bằng 256 màu
+     * (quá nhiều màu và không bật quantize, hoặc quá nhiều màu metadata)
+     */
+    static Result build(int[] argb, boolean quantize) {
+        Histogram histogram = new Histogram(quantize);
+        histogram.add(argb, 0, argb.length);
+        Palette palette = build(histogram);
+        if (palette == null) {
+            return null;
+        }
+        byte[] indices = new byte[argb.length];
+        palette.index(argb, 0, indices, 0, argb.length);
+        return new Result(palette.getColors(), indices);
+    }
+
+    /**
+     * Chốt bảng màu từ histogram của cả ảnh
+     *
+     * @return null nếu không thể biểu diễn bằng 256 màu
+     */
+    static Palette build(Histogram histogram) {
+        if (histogram.overflow) {
+            return null;
+        }
+        int[] colors = histogram.colors;
+        int uniqueCount = colors.length;
+
+        int[] mapping;
+        int[] palette;
+        if (uniqueCount <= MAX_COLORS) {
+            palette = colors.clone();
+            mapping = identity(uniqueCount);
+        } else {
+            int[][] reduced = reduce(colors, histogram.counts);
+            if (reduced == null) {
+                return null;
+            }
+            palette = reduced[0];
+            mapping = reduced[1];
+        }
+
+        // Đưa các màu không đục lên đầu để chunk tRNS ngắn nhất
+        int[] order = transparentFirst(palette);
+        int[] position = new int[palette.length];
+        int[] orderedPalette = new int[palette.length];
+        for (int i = 0; i < order.length; i++) {
+            orderedPalette[i] = palette[order[i]];
+            position[order[i]] = i;
+        }
+
+        int[] slots = new int[uniqueCount];
+        for (int unique = 0; unique < uniqueCount; unique++) {
+            slots[unique] = position[mapping[unique]];
+        }
+        return new Palette(colors, slots, orderedPalette);
+    }
+
+    /**
+     * Rút gọn bảng màu: giữ riêng màu metadata và màu trong suốt hoàn toàn, median cut cho phần còn lại
+     *
+     * @return {palette, mapping từ màu gốc sang ô trong palette}, hoặc null nếu quá nhiều màu metadata
+     */
+    private static int[][] reduce(int[] colors, int[] counts) {
+        int[] mapping = new int[colors.length];
+        int[] palette = new int[MAX_COLORS];
+        int used = 0;
+
+        int[] candidates = new int[colors.length];
+        int candidateCount = 0;
+        int transparentSlot = -1;
+        for (int i = 0; i < colors.length; i++) {
+            int alpha = colors[i] >>> 24;
+            if (alpha == METADATA_ALPHA) {
+                if (used >= MAX_RESERVED) {
+                    return null;
+                }
+                mapping[i] = used;
+                palette[used++] = colors[i];
+            } else if (alpha == 0) {
+                // Mọi pixel trong suốt hoàn toàn dùng chung một ô
+                if (transparentSlot < 0) {
+                    transparentSlot = used;
+                    palette[used++] = 0;
+                }
+                mapping[i] = transparentSlot;
+            } else {
+                candidates[candidateCount++] = i;
+            }
+        }
+
+        int reservedEnd = used;
+        int boxes = MAX_COLORS - reservedEnd;
+        int[] boxStart = new int[boxes];
+        int[] boxEnd = new int[boxes];
+        int[] boxRange = new int[boxes];
+        int[] boxChannel = new int[boxes];
+        int boxCount = 0;
+        if (candidateCount > 0) {
+            boxEnd[0] = candidateCount;
+            measure(colors, candidates, boxStart, boxEnd, boxRange, boxChannel, 0);
+            boxCount = 1;
+        }
+
+        // Median cut: luôn tách hộp có khoảng kênh màu rộng nhất tại trung vị theo số pixel
+        long[] keys = new long[candidateCount];
+        while (boxCount < boxes) {
+            int widest = -1;
+            for (int box = 0; box < boxCount; box++) {
+                if (boxRange[box] > 0 && (widest < 0 || boxRange[box] > boxRange[widest])) {
+                    widest = box;
+                }
+            }
+            if (widest < 0) {
+                break;
+            }
+
+            int start = boxStart[widest];
+            int end = boxEnd[widest];
+            int shift = boxChannel[widest] * 8;
+            long total = 0;
+            for (int i = start; i < end; i++) {
+                keys[i] = ((long) ((colors[candidates[i]] >>> shift) & 0xFF) << 32) | candidates[i];
+                total += counts[candidates[i]];
+            }
+            Arrays.sort(keys, start, end);
+            long half = total / 2;
+            long seen = 0;
+            int split = start + 1;
+            for (int i = start; i < end - 1; i++) {
+                candidates[i] = (int) keys[i];
+                seen += counts[candidates[i]];
+                if (seen <= half) {
+                    split = i + 1;
+                }
+            }
+            candidates[end - 1] = (int) keys[end - 1];
+            split = Math.max(start + 1, Math.min(end - 1, split));
+
+            boxEnd[widest] = split;
+            boxStart[boxCount] = split;
+            boxEnd[boxCount] = end;
+            measure(colors, candidates, boxStart, boxEnd, boxRange, boxChannel, widest);
+            measure(colors, candidates, boxStart, boxEnd, boxRange, boxChannel, boxCount);
+            boxCount++;
+        }
+
+        // Màu đại diện mỗi hộp: trung bình theo số pixel
+        for (int box = 0; box < boxCount; box++) {
+            long weight = 0, a = 0, r = 0, g = 0, b = 0;
+            for (int i = boxStart[box]; i < boxEnd[box]; i++) {
+                int color = colors[candidates[i]];
+                long count = counts[candidates[i]];
+                weight += count;
+                a += count * (color >>> 24);
+                r += count * ((color >> 16) & 0xFF);
+                g += count * ((color >> 8) & 0xFF);
+                b += count * (color & 0xFF);
+            }
+            int average = (int) ((a + weight / 2) / weight) << 24
+                    | (int) ((r + weight / 2) / weight) << 16
+                    | (int) ((g + weight / 2) / weight) << 8
+                    | (int) ((b + weight / 2) / weight);
+            palette[used++] = average;
+        }
+
+        // Mỗi màu gốc dùng màu gần nhất trong các màu đại diện (không bao giờ trỏ vào ô metadata)
+        for (int i = 0; i < candidateCount; i++) {
+            int color = colors[candidates[i]];
+            int best = reservedEnd;
+            long bestDistance = Long.MAX_VALUE;
+            for (int slot = reservedEnd; slot < used; slot++) {
+                long distance = distance(color, palette[slot]);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = slot;
+                }
+            }
+            mapping[candidates[i]] = best;
+        }
+
+        return new int[][]{Arrays.copyOf(palette, used), mapping};
+    }
+
+    /**
+     * Tìm kênh màu có khoảng giá trị rộng nhất trong hộp
+     */
+    private static void measure(int[] colors, int[] candidates, int[] boxStart, int[] boxEnd,
+                                int[] boxRange, int[] boxChannel, int box) {
+        int[] min = {255, 255, 255, 255};
+        int[] max = {0, 0, 0, 0};
+        for (int i = boxStart[box]; i < boxEnd[box]; i++) {
+            int color = colors[candidates[i]];
+            for (int channel = 0; channel < 4; channel++) {
+                int value = (color >>> (channel * 8)) & 0xFF;
+                min[channel] = Math.min(min[channel], value);
+                max[channel] = Math.max(max[channel], value);
+            }
+        }
+
+        boxRange[box] = 0;
+        boxChannel[box] = 0;
+        for (int channel = 0; channel < 4; channel++) {
+            if (max[channel] - min[channel] > boxRange[box]) {
+                boxRange[box] = max[channel] - min[channel];
+                boxChannel[box] = channel;
+            }
+        }
+    }
+
+    private static long distance(int first, int second) {
+        int da = (first >>> 24) - (second >>> 24);
+        int dr = ((first >> 16) & 0xFF) - ((second >> 16) & 0xFF);
+        int dg = ((first >> 8) & 0xFF) - ((second >> 8) & 0xFF);
+        int db = (first & 0xFF) - (second & 0xFF);
+        return (long) da * da + dr * dr + dg * dg + db * db;
+    }
+
+    private static int[] identity(int length) {
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * Thứ tự bảng màu với các màu không đục lên trước, giữ nguyên thứ tự tương đối
+     */
+    private static int[] transparentFirst(int[] palette) {
+        int[] order = new int[palette.length];
+        int next = 0;
+        for (int i = 0; i < palette.length; i++) {
+            if ((palette[i] >>> 24) != 0xFF) {
+                order[next++] = i;
+            }
+        }
+        for (int i = 0; i < palette.length; i++) {
+            if ((palette[i] >>> 24) == 0xFF) {
+                order[next++] = i;
+            }
+        }
+        return order;
+    }
+}
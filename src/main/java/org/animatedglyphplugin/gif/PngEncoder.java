@@ -0,0 +1,422 @@
+package org.animatedglyphplugin.gif;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encoder PNG cho sprite sheet và trang atlas.
+ * <p>
+ * Khi ảnh có tối đa 256 màu (thường gặp vì GIF nguồn chỉ có 256 màu mỗi frame), ảnh được ghi dạng
+ * indexed-colour kèm chunk tRNS, giữ đúng từng pixel. Nếu nhiều màu hơn và bật quantize, bảng màu được
+ * rút gọn bằng {@link PaletteQuantizer}, các màu metadata luôn có ô riêng nên vẫn chính xác tới từng bit.
+ * Các trường hợp còn lại ghi RGBA 8-bit. Filter được chọn theo từng dòng (hoặc không lọc nếu nén tốt hơn).
+ */
+public class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private final boolean palette;
+    private final boolean quantize;
+    private final int compressionLevel;
+
+    /**
+     * @param palette          ghi indexed-colour khi ảnh có tối đa 256 màu
+     * @param quantize         rút gọn bảng màu khi ảnh có nhiều hơn 256 màu (mất mát, trừ metadata)
+     * @param compressionLevel mức deflate 0-9
+     */
+    public PngEncoder(boolean palette, boolean quantize, int compressionLevel) {
+        this.palette = palette;
+        this.quantize = quantize;
+        this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+    }
+
+    /**
+     * Mô tả ngắn các tùy chọn encode, dùng làm một phần khóa cache
+     */
+    public String describe() {
+        return "palette=" + palette + ",quantize=" + quantize + ",level=" + compressionLevel;
+    }
+
+    /**
+     * Encoder cùng tùy chọn nhưng không quantize, cho PNG trung gian cần giữ đúng từng pixel
+     */
+    public PngEncoder withoutQuantize() {
+        return quantize ? new PngEncoder(palette, false, compressionLevel) : this;
+    }
+
+    /**
+     * Kích thước ảnh đọc từ chunk IHDR, không decode pixel
+     *
+     * @throws IOException khi nội dung không phải PNG
+     */
+    public static Dimension readSize(byte[] png) throws IOException {
+        if (png.length < SIGNATURE.length + 16
+                || !Arrays.equals(Arrays.copyOf(png, SIGNATURE.length), SIGNATURE)
+                || !new String(png, SIGNATURE.length + 4, 4, StandardCharsets.US_ASCII).equals("IHDR")) {
+            throw new IOException("Không phải file PNG");
+        }
+        return new Dimension(readInt(png, SIGNATURE.length + 8), readInt(png, SIGNATURE.length + 12));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    public byte[] encode(BufferedImage image) throws IOException {
+        return encode(toArgb(image), image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Encode mảng pixel ARGB (không premultiplied) thành nội dung file PNG
+     */
+    public byte[] encode(int[] argb, int width, int height) throws IOException {
+        if (palette) {
+            PaletteQuantizer.Result indexed = PaletteQuantizer.build(argb, quantize);
+            if (indexed != null) {
+                byte[] indices = indexed.getIndices();
+                return writeIndexed(indexed.getPalette(),
+                        (y, row) -> System.arraycopy(indices, y * width, row, 0, width), width, height);
+            }
+        }
+        return writeRgba((y, row) -> System.arraycopy(argb, y * width, row, 0, width), width, height);
+    }
+
+    /**
+     * Nguồn pixel ARGB theo từng dải dòng cho {@link #encode(BandSource, int, int)}
+     */
+    public interface BandSource {
+        /**
+         * Số dòng của dải bắt đầu tại firstRow. Các dải được yêu cầu lần lượt từ trên xuống.
+         */
+        int bandHeight(int firstRow);
+
+        /**
+         * Ghi pixel ARGB của rowCount dòng bắt đầu tại firstRow vào argb (đã xóa về 0, mỗi dòng width phần tử)
+         */
+        void render(int firstRow, int rowCount, int[] argb) throws IOException;
+    }
+
+    /**
+     * Encode streaming: ảnh được dựng lần lượt từng dải dòng và đưa thẳng vào deflater, nên bộ nhớ
+     * chỉ cần cho một dải thay vì cả ảnh. Kết quả giống hệt {@link #encode(int[], int, int)} trên cùng ảnh.
+     * Với indexed-colour, các dải được dựng hai lần: một lần để lập bảng màu, một lần để ghi.
+     */
+    public byte[] encode(BandSource source, int width, int height) throws IOException {
+        if (palette) {
+            PaletteQuantizer.Histogram histogram = new PaletteQuantizer.Histogram(quantize);
+            BandReader reader = new BandReader(source, width, height);
+            for (int y = 0; y < height; y = reader.getEnd()) {
+                reader.locate(y);
+                histogram.add(reader.getPixels(), 0, (reader.getEnd() - y) * width);
+            }
+            PaletteQuantizer.Palette colors = PaletteQuantizer.build(histogram);
+            if (colors != null) {
+                BandReader rows = new BandReader(source, width, height);
+                return writeIndexed(colors.getColors(), (y, row) -> {
+                    int offset = rows.locate(y);
+                    colors.index(rows.getPixels(), offset, row, 0, width);
+                }, width, height);
+            }
+        }
+        BandReader rows = new BandReader(source, width, height);
+        return writeRgba((y, row) -> {
+            int offset = rows.locate(y);
+            System.arraycopy(rows.getPixels(), offset, row, 0, width);
+        }, width, height);
+    }
+
+    /**
+     * Giữ dải dòng hiện tại của một {@link BandSource}, dựng dải mới khi đọc tới dòng nằm ngoài dải
+     */
+    private static final class BandReader {
+        private final BandSource source;
+        private final int width;
+        private final int height;
+        private int[] pixels = new int[0];
+        private int start;
+        private int end;
+
+        private BandReader(BandSource source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return vị trí đầu dòng y trong {@link #getPixels()}
+         */
+        private int locate(int y) throws IOException {
+            if (y < start || y >= end) {
+                int rows = Math.max(1, Math.min(source.bandHeight(y), height - y));
+                if (pixels.length < rows * width) {
+                    pixels = new int[rows * width];
+                } else {
+                    Arrays.fill(pixels, 0, rows * width, 0);
+                }
+                source.render(y, rows, pixels);
+                start = y;
+                end = y + rows;
+            }
+            return (y - start) * width;
+        }
+
+        private int[] getPixels() { return pixels; }
+
+        private int getEnd() { return end; }
+    }
+
+    private static int[] toArgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getParent() == null) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (data.length == image.getWidth() * image.getHeight()) {
+                return data;
+            }
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    /**
+     * Nguồn từng dòng của ảnh, đọc lần lượt từ trên xuống đúng một lần
+     */
+    private interface PixelRows<T> {
+        void fill(int y, T row) throws IOException;
+    }
+
+    private byte[] writeIndexed(int[] colors, PixelRows<byte[]> indexRows, int width, int height) throws IOException {
+        int bitDepth = colors.length <= 2 ? 1 : colors.length <= 4 ? 2 : colors.length <= 16 ? 4 : 8;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, bitDepth, COLOR_TYPE_INDEXED);
+
+        byte[] plte = new byte[colors.length * 3];
+        int lastTransparent = -1;
+        for (int i = 0; i < colors.length; i++) {
+            plte[i * 3] = (byte) (colors[i] >> 16);
+            plte[i * 3 + 1] = (byte) (colors[i] >> 8);
+            plte[i * 3 + 2] = (byte) colors[i];
+            if ((colors[i] >>> 24) != 0xFF) {
+                lastTransparent = i;
+            }
+        }
+        writeChunk(out, "PLTE", plte, plte.length);
+
+        // tRNS chỉ cần tới màu không đục cuối cùng (bảng màu đã xếp các màu trong suốt lên đầu)
+        if (lastTransparent >= 0) {
+            byte[] trns = new byte[lastTransparent + 1];
+            for (int i = 0; i <= lastTransparent; i++) {
+                trns[i] = (byte) (colors[i] >>> 24);
+            }
+            writeChunk(out, "tRNS", trns, trns.length);
+        }
+
+        int rowBytes = (width * bitDepth + 7) / 8;
+        int pixelsPerByte = 8 / bitDepth;
+        byte[] indices = new byte[width];
+        byte[] imageData = compressImageData((y, row) -> {
+            if (bitDepth == 8) {
+                indexRows.fill(y, row);
+                return;
+            }
+            indexRows.fill(y, indices);
+            Arrays.fill(row, (byte) 0);
+            for (int x = 0; x < width; x++) {
+                int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                row[x / pixelsPerByte] |= (indices[x] & 0xFF) << shift;
+            }
+        }, height, rowBytes, 1);
+
+        writeChunk(out, "IDAT", imageData, imageData.length);
+        writeChunk(out, "IEND", new byte[0], 0);
+        return out.toByteArray();
+    }
+
+    private byte[] writeRgba(PixelRows<int[]> argbRows, int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, 8, COLOR_TYPE_RGBA);
+
+        int[] argb = new int[width];
+        byte[] imageData = compressImageData((y, row) -> {
+            argbRows.fill(y, argb);
+            for (int x = 0, i = 0; x < width; x++) {
+                int pixel = argb[x];
+                row[i++] = (byte) (pixel >> 16);
+                row[i++] = (byte) (pixel >> 8);
+                row[i++] = (byte) pixel;
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }, height, width * 4, 4);
+
+        writeChunk(out, "IDAT", imageData, imageData.length);
+        writeChunk(out, "IEND", new byte[0], 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Nén dữ liệu ảnh cho chunk IDAT. Sprite sheet có nhiều vùng trong suốt và ô lặp lại thường nén tốt hơn
+     * khi không lọc, còn frame nhiều gradient lại có lợi từ filter, nên nén cả hai cách trong cùng một lượt
+     * đọc dòng và giữ bản nhỏ hơn.
+     */
+    private byte[] compressImageData(PixelRows<byte[]> source, int height, int rowBytes, int bytesPerPixel) throws IOException {
+        byte[] raw = new byte[rowBytes];
+        byte[] previous = new byte[rowBytes];
+        RowFilter filter = new RowFilter(rowBytes, bytesPerPixel);
+
+        ByteArrayOutputStream unfiltered = new ByteArrayOutputStream(64 * 1024);
+        ByteArrayOutputStream filtered = new ByteArrayOutputStream(64 * 1024);
+        Deflater unfilteredDeflater = new Deflater(compressionLevel);
+        Deflater filteredDeflater = new Deflater(compressionLevel);
+        try (DeflaterOutputStream unfilteredZlib = new DeflaterOutputStream(unfiltered, unfilteredDeflater, 64 * 1024);
+             DeflaterOutputStream filteredZlib = new DeflaterOutputStream(filtered, filteredDeflater, 64 * 1024)) {
+            for (int y = 0; y < height; y++) {
+                source.fill(y, raw);
+                filter.write(unfilteredZlib, raw, previous, false);
+                filter.write(filteredZlib, raw, previous, true);
+                byte[] swap = previous;
+                previous = raw;
+                raw = swap;
+            }
+        } finally {
+            unfilteredDeflater.end();
+            filteredDeflater.end();
+        }
+        return filtered.size() < unfiltered.size() ? filtered.toByteArray() : unfiltered.toByteArray();
+    }
+
+    private static void writeHeader(OutputStream out, int width, int height, int bitDepth, int colorType) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(bitDepth);
+        data.writeByte(colorType);
+        data.writeByte(0); // compression
+        data.writeByte(0); // filter method
+        data.writeByte(0); // không interlace
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        DataOutputStream stream = new DataOutputStream(out);
+        stream.writeInt(length);
+        stream.write(typeBytes);
+        stream.write(data, 0, length);
+        stream.writeInt((int) crc.getValue());
+        stream.flush();
+    }
+
+    /**
+     * Chọn filter cho từng dòng theo heuristic tổng trị tuyệt đối nhỏ nhất (như libpng)
+     */
+    private static final class RowFilter {
+        private final int bytesPerPixel;
+        private final byte[][] candidates;
+
+        private RowFilter(int rowBytes, int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+            this.candidates = new byte[5][rowBytes + 1];
+            for (int type = 0; type < candidates.length; type++) {
+                candidates[type][0] = (byte) type;
+            }
+        }
+
+        private void write(OutputStream out, byte[] raw, byte[] previous, boolean adaptive) throws IOException {
+            if (!adaptive) {
+                byte[] none = candidates[FILTER_NONE];
+                System.arraycopy(raw, 0, none, 1, raw.length);
+                out.write(none);
+                return;
+            }
+
+            int best = FILTER_NONE;
+            long bestSum = Long.MAX_VALUE;
+            for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+                long sum = apply(type, raw, previous, candidates[type]);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = type;
+                }
+            }
+            out.write(candidates[best]);
+        }
+
+        /**
+         * Lọc một dòng vào target (bỏ qua byte loại filter ở đầu)
+         *
+         * @return tổng trị tuyệt đối của các byte đã lọc (coi như số có dấu)
+         */
+        private long apply(int type, byte[] raw, byte[] previous, byte[] target) {
+            long sum = 0;
+            int bpp = bytesPerPixel;
+            for (int i = 0; i < raw.length; i++) {
+                int current = raw[i] & 0xFF;
+                int left = i >= bpp ? raw[i - bpp] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+
+                int value;
+                switch (type) {
+                    case FILTER_SUB:
+                        value = current - left;
+                        break;
+                    case FILTER_UP:
+                        value = current - up;
+                        break;
+                    case FILTER_AVERAGE:
+                        value = current - ((left + up) >> 1);
+                        break;
+                    case FILTER_PAETH:
+                        value = current - paeth(left, up, upLeft);
+                        break;
+                    default:
+                        value = current;
+                        break;
+                }
+
+                byte filtered = (byte) value;
+                target[i + 1] = filtered;
+                sum += Math.abs(filtered);
+            }
+            return sum;
+        }
+
+        private static int paeth(int left, int up, int upLeft) {
+            int estimate = left + up - upLeft;
+            int distanceLeft = Math.abs(estimate - left);
+            int distanceUp = Math.abs(estimate - up);
+            int distanceUpLeft = Math.abs(estimate - upLeft);
+            if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+                return left;
+            }
+            return distanceUp <= distanceUpLeft ? up : upLeft;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.animatedglyphplugin.gif;
+
+import org.animatedglyphplugin.metrics.BuildStage;
+import org.animatedglyphplugin.metrics.StageTimer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Dựng sprite sheet theo từng dải cho {@link PngEncoder#encode(PngEncoder.BandSource, int, int)}:
+ * dải đầu là dòng metadata, mỗi dải sau là một hàng ô (dải cuối gồm cả dòng border dưới).
+ * Mỗi dải chỉ lấy các frame nguồn của hàng ô đó, resize thẳng vào dải và copy các ô lặp lại trong hàng.
+ */
+final class SheetBandSource implements PngEncoder.BandSource {
+
+    /**
+     * Lấy pixel của các frame nguồn
+     */
+    interface FrameFetcher {
+        /**
+         * Gọi consumer cho từng frame trong sourceIndices (tăng dần, không trùng lặp)
+         */
+        void fetch(int[] sourceIndices, FrameConsumer consumer) throws IOException;
+    }
+
+    interface FrameConsumer {
+        /**
+         * Mảng pixel chỉ hợp lệ trong lúc gọi
+         */
+        void accept(int sourceIndex, int[] pixels, int width, int height);
+    }
+
+    private final SheetLayout layout;
+    private final int[] sourceIndices;
+    private final double animationSeconds;
+    private final FrameFetcher fetcher;
+    private final FrameResampler resampler;
+
+    SheetBandSource(SheetLayout layout, int[] sourceIndices, double animationSeconds, FrameFetcher fetcher) {
+        this.layout = layout;
+        this.sourceIndices = sourceIndices;
+        this.animationSeconds = animationSeconds;
+        this.fetcher = fetcher;
+        this.resampler = new FrameResampler(layout.getFrameWidth(), layout.getFrameHeight());
+    }
+
+    @Override
+    public int bandHeight(int firstRow) {
+        if (firstRow == 0) {
+            return 1;
+        }
+        int gridRow = (firstRow - 1) / layout.getFrameHeight();
+        return gridRow == layout.getRows() - 1 ? layout.getFrameHeight() + 1 : layout.getFrameHeight();
+    }
+
+    @Override
+    public void render(int firstRow, int rowCount, int[] argb) throws IOException {
+        if (firstRow == 0) {
+            GifToPngConverter.writeMetadataRow(argb, layout, animationSeconds);
+            return;
+        }
+        if ((firstRow - 1) % layout.getFrameHeight() != 0) {
+            throw new IllegalStateException("Dải không bắt đầu ở đầu hàng ô: " + firstRow);
+        }
+
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.SHEET_ASSEMBLY);
+        try {
+            renderGridRow((firstRow - 1) / layout.getFrameHeight(), argb);
+            if (firstRow + rowCount == layout.getHeight()) {
+                GifToPngConverter.writeBottomMarkers(argb, (rowCount - 1) * layout.getWidth(), layout);
+            }
+        } finally {
+            timer.exit();
+        }
+    }
+
+    private void renderGridRow(int gridRow, int[] band) throws IOException {
+        int width = layout.getWidth();
+        int firstCell = gridRow * layout.getColumns();
+        int lastCell = Math.min(layout.getFrames(), firstCell + layout.getColumns());
+
+        // Ô đầu tiên trong hàng dùng mỗi frame nguồn, theo thứ tự frame tăng dần
+        int[] needed = new int[lastCell - firstCell];
+        for (int cell = firstCell; cell < lastCell; cell++) {
+            needed[cell - firstCell] = sourceIndices[cell];
+        }
+        Arrays.sort(needed);
+        int neededCount = 0;
+        for (int i = 0; i < needed.length; i++) {
+            if (i == 0 || needed[i] != needed[i - 1]) {
+                needed[neededCount++] = needed[i];
+            }
+        }
+        needed = Arrays.copyOf(needed, neededCount);
+        int[] firstCellOf = new int[neededCount];
+        Arrays.fill(firstCellOf, -1);
+        for (int cell = firstCell; cell < lastCell; cell++) {
+            int slot = Arrays.binarySearch(needed, sourceIndices[cell]);
+            if (firstCellOf[slot] < 0) {
+                firstCellOf[slot] = cell;
+            }
+        }
+
+        int[] neededIndices = needed;
+        fetcher.fetch(neededIndices, (sourceIndex, pixels, frameWidth, frameHeight) -> {
+            int cell = firstCellOf[Arrays.binarySearch(neededIndices, sourceIndex)];
+            GifToPngConverter.resizeFrame(resampler, pixels, frameWidth, frameHeight, band, cellOffset(cell), width);
+        });
+
+        // Ô dùng lại frame đã có trong hàng: copy từng dòng từ ô gốc
+        for (int cell = firstCell; cell < lastCell; cell++) {
+            int originalCell = firstCellOf[Arrays.binarySearch(neededIndices, sourceIndices[cell])];
+            if (originalCell != cell) {
+                int from = cellOffset(originalCell);
+                int to = cellOffset(cell);
+                for (int row = 0; row < layout.getFrameHeight(); row++) {
+                    System.arraycopy(band, from + row * width, band, to + row * width, layout.getFrameWidth());
+                }
+            }
+        }
+    }
+
+    /**
+     * Vị trí góc trên trái của ô trong dải (dòng đầu của dải là dòng đầu của hàng ô)
+     */
+    private int cellOffset(int cell) {
+        return (cell % layout.getColumns()) * layout.getFrameWidth() + 1;
+    }
+}
@@ -0,0 +1,96 @@
+package org.animatedglyphplugin.gif;
+
+/**
+ * Bố cục sprite sheet của một glyph: {@code columns x rows} ô (vừa đủ số frame, không làm tròn lên số chính phương),
+ * mỗi ô {@code frameWidth x frameHeight} pixel, cộng border 1 pixel mỗi bên.
+ * <p>
+ * Glyph được vẽ theo tỉ lệ của cả sheet, nên chiều rộng ô được co lại để sheet gần vuông như trước:
+ * frame vẫn được kéo giãn lên khung vuông khi hiển thị, chỉ độ phân giải ngang của texture giảm theo.
+ * Với số frame chính phương, ô vuông {@code frameSize x frameSize} giống bố cục cũ.
+ */
+public final class SheetLayout {
+
+    public static final int DEFAULT_FRAME_SIZE = 40;
+    public static final int MIN_FRAME_SIZE = 8;
+    public static final int MAX_FRAME_SIZE = 512;
+    // Số frame và kích thước sheet được ghi vào metadata dạng 16 bit
+    public static final int MAX_FRAMES = 0xFFFF;
+    private static final int MAX_SHEET_SIZE = 0xFFFF;
+
+    private final int frames;
+    private final int columns;
+    private final int rows;
+    private final int frameWidth;
+    private final int frameHeight;
+
+    private SheetLayout(int frames, int columns, int rows, int frameWidth, int frameHeight) {
+        this.frames = frames;
+        this.columns = columns;
+        this.rows = rows;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    /**
+     * @param frames    số frame trong sheet (1..{@link #MAX_FRAMES})
+     * @param frameSize chiều cao mỗi ô ({@link #MIN_FRAME_SIZE}..{@link #MAX_FRAME_SIZE})
+     * @throws IllegalArgumentException khi tham số ngoài giới hạn hoặc sheet vượt quá 65535 pixel
+     */
+    public static SheetLayout of(int frames, int frameSize) {
+        if (!isValidFrameCount(frames)) {
+            throw new IllegalArgumentException("Số frames không hợp lệ: " + frames + " (cho phép 1-" + MAX_FRAMES + ")");
+        }
+        if (!isValidFrameSize(frameSize)) {
+            throw new IllegalArgumentException("frame-size không hợp lệ: " + frameSize
+                    + " (cho phép " + MIN_FRAME_SIZE + "-" + MAX_FRAME_SIZE + ")");
+        }
+        int columns = (int) Math.ceil(Math.sqrt(frames));
+        int rows = (frames + columns - 1) / columns;
+        // columns >= rows nên frameWidth >= frameSize / 2
+        int frameWidth = Math.max(1, Math.round((float) frameSize * rows / columns));
+        SheetLayout layout = new SheetLayout(frames, columns, rows, frameWidth, frameSize);
+        if (layout.getWidth() > MAX_SHEET_SIZE || layout.getHeight() > MAX_SHEET_SIZE) {
+            throw new IllegalArgumentException("Sprite sheet quá lớn: " + layout);
+        }
+        return layout;
+    }
+
+    public static boolean isValidFrameCount(int frames) {
+        return frames >= 1 && frames <= MAX_FRAMES;
+    }
+
+    public static boolean isValidFrameSize(int frameSize) {
+        return frameSize >= MIN_FRAME_SIZE && frameSize <= MAX_FRAME_SIZE;
+    }
+
+    public int getFrames() { return frames; }
+
+    public int getColumns() { return columns; }
+
+    public int getRows() { return rows; }
+
+    public int getFrameWidth() { return frameWidth; }
+
+    public int getFrameHeight() { return frameHeight; }
+
+    public int getWidth() { return columns * frameWidth + 2; }
+
+    public int getHeight() { return rows * frameHeight + 2; }
+
+    /**
+     * Vị trí pixel góc trên trái của ô trong mảng sprite sheet (cộng thêm border 1 pixel)
+     */
+    int cellOffset(int cell) {
+        int x = (cell % columns) * frameWidth + 1;
+        int y = (cell / columns) * frameHeight + 1;
+        return y * getWidth() + x;
+    }
+
+    /**
+     * Ví dụ: "4x3 ô 30x40 (122x122)"
+     */
+    @Override
+    public String toString() {
+        return columns + "x" + rows + " ô " + frameWidth + "x" + frameHeight + " (" + getWidth() + "x" + getHeight() + ")";
+    }
+}
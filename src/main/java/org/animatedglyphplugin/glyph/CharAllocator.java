@@ -0,0 +1,218 @@
+package org.animatedglyphplugin.glyph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Cấp ký tự Private Use Area cho glyph không khai báo chars.
+ * Codepoint đã dùng được đánh dấu trong BitSet và con trỏ cấp phát chỉ tiến về phía trước,
+ * nên mỗi lần cấp là O(1) (khấu hao) kể cả khi có hàng chục nghìn glyph.
+ * Gán tên glyph → codepoint được lưu vào file để ký tự không đổi qua các lần reload và restart.
+ * <p>
+ * Mỗi lần tải glyph: {@link #begin(boolean)}, {@link #reserve(String)} cho mọi ký tự khai báo sẵn,
+ * {@link #assign(String)} cho từng glyph tự sinh ký tự, rồi {@link #save()}.
+ */
+public class CharAllocator {
+
+    // Vùng PUA của BMP và hai plane PUA bổ sung (plane 15, 16)
+    private static final int[][] BMP_RANGES = {{0xE000, 0xF8FF}};
+    private static final int[][] ALL_RANGES = {{0xE000, 0xF8FF}, {0xF0000, 0xFFFFD}, {0x100000, 0x10FFFD}};
+
+    private final File file;
+    private final Logger logger;
+
+    // Tên glyph → codepoint đã lưu, kể cả glyph hiện không còn (để tên cũ quay lại vẫn được ký tự cũ)
+    private final Map<String, Integer> assignments = new TreeMap<>();
+    private final Map<Integer, String> ownerByCodepoint = new HashMap<>();
+    private boolean loaded;
+    private boolean dirty;
+
+    // Trạng thái của lần tải hiện tại
+    private final BitSet used = new BitSet();
+    private final Set<String> assignedThisLoad = new HashSet<>();
+    private int[][] ranges = BMP_RANGES;
+    private int rangeIndex;
+    private int cursor;
+
+    public CharAllocator(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    /**
+     * Bắt đầu một lần tải glyph
+     *
+     * @param supplementary cho phép cấp thêm ở plane 15 và 16 khi vùng PUA của BMP đã hết
+     */
+    public void begin(boolean supplementary) {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        ranges = supplementary ? ALL_RANGES : BMP_RANGES;
+        rangeIndex = 0;
+        cursor = ranges[0][0];
+        used.clear();
+        assignedThisLoad.clear();
+        // Ký tự đã gán cho glyph khác không bao giờ bị cấp lại
+        for (int codePoint : assignments.values()) {
+            used.set(codePoint);
+        }
+    }
+
+    /**
+     * Đánh dấu các ký tự glyph khai báo sẵn trong chars. Ký tự tự sinh trùng với ký tự khai báo
+     * sẽ bị thu hồi, glyph sở hữu nó được cấp ký tự mới.
+     */
+    public void reserve(String chars) {
+        int offset = 0;
+        while (offset < chars.length()) {
+            int codePoint = chars.codePointAt(offset);
+            offset += Character.charCount(codePoint);
+            if (!isPrivateUse(codePoint)) {
+                continue;
+            }
+            used.set(codePoint);
+            String owner = ownerByCodepoint.remove(codePoint);
+            if (owner != null) {
+                assignments.remove(owner);
+                dirty = true;
+                logger.warning("Ký tự U+" + hex(codePoint) + " của glyph " + owner
+                        + " được khai báo trong chars của glyph khác, glyph " + owner + " sẽ nhận ký tự mới");
+            }
+        }
+    }
+
+    /**
+     * Ký tự của glyph: ký tự đã lưu nếu có, nếu không cấp codepoint trống tiếp theo
+     *
+     * @throws IllegalStateException khi vùng PUA đã hết
+     */
+    public String assign(String glyphName) {
+        // Hai glyph cùng tên trong một lần tải: glyph sau nhận ký tự riêng, không lưu lại
+        if (!assignedThisLoad.add(glyphName)) {
+            logger.warning("Trùng tên glyph: " + glyphName + ", ký tự tự sinh của glyph này có thể thay đổi");
+            return new String(Character.toChars(allocate()));
+        }
+
+        Integer existing = assignments.get(glyphName);
+        if (existing != null) {
+            return new String(Character.toChars(existing));
+        }
+
+        int codePoint = allocate();
+        assignments.put(glyphName, codePoint);
+        ownerByCodepoint.put(codePoint, glyphName);
+        dirty = true;
+        return new String(Character.toChars(codePoint));
+    }
+
+    /**
+     * Ký tự đã lưu của glyph, null nếu glyph chưa từng được cấp ký tự
+     */
+    public String lookup(String glyphName) {
+        Integer existing = assignments.get(glyphName);
+        return existing != null ? new String(Character.toChars(existing)) : null;
+    }
+
+    private int allocate() {
+        while (rangeIndex < ranges.length) {
+            int codePoint = used.nextClearBit(cursor);
+            if (codePoint <= ranges[rangeIndex][1]) {
+                used.set(codePoint);
+                cursor = codePoint + 1;
+                return codePoint;
+            }
+            if (++rangeIndex < ranges.length) {
+                cursor = ranges[rangeIndex][0];
+            }
+        }
+        throw new IllegalStateException("Đã hết ký tự Private Use Area"
+                + (ranges == BMP_RANGES ? " (bật pua-supplementary để dùng thêm plane 15 và 16)" : ""));
+    }
+
+    /**
+     * Ghi file gán ký tự nếu có thay đổi (ghi file tạm rồi rename)
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("# Ký tự tự sinh của glyph: <codepoint hex> <tên glyph>. Xóa dòng để giải phóng ký tự.");
+                writer.newLine();
+                for (Map.Entry<String, Integer> entry : assignments.entrySet()) {
+                    writer.write(hex(entry.getValue()));
+                    writer.write(' ');
+                    writer.write(entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.severe("Không thể lưu " + file.getName() + ": " + e.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int space = line.indexOf(' ');
+                if (line.isEmpty() || line.startsWith("#") || space < 0) {
+                    continue;
+                }
+                try {
+                    int codePoint = Integer.parseInt(line.substring(0, space), 16);
+                    String name = line.substring(space + 1).trim();
+                    if (!isPrivateUse(codePoint) || ownerByCodepoint.containsKey(codePoint) || assignments.containsKey(name)) {
+                        logger.warning(file.getName() + ": bỏ qua dòng không hợp lệ hoặc trùng ký tự: " + line);
+                        dirty = true;
+                        continue;
+                    }
+                    assignments.put(name, codePoint);
+                    ownerByCodepoint.put(codePoint, name);
+                } catch (NumberFormatException e) {
+                    logger.warning(file.getName() + ": bỏ qua dòng không hợp lệ: " + line);
+                }
+            }
+        } catch (IOException e) {
+            logger.severe("Không thể đọc " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isPrivateUse(int codePoint) {
+        for (int[] range : ALL_RANGES) {
+            if (codePoint >= range[0] && codePoint <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hex(int codePoint) {
+        return String.format("%04X", codePoint);
+    }
+}
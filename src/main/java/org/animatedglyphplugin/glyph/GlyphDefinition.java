@@ -1,45 +1,106 @@
 package org.animatedglyphplugin.glyph;
 
+import org.animatedglyphplugin.gif.FrameSource;
+import org.animatedglyphplugin.gif.SheetLayout;
+
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-public class GlyphDefinition {
-    private String name;
-    private String file;
-    private int ascent;
-    private int height;
-    private List<String> chars;
-    private double duration;
-    private int frames; // Thuộc tính mới
+/**
+ * Định nghĩa một glyph, không thay đổi sau khi tạo để dùng chung an toàn giữa các thread
+ */
+public final class GlyphDefinition {
+    private final String name;
+    private final String file;
+    private final int ascent;
+    private final int height;
+    private final List<String> chars;
+    private final double duration;
+    private final int frames;
+    private final int frameSize;
+    private final double frameError;
+    private final FrameSource source;
 
     public GlyphDefinition(String name, String file, int ascent, int height, List<String> chars, double duration, int frames) {
+        this(name, file, ascent, height, chars, duration, frames, SheetLayout.DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @param frameSize chiều cao (pixel) mỗi frame trong sprite sheet
+     */
+    public GlyphDefinition(String name, String file, int ascent, int height, List<String> chars, double duration, int frames,
+                           int frameSize) {
+        this(name, file, ascent, height, chars, duration, frames, frameSize, 0, null);
+    }
+
+    /**
+     * Glyph đăng ký qua API với ảnh nguồn trong bộ nhớ (file là null)
+     */
+    public GlyphDefinition(String name, int ascent, int height, List<String> chars, double duration, int frames, FrameSource source) {
+        this(name, ascent, height, chars, duration, frames, SheetLayout.DEFAULT_FRAME_SIZE, source);
+    }
+
+    public GlyphDefinition(String name, int ascent, int height, List<String> chars, double duration, int frames, int frameSize,
+                           FrameSource source) {
+        this(name, null, ascent, height, chars, duration, frames, frameSize, 0, source);
+    }
+
+    private GlyphDefinition(String name, String file, int ascent, int height, List<String> chars, double duration, int frames,
+                            int frameSize, double frameError, FrameSource source) {
         this.name = name;
         this.file = file;
         this.ascent = ascent;
         this.height = height;
-        this.chars = chars;
+        this.chars = chars != null ? Collections.unmodifiableList(new ArrayList<>(chars)) : Collections.emptyList();
         this.duration = duration;
         this.frames = frames;
+        this.frameSize = frameSize;
+        this.frameError = frameError;
+        this.source = source;
+    }
+
+    /**
+     * Bản sao với danh sách ký tự khác
+     */
+    public GlyphDefinition withChars(List<String> newChars) {
+        return new GlyphDefinition(name, file, ascent, height, newChars, duration, frames, frameSize, frameError, source);
+    }
+
+    /**
+     * Bản sao chọn frame thích ứng với sai số cho phép frameError (0 = luôn dùng đúng số frames)
+     */
+    public GlyphDefinition withFrameError(double newFrameError) {
+        return new GlyphDefinition(name, file, ascent, height, chars, duration, frames, frameSize, newFrameError, source);
     }
 
-    // Getters và Setters
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
 
     public String getFile() { return file; }
-    public void setFile(String file) { this.file = file; }
 
     public int getAscent() { return ascent; }
-    public void setAscent(int ascent) { this.ascent = ascent; }
 
     public int getHeight() { return height; }
-    public void setHeight(int height) { this.height = height; }
 
     public List<String> getChars() { return chars; }
-    public void setChars(List<String> chars) { this.chars = chars; }
 
     public double getDuration() { return duration; }
-    public void setDuration(double duration) { this.duration = duration; }
 
     public int getFrames() { return frames; }
-    public void setFrames(int frames) { this.frames = frames; }
+
+    /**
+     * Chiều cao (pixel) mỗi frame trong sprite sheet
+     */
+    public int getFrameSize() { return frameSize; }
+
+    /**
+     * Sai số trung bình cho phép khi chọn frame thích ứng (0..1), khi đó frames là số frame tối đa.
+     * 0 nếu sprite sheet luôn có đúng frames ô.
+     */
+    public double getFrameError() { return frameError; }
+
+    /**
+     * Ảnh nguồn trong bộ nhớ, null nếu glyph đọc GIF từ thư mục gif/
+     */
+    public FrameSource getSource() { return source; }
 }
@@ -1,32 +1,163 @@
 package org.animatedglyphplugin.glyph;
 
 import org.animatedglyphplugin.config.ConfigManager;
+import org.animatedglyphplugin.config.YamlFile;
 import org.animatedglyphplugin.gif.GifToPngConverter;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.animatedglyphplugin.gif.SheetLayout;
+import org.animatedglyphplugin.metrics.BuildStage;
+import org.animatedglyphplugin.metrics.StageStats;
+import org.animatedglyphplugin.metrics.StageTimer;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.logging.Logger;
 
 public class GlyphManager {
-    private final JavaPlugin plugin;
+    private final File dataFolder;
+    private final Logger logger;
     private final ConfigManager configManager;
-    private final List<GlyphDefinition> glyphs = new ArrayList<>();
-    private final Set<String> usedChars = new HashSet<>();
+    private volatile GlyphRegistry registry = GlyphRegistry.EMPTY;
+    private final CharAllocator charAllocator;
+    private final GlyphManifest manifest;
+    private volatile StageStats lastLoadStats;
+    // Glyph đăng ký qua API theo tên (chars như lúc đăng ký), giữ lại qua các lần reload
+    private final Map<String, GlyphDefinition> registeredGlyphs = new LinkedHashMap<>();
+    private boolean allocatorStarted;
 
     public GlyphManager(JavaPlugin plugin, ConfigManager configManager) {
-        this.plugin = plugin;
+        this(plugin.getDataFolder(), plugin.getLogger(), configManager);
+    }
+
+    public GlyphManager(File dataFolder, Logger logger, ConfigManager configManager) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
         this.configManager = configManager;
+        this.charAllocator = new CharAllocator(new File(dataFolder, "animatedGlyph/char-assignments.txt"), logger);
+        this.manifest = new GlyphManifest(new File(dataFolder, "animatedGlyph/glyph-manifest.bin"), logger);
     }
 
-    public void reload() {
-        glyphs.clear();
-        usedChars.clear();
-        loadGlyphs();
+    /**
+     * Tải lại tất cả file glyph và công bố snapshot mới. Snapshot cũ vẫn dùng được cho tới khi bị thay.
+     */
+    public synchronized void reload() {
+        List<GlyphDefinition> glyphs = new ArrayList<>();
+        try (StageTimer timer = StageTimer.start(null, null)) {
+            timer.enter(BuildStage.YAML_LOAD);
+            loadGlyphFiles(timer, glyphs);
+            timer.exit();
+            lastLoadStats = timer.snapshot();
+        }
+
+        Set<String> fileGlyphNames = new HashSet<>();
+        for (GlyphDefinition glyph : glyphs) {
+            fileGlyphNames.add(glyph.getName());
+        }
+        for (GlyphDefinition glyph : registeredGlyphs.values()) {
+            if (fileGlyphNames.contains(glyph.getName())) {
+                logger.warning("Glyph đăng ký qua API trùng tên với file glyph, bỏ qua: " + glyph.getName());
+            } else {
+                glyphs.add(glyph);
+            }
+        }
+
+        assignChars(glyphs);
+        logLoadedGlyphs(glyphs);
+        registry = new GlyphRegistry(registry.getVersion() + 1, glyphs);
     }
 
-    private void loadGlyphs() {
-        File glyphDir = new File(plugin.getDataFolder(), "animatedGlyph/glyph");
+    /**
+     * Đăng ký (hoặc thay) glyph có ảnh nguồn trong bộ nhớ. Glyph có mặt ngay trong snapshot mới,
+     * còn resourcepack chỉ chứa glyph sau lần build kế tiếp.
+     *
+     * @return glyph đã được cấp ký tự
+     * @throws IllegalArgumentException khi thiếu tên / ảnh nguồn, frames, frame-size hoặc frame-error không hợp lệ
+     *                                  hoặc tên đã được dùng bởi một file glyph
+     * @throws IllegalStateException    khi vùng PUA đã hết
+     */
+    public synchronized GlyphDefinition register(GlyphDefinition glyph) {
+        if (glyph.getName() == null || glyph.getName().isEmpty()) {
+            throw new IllegalArgumentException("Glyph phải có tên");
+        }
+        if (glyph.getSource() == null) {
+            throw new IllegalArgumentException("Glyph " + glyph.getName() + " không có ảnh nguồn");
+        }
+        if (!GifToPngConverter.isValidFrameCount(glyph.getFrames())) {
+            throw new IllegalArgumentException("Glyph " + glyph.getName() + " có frames không hợp lệ: " + glyph.getFrames());
+        }
+        // Kiểm tra frame-size và kích thước sprite sheet
+        SheetLayout.of(glyph.getFrames(), glyph.getFrameSize());
+        if (!(glyph.getFrameError() >= 0 && glyph.getFrameError() <= 1)) {
+            throw new IllegalArgumentException("Glyph " + glyph.getName() + " có frame-error không hợp lệ: " + glyph.getFrameError());
+        }
+        GlyphDefinition existing = registry.getByName(glyph.getName());
+        if (existing != null && existing.getSource() == null) {
+            throw new IllegalArgumentException("Đã có file glyph tên " + glyph.getName());
+        }
+
+        if (!allocatorStarted) {
+            charAllocator.begin(configManager.isSupplementaryPuaEnabled());
+            allocatorStarted = true;
+        }
+        GlyphDefinition resolved;
+        if (glyph.getChars().isEmpty()) {
+            String chars = charAllocator.lookup(glyph.getName());
+            resolved = glyph.withChars(Collections.singletonList(chars != null ? chars : charAllocator.assign(glyph.getName())));
+        } else {
+            for (String row : glyph.getChars()) {
+                charAllocator.reserve(row);
+            }
+            resolved = glyph;
+        }
+        charAllocator.save();
+        registeredGlyphs.put(glyph.getName(), glyph);
+
+        List<GlyphDefinition> glyphs = new ArrayList<>(registry.getGlyphs());
+        glyphs.removeIf(other -> other.getSource() != null && other.getName().equals(glyph.getName()));
+        glyphs.add(resolved);
+        registry = new GlyphRegistry(registry.getVersion() + 1, glyphs);
+        return resolved;
+    }
+
+    /**
+     * Gỡ glyph đã đăng ký qua API. Ký tự tự sinh của glyph vẫn được giữ cho lần đăng ký sau.
+     *
+     * @return false nếu không có glyph đăng ký với tên này
+     */
+    public synchronized boolean unregister(String name) {
+        if (registeredGlyphs.remove(name) == null) {
+            return false;
+        }
+        List<GlyphDefinition> glyphs = new ArrayList<>(registry.getGlyphs());
+        glyphs.removeIf(glyph -> glyph.getSource() != null && glyph.getName().equals(name));
+        registry = new GlyphRegistry(registry.getVersion() + 1, glyphs);
+        return true;
+    }
+
+    /**
+     * Có glyph nào đăng ký qua API không
+     */
+    public synchronized boolean hasRegisteredGlyphs() {
+        return !registeredGlyphs.isEmpty();
+    }
+
+    /**
+     * Snapshot glyph hiện tại, đọc được từ mọi thread mà không cần khóa
+     */
+    public GlyphRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Thời gian và số byte đọc của lần tải file glyph gần nhất
+     */
+    public StageStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    private void loadGlyphFiles(StageTimer timer, List<GlyphDefinition> glyphs) {
+        File glyphDir = new File(dataFolder, "animatedGlyph/glyph");
         if (!glyphDir.exists()) {
             glyphDir.mkdirs();
             createExampleGlyph();
@@ -39,47 +170,138 @@ public class GlyphManager {
             return;
         }
 
+        // Thứ tự cố định để glyph mới được cấp ký tự giống nhau trên mọi máy
+        Arrays.sort(glyphFiles);
+
+        // File không đổi lấy từ manifest nhị phân, chỉ parse lại file YAML mới hoặc đã sửa
+        timer.addBytesRead(BuildStage.YAML_LOAD, manifest.load());
+        List<String> fileNames = new ArrayList<>(glyphFiles.length);
+        double defaultFrameError = configManager.getDefaultFrameError();
+        int parsed = 0;
         for (File glyphFile : glyphFiles) {
-            try {
-                YamlConfiguration glyphConfig = YamlConfiguration.loadConfiguration(glyphFile);
-                String name = glyphConfig.getString("name");
-                String file = glyphConfig.getString("file");
-                int ascent = glyphConfig.getInt("ascent", 8);
-                int height = glyphConfig.getInt("height", 16);
-                double duration = glyphConfig.getDouble("duration", configManager.getDefaultDuration());
-                int frames = glyphConfig.getInt("frames", 16); // Mặc định 4x4
-                List<String> chars = glyphConfig.getStringList("chars");
-
-                // Validate frames
-                if (!GifToPngConverter.isValidFrameCount(frames)) {
-                    plugin.getLogger().warning("File glyph " + glyphFile.getName() + " có frames không hợp lệ: " + frames + ". Sử dụng mặc định 16.");
-                    frames = 16;
+            fileNames.add(glyphFile.getName());
+            GlyphManifest.Entry entry = manifest.get(glyphFile);
+            if (entry == null) {
+                timer.addBytesRead(BuildStage.YAML_LOAD, glyphFile.length());
+                try {
+                    entry = parseGlyphFile(glyphFile);
+                } catch (Exception e) {
+                    logger.warning("Không thể tải file glyph: " + glyphFile.getName() + " - " + e.getMessage());
+                    continue;
                 }
+                manifest.put(glyphFile.getName(), entry);
+                parsed++;
+            }
+            glyphs.add(entry.toDefinition(configManager.getDefaultDuration(), defaultFrameError));
+        }
+        manifest.retain(fileNames);
+        manifest.save();
 
-                // Nếu chars rỗng, tự sinh ký tự Unicode không trùng
-                if (chars == null || chars.isEmpty()) {
-                    chars = generateUniqueChars(1);
-                }
+        if (configManager.getDebugLevel() > 0 && parsed > 0) {
+            logger.info("🧩 Đã parse lại " + parsed + "/" + glyphFiles.length + " file glyph (các file khác lấy từ glyph-manifest.bin)");
+        }
+    }
 
-                GlyphDefinition glyph = new GlyphDefinition(name, file, ascent, height, chars, duration, frames);
-                glyphs.add(glyph);
-                usedChars.addAll(chars);
+    private GlyphManifest.Entry parseGlyphFile(File glyphFile) throws IOException {
+        // Đọc size và mtime trước khi parse: file bị sửa trong lúc parse sẽ không khớp và được parse lại lần sau
+        long size = glyphFile.length();
+        long lastModified = glyphFile.lastModified();
+        YamlFile glyphConfig = YamlFile.load(glyphFile);
+        String name = glyphConfig.getString("name");
+        if (name == null) {
+            // Tên glyph là khóa của ký tự tự sinh và tên file PNG
+            name = glyphFile.getName().substring(0, glyphFile.getName().length() - ".yml".length());
+        }
+        String file = glyphConfig.getString("file");
+        int ascent = glyphConfig.getInt("ascent", 8);
+        int height = glyphConfig.getInt("height", 16);
+        // Không khai báo: dùng default-duration lúc tải, để manifest vẫn đúng khi config thay đổi
+        Object rawDuration = glyphConfig.get("duration");
+        double duration = rawDuration instanceof Number ? ((Number) rawDuration).doubleValue() : Double.NaN;
+        int frames = glyphConfig.getInt("frames", 16); // Mặc định 4x4
+        int frameSize = glyphConfig.getInt("frame-size", SheetLayout.DEFAULT_FRAME_SIZE);
+        // Không khai báo: dùng default-frame-error lúc tải, như duration
+        Object rawFrameError = glyphConfig.get("frame-error");
+        double frameError = rawFrameError instanceof Number ? ((Number) rawFrameError).doubleValue() : Double.NaN;
+        List<String> chars = glyphConfig.getStringList("chars");
+
+        // Validate frames
+        if (!GifToPngConverter.isValidFrameCount(frames)) {
+            logger.warning("File glyph " + glyphFile.getName() + " có frames không hợp lệ: " + frames + ". Sử dụng mặc định 16.");
+            frames = 16;
+        }
+        if (!GifToPngConverter.isValidFrameSize(frameSize)) {
+            logger.warning("File glyph " + glyphFile.getName() + " có frame-size không hợp lệ: " + frameSize
+                    + ". Sử dụng mặc định " + SheetLayout.DEFAULT_FRAME_SIZE + ".");
+            frameSize = SheetLayout.DEFAULT_FRAME_SIZE;
+        }
+        try {
+            SheetLayout.of(frames, frameSize);
+        } catch (IllegalArgumentException e) {
+            logger.warning("File glyph " + glyphFile.getName() + ": " + e.getMessage()
+                    + ". Sử dụng frame-size mặc định " + SheetLayout.DEFAULT_FRAME_SIZE + ".");
+            frameSize = SheetLayout.DEFAULT_FRAME_SIZE;
+        }
+        if (!Double.isNaN(frameError) && (frameError < 0 || frameError > 1)) {
+            logger.warning("File glyph " + glyphFile.getName() + " có frame-error không hợp lệ: " + frameError
+                    + " (cho phép 0-1). Dùng default-frame-error.");
+            frameError = Double.NaN;
+        }
+
+        return new GlyphManifest.Entry(size, lastModified, name, file, ascent, height, duration, frames, frameSize,
+                frameError, chars);
+    }
 
-                if (configManager.getDebugLevel() > 0) {
-                    int gridSize = GifToPngConverter.getGridSizeFromFrames(frames);
-                    plugin.getLogger().info("Đã tải glyph: " + name + " với ký tự: " + chars + ", grid: " + gridSize + "x" + gridSize + " (" + frames + " frames)");
+    private void assignChars(List<GlyphDefinition> glyphs) {
+        charAllocator.begin(configManager.isSupplementaryPuaEnabled());
+        allocatorStarted = true;
+        // Vị trí trong danh sách của các glyph cần tự sinh ký tự, được cấp sau khi đã đánh dấu hết ký tự khai báo sẵn
+        List<Integer> autoCharGlyphs = new ArrayList<>();
+        for (int i = 0; i < glyphs.size(); i++) {
+            List<String> chars = glyphs.get(i).getChars();
+            if (chars.isEmpty()) {
+                autoCharGlyphs.add(i);
+            } else {
+                for (String row : chars) {
+                    charAllocator.reserve(row);
                 }
-            } catch (Exception e) {
-                plugin.getLogger().warning("Không thể tải file glyph: " + glyphFile.getName() + " - " + e.getMessage());
+            }
+        }
+
+        // Nếu chars rỗng, tự sinh ký tự Private Use Area (giữ nguyên ký tự đã cấp ở lần trước)
+        int unassigned = 0;
+        String allocationError = null;
+        for (int index : autoCharGlyphs) {
+            GlyphDefinition glyph = glyphs.get(index);
+            try {
+                glyphs.set(index, glyph.withChars(Collections.singletonList(charAllocator.assign(glyph.getName()))));
+            } catch (IllegalStateException e) {
+                unassigned++;
+                allocationError = e.getMessage();
+            }
+        }
+        charAllocator.save();
+        if (unassigned > 0) {
+            glyphs.removeIf(glyph -> glyph.getChars().isEmpty());
+            logger.warning("Bỏ qua " + unassigned + " glyph không cấp được ký tự: " + allocationError);
+        }
+    }
+
+    private void logLoadedGlyphs(List<GlyphDefinition> glyphs) {
+        if (configManager.getDebugLevel() > 1) {
+            for (GlyphDefinition glyph : glyphs) {
+                SheetLayout layout = SheetLayout.of(glyph.getFrames(), glyph.getFrameSize());
+                logger.info("Đã tải glyph: " + glyph.getName() + " với ký tự: " + glyph.getChars() + ", grid: " + layout + " (" + glyph.getFrames() + " frames"
+                        + (glyph.getFrameError() > 0 ? " tối đa, frame-error " + glyph.getFrameError() : "") + ")");
             }
         }
     }
 
     private void createExampleGlyph() {
-        File exampleFile = new File(plugin.getDataFolder(), "animatedGlyph/glyph/example.yml");
+        File exampleFile = new File(dataFolder, "animatedGlyph/glyph/example.yml");
         try {
             exampleFile.getParentFile().mkdirs();
-            YamlConfiguration example = new YamlConfiguration();
+            YamlFile example = new YamlFile();
             example.set("name", "fire");
             example.set("file", "fire.gif");
             example.set("ascent", 11);
@@ -88,30 +310,16 @@ public class GlyphManager {
             example.set("frames", 16); // Thêm frames config mặc định 4x4
             example.set("chars", Arrays.asList("🔥"));
             example.save(exampleFile);
-            plugin.getLogger().info("Đã tạo file glyph mẫu: " + exampleFile.getPath());
+            logger.info("Đã tạo file glyph mẫu: " + exampleFile.getPath());
         } catch (Exception e) {
-            plugin.getLogger().severe("Không thể tạo glyph mẫu: " + e.getMessage());
-        }
-    }
-
-    private List<String> generateUniqueChars(int count) {
-        List<String> chars = new ArrayList<>();
-        // Sử dụng Private Use Area Unicode (U+E000-U+F8FF)
-        int start = 0xE000;
-
-        for (int i = 0; i < count; i++) {
-            String unicode;
-            do {
-                unicode = new String(Character.toChars(start++));
-            } while (usedChars.contains(unicode) && start < 0xF8FF);
-
-            chars.add(unicode);
-            usedChars.add(unicode);
+            logger.severe("Không thể tạo glyph mẫu: " + e.getMessage());
         }
-        return chars;
     }
 
+    /**
+     * Danh sách glyph của snapshot hiện tại (không sửa được)
+     */
     public List<GlyphDefinition> getGlyphs() {
-        return new ArrayList<>(glyphs);
+        return registry.getGlyphs();
     }
 }
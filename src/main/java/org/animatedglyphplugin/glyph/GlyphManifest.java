@@ -0,0 +1,263 @@
+package org.animatedglyphplugin.glyph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Bản biên dịch nhị phân của tất cả file glyph YAML, để lần khởi động sau không phải parse lại từng file.
+ * Mỗi mục ghi kích thước và thời gian sửa của file YAML; mục không khớp với file hiện tại bị bỏ và file
+ * đó được parse lại.
+ * <p>
+ * Format (big-endian): magic "AGMF", version, số mục, rồi từng mục: tên file, size, mtime, name, file GIF,
+ * ascent, height, duration (NaN = dùng default-duration), frames, frame-size, frame-error (NaN = dùng
+ * default-frame-error), số dòng chars và từng dòng.
+ * Chuỗi được ghi dạng độ dài + UTF-8, chuỗi null có độ dài -1.
+ */
+public class GlyphManifest {
+
+    private static final int MAGIC = 0x41474D46; // "AGMF"
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Giá trị đọc được từ một file glyph
+     */
+    public static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String name;
+        private final String file;
+        private final int ascent;
+        private final int height;
+        private final double duration;
+        private final int frames;
+        private final int frameSize;
+        private final double frameError;
+        private final List<String> chars;
+
+        /**
+         * @param duration   NaN nếu file không khai báo duration
+         * @param frameError NaN nếu file không khai báo frame-error
+         */
+        public Entry(long size, long lastModified, String name, String file, int ascent, int height,
+                     double duration, int frames, int frameSize, double frameError, List<String> chars) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.name = name;
+            this.file = file;
+            this.ascent = ascent;
+            this.height = height;
+            this.duration = duration;
+            this.frames = frames;
+            this.frameSize = frameSize;
+            this.frameError = frameError;
+            this.chars = chars != null ? Collections.unmodifiableList(new ArrayList<>(chars)) : Collections.emptyList();
+        }
+
+        /**
+         * File glyph không đổi kể từ lần parse ghi mục này
+         */
+        public boolean matches(File glyphFile) {
+            return glyphFile.length() == size && glyphFile.lastModified() == lastModified;
+        }
+
+        public GlyphDefinition toDefinition(double defaultDuration, double defaultFrameError) {
+            return new GlyphDefinition(name, file, ascent, height, chars,
+                    Double.isNaN(duration) ? defaultDuration : duration, frames, frameSize)
+                    .withFrameError(Double.isNaN(frameError) ? defaultFrameError : frameError);
+        }
+    }
+
+    private final File manifestFile;
+    private final Logger logger;
+    // Tên file YAML → mục, theo thứ tự tên để file ghi ra ổn định
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private boolean loaded;
+    private boolean dirty;
+
+    public GlyphManifest(File manifestFile, Logger logger) {
+        this.manifestFile = manifestFile;
+        this.logger = logger;
+    }
+
+    /**
+     * Đọc manifest trên đĩa ở lần gọi đầu tiên
+     *
+     * @return số byte đã đọc
+     */
+    public long load() {
+        if (loaded) {
+            return 0;
+        }
+        loaded = true;
+        if (!manifestFile.isFile()) {
+            return 0;
+        }
+        // Đọc cả file bằng một lần read vào buffer (không map file để tránh khóa file trên Windows
+        // khi manifest được ghi đè)
+        try (FileChannel channel = FileChannel.open(manifestFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("manifest quá lớn");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Đọc tới khi đầy buffer
+            }
+            buffer.flip();
+            Map<String, Entry> read = decode(buffer);
+            entries.putAll(read);
+            return size;
+        } catch (IOException e) {
+            logger.warning("Bỏ qua " + manifestFile.getName() + " không đọc được, sẽ parse lại các file glyph: " + e.getMessage());
+            dirty = true;
+            return 0;
+        }
+    }
+
+    /**
+     * Mục còn hợp lệ của file glyph, null nếu cần parse lại
+     */
+    public Entry get(File glyphFile) {
+        Entry entry = entries.get(glyphFile.getName());
+        return entry != null && entry.matches(glyphFile) ? entry : null;
+    }
+
+    public void put(String glyphFileName, Entry entry) {
+        entries.put(glyphFileName, entry);
+        dirty = true;
+    }
+
+    /**
+     * Bỏ mục của các file glyph không còn tồn tại
+     */
+    public void retain(Collection<String> glyphFileNames) {
+        if (entries.keySet().retainAll(glyphFileNames)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Ghi manifest nếu có thay đổi (ghi file tạm rồi rename)
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        try {
+            manifestFile.getParentFile().mkdirs();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    writeString(out, mapEntry.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    writeString(out, entry.name);
+                    writeString(out, entry.file);
+                    out.writeInt(entry.ascent);
+                    out.writeInt(entry.height);
+                    out.writeDouble(entry.duration);
+                    out.writeInt(entry.frames);
+                    out.writeInt(entry.frameSize);
+                    out.writeDouble(entry.frameError);
+                    out.writeInt(entry.chars.size());
+                    for (String row : entry.chars) {
+                        writeString(out, row);
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), manifestFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.severe("Không thể lưu " + manifestFile.getName() + ": " + e.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    private static Map<String, Entry> decode(ByteBuffer buffer) throws IOException {
+        try {
+            return decodeEntries(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("file bị cắt cụt", e);
+        }
+    }
+
+    private static Map<String, Entry> decodeEntries(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("sai định dạng");
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("phiên bản " + version + " không được hỗ trợ");
+        }
+        int count = buffer.getInt();
+        Map<String, Entry> read = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String fileName = readString(buffer);
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            String name = readString(buffer);
+            String file = readString(buffer);
+            int ascent = buffer.getInt();
+            int height = buffer.getInt();
+            double duration = buffer.getDouble();
+            int frames = buffer.getInt();
+            int frameSize = buffer.getInt();
+            double frameError = buffer.getDouble();
+            int rows = buffer.getInt();
+            if (rows < 0 || rows > buffer.remaining() / 4) {
+                throw new IOException("số dòng chars không hợp lệ: " + rows);
+            }
+            List<String> chars = new ArrayList<>(rows);
+            for (int r = 0; r < rows; r++) {
+                chars.add(readString(buffer));
+            }
+            read.put(fileName, new Entry(size, lastModified, name, file, ascent, height, duration, frames, frameSize, frameError, chars));
+        }
+        return read;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("chuỗi bị cắt cụt");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,124 @@
+package org.animatedglyphplugin.glyph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ảnh chụp không thay đổi của tất cả glyph sau một lần reload.
+ * Mỗi lần reload tạo một snapshot mới với version tăng dần và thay snapshot cũ bằng một phép gán,
+ * nên plugin khác đọc từ bất kỳ thread nào cũng không thấy trạng thái dở dang và không cần khóa.
+ * Các phép tra cứu không cấp phát bộ nhớ.
+ */
+public final class GlyphRegistry {
+
+    public static final GlyphRegistry EMPTY = new GlyphRegistry(0, Collections.emptyList());
+
+    private static final int FREE = -1;
+
+    private final long version;
+    private final List<GlyphDefinition> glyphs;
+    private final Map<String, GlyphDefinition> byName;
+    // Bảng băm địa chỉ mở codepoint → vị trí glyph trong danh sách
+    private final int[] codePointKeys;
+    private final int[] codePointGlyphs;
+    private final int codePointMask;
+
+    GlyphRegistry(long version, List<GlyphDefinition> glyphs) {
+        this.version = version;
+        this.glyphs = Collections.unmodifiableList(new ArrayList<>(glyphs));
+
+        Map<String, GlyphDefinition> names = new HashMap<>();
+        int codePointCount = 0;
+        for (GlyphDefinition glyph : this.glyphs) {
+            // Trùng tên: glyph đầu tiên được dùng (cùng quy tắc với shortcode)
+            names.putIfAbsent(glyph.getName(), glyph);
+            for (String row : glyph.getChars()) {
+                codePointCount += row.length();
+            }
+        }
+        this.byName = names;
+
+        int capacity = Integer.highestOneBit(Math.max(4, codePointCount * 2) - 1) << 1;
+        codePointKeys = new int[capacity];
+        codePointGlyphs = new int[capacity];
+        codePointMask = capacity - 1;
+        Arrays.fill(codePointKeys, FREE);
+        for (int index = 0; index < this.glyphs.size(); index++) {
+            for (String row : this.glyphs.get(index).getChars()) {
+                int offset = 0;
+                while (offset < row.length()) {
+                    int codePoint = row.codePointAt(offset);
+                    offset += Character.charCount(codePoint);
+                    // U+0000 là ô trống trong lưới chars, không thuộc glyph nào
+                    if (codePoint != 0) {
+                        putCodePoint(codePoint, index);
+                    }
+                }
+            }
+        }
+    }
+
+    private void putCodePoint(int codePoint, int index) {
+        int slot = slot(codePoint);
+        while (codePointKeys[slot] != FREE) {
+            if (codePointKeys[slot] == codePoint) {
+                return;
+            }
+            slot = (slot + 1) & codePointMask;
+        }
+        codePointKeys[slot] = codePoint;
+        codePointGlyphs[slot] = index;
+    }
+
+    /**
+     * Số thứ tự của snapshot, tăng sau mỗi lần reload (snapshot rỗng ban đầu là 0)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Danh sách glyph theo thứ tự tải (không sửa được, không sao chép)
+     */
+    public List<GlyphDefinition> getGlyphs() {
+        return glyphs;
+    }
+
+    public int size() {
+        return glyphs.size();
+    }
+
+    /**
+     * @return glyph có tên này, hoặc null
+     */
+    public GlyphDefinition getByName(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @return glyph dùng ký tự này (trong bất kỳ dòng chars nào), hoặc null
+     */
+    public GlyphDefinition getByCodePoint(int codePoint) {
+        if (codePoint == FREE) {
+            return null;
+        }
+        int slot = slot(codePoint);
+        int key;
+        while ((key = codePointKeys[slot]) != FREE) {
+            if (key == codePoint) {
+                return glyphs.get(codePointGlyphs[slot]);
+            }
+            slot = (slot + 1) & codePointMask;
+        }
+        return null;
+    }
+
+    private int slot(int codePoint) {
+        int hash = codePoint * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & codePointMask;
+    }
+}
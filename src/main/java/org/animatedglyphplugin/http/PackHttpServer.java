@@ -0,0 +1,333 @@
+package org.animatedglyphplugin.http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.animatedglyphplugin.resourcepack.BuildResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP server nhỏ (com.sun.net.httpserver) phục vụ file zip resourcepack mới nhất.
+ * Hỗ trợ ETag/If-None-Match để không gửi lại pack không đổi và Range để tải tiếp.
+ * <p>
+ * Mỗi pack được phục vụ từ bản chụp riêng đặt tên theo SHA-1 (pack-&lt;sha1&gt;.zip), không phải từ pack.zip:
+ * lần build sau ghi đè pack.zip trước khi được publish, nên đọc thẳng pack.zip có thể gửi byte mới kèm ETag cũ.
+ */
+public class PackHttpServer {
+
+    public static final String PACK_PATH = "/pack.zip";
+
+    private final String bindAddress;
+    private final int port;
+    private final File snapshotDir;
+    private final Logger logger;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile PublishedPack current;
+
+    /**
+     * Pack đang được phục vụ: bản chụp file zip và SHA-1 (dùng làm ETag)
+     */
+    private static class PublishedPack {
+        private final File snapshot;
+        private final String sha1Hex;
+
+        private PublishedPack(File snapshot, String sha1Hex) {
+            this.snapshot = snapshot;
+            this.sha1Hex = sha1Hex;
+        }
+
+        private String etag() {
+            return "\"" + sha1Hex + "\"";
+        }
+    }
+
+    /**
+     * @param snapshotDir thư mục chứa bản chụp của các pack đã publish
+     */
+    public PackHttpServer(String bindAddress, int port, File snapshotDir, Logger logger) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.snapshotDir = snapshotDir;
+        this.logger = logger;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "AnimatedGlyph-Http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(PACK_PATH, exchange -> {
+            try {
+                handle(exchange);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Lỗi khi gửi resourcepack", e);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        logger.info("HTTP server resourcepack đang chạy tại http://" + bindAddress + ":" + getPort() + PACK_PATH);
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Cổng thực tế đang lắng nghe (hữu ích khi cấu hình port 0)
+     */
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * Đổi pack được phục vụ sang kết quả build mới: chụp file zip thành pack-&lt;sha1&gt;.zip (hard link nếu được,
+     * không thì copy), kiểm tra SHA-1 của bản chụp rồi mới đổi, sau đó xóa bản chụp của các pack cũ
+     *
+     * @return false nếu kết quả không có file zip
+     * @throws IOException khi không chụp được hoặc file zip đã bị thay bằng bản build khác
+     */
+    public boolean publish(BuildResult result) throws IOException {
+        if (result.getZipFile() == null || result.getSha1() == null) {
+            return false;
+        }
+        snapshotDir.mkdirs();
+        File snapshot = new File(snapshotDir, "pack-" + result.getSha1Hex() + ".zip");
+        if (!snapshot.isFile() || !MessageDigest.isEqual(sha1Of(snapshot), result.getSha1())) {
+            File tempFile = new File(snapshotDir, snapshot.getName() + ".tmp");
+            Files.deleteIfExists(tempFile.toPath());
+            try {
+                Files.createLink(tempFile.toPath(), result.getZipFile().toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(result.getZipFile().toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (!MessageDigest.isEqual(sha1Of(tempFile), result.getSha1())) {
+                Files.delete(tempFile.toPath());
+                throw new IOException(result.getZipFile().getName() + " không còn khớp SHA-1 của lần build này");
+            }
+            Files.move(tempFile.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        current = new PublishedPack(snapshot, result.getSha1Hex());
+        deleteOldSnapshots(snapshot);
+        return true;
+    }
+
+    /**
+     * Bản chụp đang được tải dở vẫn đọc được trên Linux/macOS; trên Windows file đang mở không xóa được
+     * và sẽ được dọn ở lần publish sau
+     */
+    private void deleteOldSnapshots(File keep) {
+        File[] files = snapshotDir.listFiles((dir, name) -> name.startsWith("pack-") && name.endsWith(".zip"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static byte[] sha1Of(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 không khả dụng", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    public boolean hasPack() {
+        return current != null;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        boolean head = method.equalsIgnoreCase("HEAD");
+        if (!head && !method.equalsIgnoreCase("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        PublishedPack pack = current;
+        if (pack == null || !exchange.getRequestURI().getPath().equals(PACK_PATH)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(pack.snapshot.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            Headers request = exchange.getRequestHeaders();
+            Headers response = exchange.getResponseHeaders();
+            response.set("ETag", pack.etag());
+            response.set("Accept-Ranges", "bytes");
+            response.set("Cache-Control", "no-cache");
+
+            // Client đã có đúng pack này
+            if (matchesEtag(request.getFirst("If-None-Match"), pack.etag())) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+
+            String range = request.getFirst("Range");
+            String ifRange = request.getFirst("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(pack.etag()))) {
+                long[] parsed = parseRange(range, length);
+                if (parsed == null) {
+                    response.set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                if (parsed.length == 2) {
+                    start = parsed[0];
+                    end = parsed[1];
+                    status = 206;
+                    response.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            long count = end - start + 1;
+            response.set("Content-Type", "application/zip");
+            if (head) {
+                response.set("Content-Length", Long.toString(count));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            if (count <= 0) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, count);
+            try (OutputStream body = exchange.getResponseBody()) {
+                // HttpServer của JDK không cho truy cập socket channel nên transferTo vẫn copy qua buffer của JVM,
+                // chỉ tránh phải tự quản lý buffer và vòng đọc/ghi
+                WritableByteChannel target = Channels.newChannel(body);
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        }
+    }
+
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Phân tích header Range dạng "bytes=a-b", "bytes=a-" hoặc "bytes=-n".
+     *
+     * @return {start, end} nếu hợp lệ, mảng rỗng nếu nên bỏ qua Range (gửi toàn bộ),
+     * null nếu range không thỏa mãn được (416)
+     */
+    private static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            // Không hỗ trợ multi-range: gửi toàn bộ file như RFC cho phép
+            return new long[0];
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: n byte cuối
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.isEmpty()) {
+                    end = length - 1;
+                } else {
+                    long requestedEnd = Long.parseLong(last);
+                    if (requestedEnd < start) {
+                        // byte-range-spec sai cú pháp (RFC 7233 §2.1): bỏ qua Range, gửi toàn bộ
+                        return new long[0];
+                    }
+                    end = Math.min(requestedEnd, length - 1);
+                }
+            }
+
+            if (start >= length) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
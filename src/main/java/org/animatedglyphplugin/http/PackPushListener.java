@@ -0,0 +1,23 @@
+package org.animatedglyphplugin.http;
+
+import org.animatedglyphplugin.AnimatedGlyphPlugin;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+/**
+ * Gửi resourcepack mới nhất cho người chơi khi vào server
+ */
+public class PackPushListener implements Listener {
+    private final AnimatedGlyphPlugin plugin;
+
+    public PackPushListener(AnimatedGlyphPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        plugin.sendResourcePack(event.getPlayer());
+    }
+}
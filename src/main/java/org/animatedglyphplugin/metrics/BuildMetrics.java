@@ -0,0 +1,66 @@
+package org.animatedglyphplugin.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thu thập số liệu của một lần build: mỗi glyph một {@link StageTimer} trên thread xử lý glyph đó,
+ * cộng với các timer cho phần việc chung (YAML, font JSON, shader, trang atlas).
+ */
+public final class BuildMetrics {
+
+    private final long startNanos = System.nanoTime();
+    private final List<StageStats> glyphs = new ArrayList<>();
+    private final List<StageStats> shared = new ArrayList<>();
+    private final AtomicInteger liveFrames = new AtomicInteger();
+    private final AtomicInteger peakFrames = new AtomicInteger();
+
+    /**
+     * Bắt đầu đo một glyph trên thread hiện tại
+     */
+    public StageTimer startGlyph(String glyphName) {
+        return StageTimer.start(glyphName, this);
+    }
+
+    /**
+     * Bắt đầu đo phần việc chung của build trên thread hiện tại
+     */
+    public StageTimer startShared() {
+        return StageTimer.start(null, this);
+    }
+
+    /**
+     * Thêm kết quả đo được bên ngoài build (ví dụ lần tải YAML ngay trước build)
+     */
+    public synchronized void addShared(StageStats stats) {
+        if (stats != null) {
+            shared.add(stats);
+        }
+    }
+
+    synchronized void record(StageTimer timer) {
+        if (timer.getName() != null) {
+            glyphs.add(timer.snapshot());
+        } else {
+            shared.add(timer.snapshot());
+        }
+    }
+
+    void holdFrames(int frames) {
+        int live = liveFrames.addAndGet(frames);
+        peakFrames.accumulateAndGet(live, Math::max);
+    }
+
+    void releaseFrames(int frames) {
+        liveFrames.addAndGet(-frames);
+    }
+
+    /**
+     * Chốt số liệu khi build xong
+     */
+    public synchronized BuildStats finish(long buildNumber) {
+        return new BuildStats(buildNumber, System.currentTimeMillis(), System.nanoTime() - startNanos,
+                new ArrayList<>(glyphs), new ArrayList<>(shared), peakFrames.get());
+    }
+}
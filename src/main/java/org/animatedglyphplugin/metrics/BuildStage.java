@@ -0,0 +1,27 @@
+package org.animatedglyphplugin.metrics;
+
+/**
+ * Các giai đoạn của một lần build resourcepack được đo thời gian
+ */
+public enum BuildStage {
+    YAML_LOAD("yaml"),
+    DECODE("decode"),
+    RESAMPLE("resample"),
+    SHEET_ASSEMBLY("sheet"),
+    PNG_ENCODE("png"),
+    JSON_WRITE("json"),
+    SHADER_COPY("shader");
+
+    private final String key;
+
+    BuildStage(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Tên ngắn dùng trong log, lệnh stats và JMX
+     */
+    public String getKey() {
+        return key;
+    }
+}
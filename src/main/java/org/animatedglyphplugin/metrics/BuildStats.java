@@ -0,0 +1,216 @@
+package org.animatedglyphplugin.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Số liệu đã chốt của một lần build: theo từng glyph, tổng theo giai đoạn và phân vị thời gian glyph
+ */
+public final class BuildStats {
+
+    private final long buildNumber;
+    private final long finishedAtMillis;
+    private final long wallNanos;
+    private final List<StageStats> glyphs;
+    private final StageStats totals;
+    private final int peakFrames;
+
+    BuildStats(long buildNumber, long finishedAtMillis, long wallNanos, List<StageStats> glyphs,
+               List<StageStats> shared, int peakFrames) {
+        this.buildNumber = buildNumber;
+        this.finishedAtMillis = finishedAtMillis;
+        this.wallNanos = wallNanos;
+        glyphs.sort(Comparator.comparing(StageStats::getName));
+        this.glyphs = Collections.unmodifiableList(glyphs);
+
+        List<StageStats> all = new ArrayList<>(glyphs);
+        all.addAll(shared);
+        this.totals = StageStats.sum("build", all);
+        this.peakFrames = peakFrames;
+    }
+
+    public long getBuildNumber() { return buildNumber; }
+    public long getFinishedAtMillis() { return finishedAtMillis; }
+    public long getWallNanos() { return wallNanos; }
+    public List<StageStats> getGlyphs() { return glyphs; }
+
+    /**
+     * Tổng theo giai đoạn của tất cả glyph và phần việc chung
+     */
+    public StageStats getTotals() { return totals; }
+
+    /**
+     * Số frame tối đa cùng lúc nằm trong bộ nhớ trên tất cả thread build
+     */
+    public int getPeakFrames() { return peakFrames; }
+
+    public int getCachedGlyphs() {
+        int cached = 0;
+        for (StageStats glyph : glyphs) {
+            if (glyph.isCached()) {
+                cached++;
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Phân vị (nearest-rank) thời gian wall của các glyph
+     *
+     * @param stage giai đoạn cần tính, null để tính tổng thời gian của glyph
+     * @param percentile từ 0 đến 100
+     */
+    public long getGlyphWallPercentile(BuildStage stage, double percentile) {
+        if (glyphs.isEmpty()) {
+            return 0;
+        }
+        long[] values = new long[glyphs.size()];
+        for (int i = 0; i < values.length; i++) {
+            StageStats glyph = glyphs.get(i);
+            values[i] = stage != null ? glyph.getWallNanos(stage) : glyph.getTotalWallNanos();
+        }
+        Arrays.sort(values);
+        int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+        return values[Math.max(0, Math.min(values.length - 1, rank - 1))];
+    }
+
+    /**
+     * Một dòng log tóm tắt cả lần build
+     */
+    public String toSummaryLine() {
+        StringBuilder line = new StringBuilder();
+        line.append("📊 Build #").append(buildNumber).append(": ")
+                .append(glyphs.size()).append(" glyph");
+        int cached = getCachedGlyphs();
+        if (cached > 0) {
+            line.append(" (").append(cached).append(" từ cache)");
+        }
+        line.append(" trong ").append(millis(wallNanos)).append(" ms, CPU ")
+                .append(millis(totals.getTotalCpuNanos())).append(" ms |");
+        for (BuildStage stage : BuildStage.values()) {
+            line.append(' ').append(stage.getKey()).append(' ').append(millis(totals.getWallNanos(stage))).append(" ms");
+        }
+        line.append(" | đọc ").append(formatBytes(totals.getTotalBytesRead()))
+                .append(", ghi ").append(formatBytes(totals.getTotalBytesWritten()))
+                .append(" | peak ").append(peakFrames).append(" frame");
+        if (!glyphs.isEmpty()) {
+            line.append(" | glyph p50 ").append(millis(getGlyphWallPercentile(null, 50)))
+                    .append(" ms, p90 ").append(millis(getGlyphWallPercentile(null, 90)))
+                    .append(" ms, max ").append(millis(getGlyphWallPercentile(null, 100))).append(" ms");
+        }
+        return line.toString();
+    }
+
+    /**
+     * Bảng chi tiết cho lệnh /animatedglyph stats
+     *
+     * @param slowest số glyph chậm nhất được liệt kê
+     */
+    public List<String> toReport(int slowest) {
+        List<String> lines = new ArrayList<>();
+        lines.add(toSummaryLine());
+        lines.add("Giai đoạn: wall / CPU / đọc / ghi / p50 / p90 / max mỗi glyph");
+        for (BuildStage stage : BuildStage.values()) {
+            lines.add(String.format(Locale.ROOT, "  %-8s %6d ms / %6d ms / %s / %s / %d / %d / %d ms",
+                    stage.getKey(),
+                    millis(totals.getWallNanos(stage)),
+                    millis(totals.getCpuNanos(stage)),
+                    formatBytes(totals.getBytesRead(stage)),
+                    formatBytes(totals.getBytesWritten(stage)),
+                    millis(getGlyphWallPercentile(stage, 50)),
+                    millis(getGlyphWallPercentile(stage, 90)),
+                    millis(getGlyphWallPercentile(stage, 100))));
+        }
+
+        List<StageStats> sorted = new ArrayList<>(glyphs);
+        sorted.sort(Comparator.comparingLong(StageStats::getTotalWallNanos).reversed());
+        if (!sorted.isEmpty()) {
+            lines.add("Glyph chậm nhất:");
+        }
+        for (int i = 0; i < Math.min(slowest, sorted.size()); i++) {
+            StageStats glyph = sorted.get(i);
+            lines.add(String.format(Locale.ROOT, "  %s: %d ms (CPU %d ms), peak %d frame%s",
+                    glyph.getName(),
+                    millis(glyph.getTotalWallNanos()),
+                    millis(glyph.getTotalCpuNanos()),
+                    glyph.getPeakFrames(),
+                    glyph.isCached() ? ", từ cache" : ""));
+        }
+        return lines;
+    }
+
+    /**
+     * Báo cáo dạng JSON cho công cụ (CI, build ngoài server); thời gian tính bằng mili giây có phần thập phân
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("build", buildNumber);
+        json.addProperty("finishedAt", finishedAtMillis);
+        json.addProperty("wallMs", fractionalMillis(wallNanos));
+        json.addProperty("cpuMs", fractionalMillis(totals.getTotalCpuNanos()));
+        json.addProperty("bytesRead", totals.getTotalBytesRead());
+        json.addProperty("bytesWritten", totals.getTotalBytesWritten());
+        json.addProperty("peakFrames", peakFrames);
+        json.addProperty("glyphCount", glyphs.size());
+        json.addProperty("cachedGlyphs", getCachedGlyphs());
+
+        JsonObject stages = new JsonObject();
+        for (BuildStage stage : BuildStage.values()) {
+            JsonObject stageJson = new JsonObject();
+            stageJson.addProperty("wallMs", fractionalMillis(totals.getWallNanos(stage)));
+            stageJson.addProperty("cpuMs", fractionalMillis(totals.getCpuNanos(stage)));
+            stageJson.addProperty("bytesRead", totals.getBytesRead(stage));
+            stageJson.addProperty("bytesWritten", totals.getBytesWritten(stage));
+            stageJson.addProperty("glyphP50Ms", fractionalMillis(getGlyphWallPercentile(stage, 50)));
+            stageJson.addProperty("glyphP90Ms", fractionalMillis(getGlyphWallPercentile(stage, 90)));
+            stageJson.addProperty("glyphMaxMs", fractionalMillis(getGlyphWallPercentile(stage, 100)));
+            stages.add(stage.getKey(), stageJson);
+        }
+        json.add("stages", stages);
+
+        JsonArray glyphArray = new JsonArray();
+        for (StageStats glyph : glyphs) {
+            JsonObject glyphJson = new JsonObject();
+            glyphJson.addProperty("name", glyph.getName());
+            glyphJson.addProperty("wallMs", fractionalMillis(glyph.getTotalWallNanos()));
+            glyphJson.addProperty("cpuMs", fractionalMillis(glyph.getTotalCpuNanos()));
+            glyphJson.addProperty("peakFrames", glyph.getPeakFrames());
+            glyphJson.addProperty("cached", glyph.isCached());
+            JsonObject glyphStages = new JsonObject();
+            for (BuildStage stage : BuildStage.values()) {
+                if (glyph.getWallNanos(stage) > 0) {
+                    glyphStages.addProperty(stage.getKey(), fractionalMillis(glyph.getWallNanos(stage)));
+                }
+            }
+            glyphJson.add("stagesMs", glyphStages);
+            glyphArray.add(glyphJson);
+        }
+        json.add("glyphs", glyphArray);
+        return json;
+    }
+
+    private static double fractionalMillis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    static long millis(long nanos) {
+        return nanos / 1_000_000L;
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
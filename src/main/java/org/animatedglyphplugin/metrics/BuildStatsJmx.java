@@ -0,0 +1,182 @@
+package org.animatedglyphplugin.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * MXBean đọc số liệu build mới nhất từ builder
+ */
+public class BuildStatsJmx implements BuildStatsMXBean {
+
+    private static final String OBJECT_NAME = "org.animatedglyphplugin:type=BuildStats";
+
+    private final Supplier<BuildStats> source;
+    private ObjectName registeredName;
+
+    public BuildStatsJmx(Supplier<BuildStats> source) {
+        this.source = source;
+    }
+
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        // Bản đăng ký cũ còn sót lại sau khi plugin bị reload
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    public void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException ignored) {
+            // Đã bị gỡ từ trước
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public long getBuildNumber() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getBuildNumber() : 0;
+    }
+
+    @Override
+    public long getFinishedAtMillis() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getFinishedAtMillis() : 0;
+    }
+
+    @Override
+    public long getWallMillis() {
+        BuildStats stats = source.get();
+        return stats != null ? BuildStats.millis(stats.getWallNanos()) : 0;
+    }
+
+    @Override
+    public long getCpuMillis() {
+        BuildStats stats = source.get();
+        return stats != null ? BuildStats.millis(stats.getTotals().getTotalCpuNanos()) : 0;
+    }
+
+    @Override
+    public int getGlyphCount() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getGlyphs().size() : 0;
+    }
+
+    @Override
+    public int getCachedGlyphCount() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getCachedGlyphs() : 0;
+    }
+
+    @Override
+    public long getBytesRead() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getTotals().getTotalBytesRead() : 0;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getTotals().getTotalBytesWritten() : 0;
+    }
+
+    @Override
+    public int getPeakFrames() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.getPeakFrames() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getStageWallMillis() {
+        return perStage((totals, stage) -> BuildStats.millis(totals.getWallNanos(stage)));
+    }
+
+    @Override
+    public Map<String, Long> getStageCpuMillis() {
+        return perStage((totals, stage) -> BuildStats.millis(totals.getCpuNanos(stage)));
+    }
+
+    @Override
+    public Map<String, Long> getStageBytesRead() {
+        return perStage(StageStats::getBytesRead);
+    }
+
+    @Override
+    public Map<String, Long> getStageBytesWritten() {
+        return perStage(StageStats::getBytesWritten);
+    }
+
+    @Override
+    public Map<String, Long> getGlyphWallMillis() {
+        BuildStats stats = source.get();
+        if (stats == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (StageStats glyph : stats.getGlyphs()) {
+            values.put(glyph.getName(), BuildStats.millis(glyph.getTotalWallNanos()));
+        }
+        return values;
+    }
+
+    @Override
+    public long getGlyphWallMillisP50() {
+        return glyphPercentile(50);
+    }
+
+    @Override
+    public long getGlyphWallMillisP90() {
+        return glyphPercentile(90);
+    }
+
+    @Override
+    public long getGlyphWallMillisP99() {
+        return glyphPercentile(99);
+    }
+
+    @Override
+    public long getGlyphWallMillisMax() {
+        return glyphPercentile(100);
+    }
+
+    @Override
+    public String getSummary() {
+        BuildStats stats = source.get();
+        return stats != null ? stats.toSummaryLine() : "";
+    }
+
+    private long glyphPercentile(double percentile) {
+        BuildStats stats = source.get();
+        return stats != null ? BuildStats.millis(stats.getGlyphWallPercentile(null, percentile)) : 0;
+    }
+
+    private interface StageValue {
+        long get(StageStats totals, BuildStage stage);
+    }
+
+    private Map<String, Long> perStage(StageValue value) {
+        BuildStats stats = source.get();
+        if (stats == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (BuildStage stage : BuildStage.values()) {
+            values.put(stage.getKey(), value.get(stats.getTotals(), stage));
+        }
+        return values;
+    }
+}
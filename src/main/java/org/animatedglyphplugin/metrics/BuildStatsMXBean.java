@@ -0,0 +1,48 @@
+package org.animatedglyphplugin.metrics;
+
+import java.util.Map;
+
+/**
+ * Số liệu của lần build gần nhất qua JMX (org.animatedglyphplugin:type=BuildStats).
+ * Thời gian tính bằng mili giây, các giá trị bằng 0 khi chưa có build nào.
+ */
+public interface BuildStatsMXBean {
+
+    long getBuildNumber();
+
+    long getFinishedAtMillis();
+
+    long getWallMillis();
+
+    long getCpuMillis();
+
+    int getGlyphCount();
+
+    int getCachedGlyphCount();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    int getPeakFrames();
+
+    Map<String, Long> getStageWallMillis();
+
+    Map<String, Long> getStageCpuMillis();
+
+    Map<String, Long> getStageBytesRead();
+
+    Map<String, Long> getStageBytesWritten();
+
+    Map<String, Long> getGlyphWallMillis();
+
+    long getGlyphWallMillisP50();
+
+    long getGlyphWallMillisP90();
+
+    long getGlyphWallMillisP99();
+
+    long getGlyphWallMillisMax();
+
+    String getSummary();
+}
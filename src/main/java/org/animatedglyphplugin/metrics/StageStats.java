@@ -0,0 +1,69 @@
+package org.animatedglyphplugin.metrics;
+
+/**
+ * Kết quả đo theo giai đoạn của một glyph (hoặc phần việc chung của build), không thay đổi sau khi tạo
+ */
+public final class StageStats {
+
+    private final String name;
+    private final long[] wallNanos;
+    private final long[] cpuNanos;
+    private final long[] bytesRead;
+    private final long[] bytesWritten;
+    private final int peakFrames;
+    private final boolean cached;
+
+    StageStats(String name, long[] wallNanos, long[] cpuNanos, long[] bytesRead, long[] bytesWritten,
+               int peakFrames, boolean cached) {
+        this.name = name;
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.peakFrames = peakFrames;
+        this.cached = cached;
+    }
+
+    /**
+     * Cộng dồn nhiều kết quả (peak frame lấy giá trị lớn nhất)
+     */
+    static StageStats sum(String name, Iterable<StageStats> parts) {
+        int stages = BuildStage.values().length;
+        long[] wall = new long[stages];
+        long[] cpu = new long[stages];
+        long[] read = new long[stages];
+        long[] written = new long[stages];
+        int peak = 0;
+        for (StageStats part : parts) {
+            for (int i = 0; i < stages; i++) {
+                wall[i] += part.wallNanos[i];
+                cpu[i] += part.cpuNanos[i];
+                read[i] += part.bytesRead[i];
+                written[i] += part.bytesWritten[i];
+            }
+            peak = Math.max(peak, part.peakFrames);
+        }
+        return new StageStats(name, wall, cpu, read, written, peak, false);
+    }
+
+    public String getName() { return name; }
+    public long getWallNanos(BuildStage stage) { return wallNanos[stage.ordinal()]; }
+    public long getCpuNanos(BuildStage stage) { return cpuNanos[stage.ordinal()]; }
+    public long getBytesRead(BuildStage stage) { return bytesRead[stage.ordinal()]; }
+    public long getBytesWritten(BuildStage stage) { return bytesWritten[stage.ordinal()]; }
+    public int getPeakFrames() { return peakFrames; }
+    public boolean isCached() { return cached; }
+
+    public long getTotalWallNanos() { return total(wallNanos); }
+    public long getTotalCpuNanos() { return total(cpuNanos); }
+    public long getTotalBytesRead() { return total(bytesRead); }
+    public long getTotalBytesWritten() { return total(bytesWritten); }
+
+    private static long total(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,191 @@
+package org.animatedglyphplugin.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Đo thời gian (wall và CPU), số byte đọc/ghi và số frame giữ trong bộ nhớ theo từng giai đoạn,
+ * cho một glyph hoặc phần việc chung của build. Mỗi timer chỉ được dùng trên một thread.
+ * <p>
+ * Timer đang hoạt động được gắn với thread hiện tại để code chuyển đổi lấy qua {@link #current()}
+ * mà không cần truyền tham số. Khi không có timer nào, {@link #current()} trả về timer rỗng không làm gì.
+ * Giai đoạn lồng nhau được tính riêng: thời gian resample không bị tính thêm vào decode.
+ */
+public final class StageTimer implements AutoCloseable {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final ThreadLocal<StageTimer> CURRENT = new ThreadLocal<>();
+    private static final StageTimer DISABLED = new StageTimer(null, null, false);
+    private static final int MAX_DEPTH = 8;
+
+    private final String name;
+    private final BuildMetrics parent;
+    private final boolean enabled;
+    private StageTimer previous;
+
+    private final long[] wallNanos = new long[BuildStage.values().length];
+    private final long[] cpuNanos = new long[BuildStage.values().length];
+    private final long[] bytesRead = new long[BuildStage.values().length];
+    private final long[] bytesWritten = new long[BuildStage.values().length];
+    private int framesHeld;
+    private int peakFrames;
+    private boolean cached;
+
+    // Ngăn xếp giai đoạn đang chạy và thời điểm bắt đầu lát thời gian hiện tại
+    private final BuildStage[] stack = new BuildStage[MAX_DEPTH];
+    private int depth;
+    // Số lần enter() vượt quá MAX_DEPTH: không được đẩy vào ngăn xếp nên exit() tương ứng cũng không được pop
+    private int overflow;
+    private long sliceWall;
+    private long sliceCpu;
+
+    private StageTimer(String name, BuildMetrics parent, boolean enabled) {
+        this.name = name;
+        this.parent = parent;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Timer gắn với thread hiện tại, hoặc timer rỗng nếu không đo
+     */
+    public static StageTimer current() {
+        StageTimer timer = CURRENT.get();
+        return timer != null ? timer : DISABLED;
+    }
+
+    /**
+     * Tạo timer và gắn vào thread hiện tại cho tới khi {@link #close()}
+     *
+     * @param parent build nhận kết quả khi timer đóng (có thể null)
+     */
+    public static StageTimer start(String name, BuildMetrics parent) {
+        StageTimer timer = new StageTimer(name, parent, true);
+        timer.previous = CURRENT.get();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    public void enter(BuildStage stage) {
+        if (!enabled) {
+            return;
+        }
+        if (depth == MAX_DEPTH) {
+            // Thời gian của giai đoạn quá sâu được tính cho giai đoạn ở đỉnh ngăn xếp
+            overflow++;
+            return;
+        }
+        long wall = System.nanoTime();
+        long cpu = cpuTime();
+        if (depth > 0) {
+            charge(stack[depth - 1], wall, cpu);
+        }
+        stack[depth++] = stage;
+        sliceWall = wall;
+        sliceCpu = cpu;
+    }
+
+    public void exit() {
+        if (!enabled) {
+            return;
+        }
+        if (overflow > 0) {
+            overflow--;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        long wall = System.nanoTime();
+        long cpu = cpuTime();
+        charge(stack[--depth], wall, cpu);
+        sliceWall = wall;
+        sliceCpu = cpu;
+    }
+
+    public void addBytesRead(BuildStage stage, long bytes) {
+        if (enabled) {
+            bytesRead[stage.ordinal()] += bytes;
+        }
+    }
+
+    public void addBytesWritten(BuildStage stage, long bytes) {
+        if (enabled) {
+            bytesWritten[stage.ordinal()] += bytes;
+        }
+    }
+
+    /**
+     * Ghi nhận thêm frame đang được giữ trong bộ nhớ (frame đã decode, canvas ghép frame)
+     */
+    public void holdFrames(int frames) {
+        if (!enabled) {
+            return;
+        }
+        framesHeld += frames;
+        peakFrames = Math.max(peakFrames, framesHeld);
+        if (parent != null) {
+            parent.holdFrames(frames);
+        }
+    }
+
+    public void releaseFrames(int frames) {
+        if (!enabled) {
+            return;
+        }
+        framesHeld -= frames;
+        if (parent != null) {
+            parent.releaseFrames(frames);
+        }
+    }
+
+    /**
+     * Đánh dấu kết quả lấy từ sheet cache (không chuyển đổi)
+     */
+    public void markCached() {
+        cached = true;
+    }
+
+    public StageStats snapshot() {
+        return new StageStats(name, wallNanos.clone(), cpuNanos.clone(), bytesRead.clone(), bytesWritten.clone(),
+                peakFrames, cached);
+    }
+
+    /**
+     * Kết thúc các giai đoạn còn mở, gửi kết quả cho build và gỡ timer khỏi thread
+     */
+    @Override
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        overflow = 0;
+        while (depth > 0) {
+            exit();
+        }
+        if (framesHeld > 0) {
+            releaseFrames(framesHeld);
+        }
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+        if (parent != null) {
+            parent.record(this);
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    private void charge(BuildStage stage, long wall, long cpu) {
+        wallNanos[stage.ordinal()] += wall - sliceWall;
+        cpuNanos[stage.ordinal()] += cpu - sliceCpu;
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+}
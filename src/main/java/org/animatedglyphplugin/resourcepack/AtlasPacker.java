@@ -0,0 +1,164 @@
+package org.animatedglyphplugin.resourcepack;
+
+import org.animatedglyphplugin.gif.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Xếp nhiều sprite sheet vào các trang atlas dùng chung, mỗi trang không vượt quá max-texture-size.
+ * <p>
+ * Bitmap font provider chia texture thành lưới ô đều nhau và cắt mỗi ô thành một glyph riêng,
+ * nên mỗi trang chỉ chứa các sheet cùng kích thước, mỗi sheet đúng một ô. Nhờ vậy metadata
+ * và corner markers của từng sheet vẫn nằm đúng vị trí tương đối mà shader đọc.
+ * <p>
+ * Sheet được giữ dạng nội dung PNG và chỉ decode khi encode trang, từng sheet một, nên bộ nhớ ảnh
+ * chỉ cần cho một hàng ô của trang cộng một sheet chứ không phải cả trang hay mọi sheet.
+ */
+public class AtlasPacker {
+
+    /**
+     * Vị trí của một sheet trong atlas
+     */
+    public static class Placement {
+        private final Page page;
+        private final int cell;
+
+        private Placement(Page page, int cell) {
+            this.page = page;
+            this.cell = cell;
+        }
+
+        public Page getPage() { return page; }
+        public int getCell() { return cell; }
+        public int getColumn() { return cell % page.getColumns(); }
+        public int getRow() { return cell / page.getColumns(); }
+    }
+
+    /**
+     * Một trang atlas gồm các sheet (nội dung PNG) cùng kích thước
+     */
+    public static class Page implements PngEncoder.BandSource {
+        private final String fileName;
+        private final int cellWidth;
+        private final int cellHeight;
+        private final int capacity;
+        private final int maxColumns;
+        private final List<byte[]> sheets = new ArrayList<>();
+
+        private Page(String fileName, int cellWidth, int cellHeight, int maxColumns, int maxRows) {
+            this.fileName = fileName;
+            this.cellWidth = cellWidth;
+            this.cellHeight = cellHeight;
+            this.maxColumns = maxColumns;
+            this.capacity = maxColumns * maxRows;
+        }
+
+        public String getFileName() { return fileName; }
+        public int getCellWidth() { return cellWidth; }
+        public int getCellHeight() { return cellHeight; }
+        public int getSheetCount() { return sheets.size(); }
+
+        /**
+         * Số cột thực tế, thu gọn theo số sheet đã xếp
+         */
+        public int getColumns() {
+            return Math.max(1, Math.min(sheets.size(), maxColumns));
+        }
+
+        public int getRows() {
+            return (sheets.size() + getColumns() - 1) / getColumns();
+        }
+
+        public int getWidth() { return getColumns() * cellWidth; }
+        public int getHeight() { return getRows() * cellHeight; }
+
+        private boolean isFull() {
+            return sheets.size() >= capacity;
+        }
+
+        /**
+         * Mỗi dải khi encode là một hàng ô
+         */
+        @Override
+        public int bandHeight(int firstRow) {
+            return cellHeight;
+        }
+
+        /**
+         * Decode lần lượt các sheet nằm trong dải dòng và ghép vào argb, để encode trang mà không dựng ảnh
+         * cả trang. Mỗi sheet chỉ sống trong lúc được copy vào dải.
+         */
+        @Override
+        public void render(int firstRow, int rowCount, int[] argb) throws IOException {
+            int width = getWidth();
+            int columns = getColumns();
+            int lastRow = firstRow + rowCount;
+            for (int y = firstRow; y < lastRow; ) {
+                int gridRow = y / cellHeight;
+                int sheetY = y % cellHeight;
+                int rows = Math.min(cellHeight - sheetY, lastRow - y);
+                for (int column = 0; column < columns; column++) {
+                    int cell = gridRow * columns + column;
+                    if (cell >= sheets.size()) {
+                        break;
+                    }
+                    // PNG có thể là ảnh palette: getRGB trả đúng giá trị ARGB của từng pixel
+                    decode(sheets.get(cell)).getRGB(0, sheetY, cellWidth, rows, argb,
+                            (y - firstRow) * width + column * cellWidth, width);
+                }
+                y += rows;
+            }
+        }
+
+        private BufferedImage decode(byte[] png) throws IOException {
+            BufferedImage sheet = ImageIO.read(new ByteArrayInputStream(png));
+            if (sheet == null || sheet.getWidth() != cellWidth || sheet.getHeight() != cellHeight) {
+                throw new IOException("Sprite sheet trong " + fileName + " không đọc được hoặc sai kích thước");
+            }
+            return sheet;
+        }
+    }
+
+    private final int maxTextureSize;
+    private final List<Page> pages = new ArrayList<>();
+    private final Map<String, Page> openPages = new HashMap<>();
+
+    public AtlasPacker(int maxTextureSize) {
+        this.maxTextureSize = maxTextureSize;
+    }
+
+    /**
+     * Thêm sheet vào trang còn chỗ cùng kích thước (hoặc mở trang mới)
+     *
+     * @param png nội dung PNG của sheet, kích thước width x height
+     * @return vị trí sheet, hoặc null nếu sheet lớn hơn max-texture-size
+     */
+    public Placement add(int width, int height, byte[] png) {
+        if (width > maxTextureSize || height > maxTextureSize) {
+            return null;
+        }
+
+        String sizeKey = width + "x" + height;
+        Page page = openPages.get(sizeKey);
+        if (page == null || page.isFull()) {
+            page = new Page("atlas_" + pages.size() + ".png", width, height,
+                    maxTextureSize / width, maxTextureSize / height);
+            pages.add(page);
+            openPages.put(sizeKey, page);
+        }
+
+        page.sheets.add(png);
+        return new Placement(page, page.sheets.size() - 1);
+    }
+
+    public List<Page> getPages() {
+        return pages;
+    }
+}
@@ -0,0 +1,39 @@
+package org.animatedglyphplugin.resourcepack;
+
+import org.animatedglyphplugin.util.Hex;
+
+import java.io.File;
+
+/**
+ * Kết quả một lần build resourcepack
+ */
+public class BuildResult {
+    private final File directory;
+    private final File zipFile;
+    private final byte[] sha1;
+
+    public BuildResult(File directory, File zipFile, byte[] sha1) {
+        this.directory = directory;
+        this.zipFile = zipFile;
+        this.sha1 = sha1;
+    }
+
+    /**
+     * Thư mục build, null nếu không xuất dạng thư mục
+     */
+    public File getDirectory() { return directory; }
+
+    /**
+     * File zip, null nếu không xuất dạng zip
+     */
+    public File getZipFile() { return zipFile; }
+
+    /**
+     * SHA-1 của file zip (20 byte), null nếu không xuất dạng zip
+     */
+    public byte[] getSha1() { return sha1 == null ? null : sha1.clone(); }
+
+    public String getSha1Hex() {
+        return sha1 == null ? null : Hex.toHex(sha1);
+    }
+}
@@ -0,0 +1,30 @@
+package org.animatedglyphplugin.resourcepack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Ghi resourcepack thành cây thư mục
+ */
+public class DirectoryPackOutput implements PackOutput {
+    private final File rootDir;
+
+    public DirectoryPackOutput(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    @Override
+    public void write(String path, byte[] data) throws IOException {
+        File file = new File(rootDir, path);
+        if (!file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        Files.write(file.toPath(), data);
+    }
+
+    @Override
+    public void close() {
+        // Không có tài nguyên cần đóng
+    }
+}
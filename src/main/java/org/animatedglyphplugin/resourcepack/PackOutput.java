@@ -0,0 +1,15 @@
+package org.animatedglyphplugin.resourcepack;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Nơi ghi các file của resourcepack (thư mục hoặc file zip)
+ */
+public interface PackOutput extends Closeable {
+
+    /**
+     * Ghi một file với đường dẫn tương đối trong pack, dùng dấu '/' làm phân cách
+     */
+    void write(String path, byte[] data) throws IOException;
+}
@@ -0,0 +1,212 @@
+package org.animatedglyphplugin.resourcepack;
+
+import org.animatedglyphplugin.glyph.GlyphDefinition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * So sánh đầu vào của từng glyph ở lần build trước với glyph hiện tại để chọn phần việc tối thiểu:
+ * <ul>
+ *     <li>chỉ đổi ascent, height hoặc chars: dùng lại sprite sheet, chỉ default.json thay đổi</li>
+ *     <li>chỉ đổi duration: vá pixel metadata thời gian trên sprite sheet cũ</li>
+ *     <li>đổi GIF, frames hoặc cách encode: chuyển đổi lại glyph đó</li>
+ * </ul>
+ * "Khóa pixel" của glyph gồm mọi thứ ảnh hưởng tới pixel frame (nội dung GIF, frames, frame-size, frame-error, encoder, chế độ atlas)
+ * nhưng không gồm duration, vì duration chỉ nằm trong pixel metadata.
+ * <p>
+ * Không thread-safe: chỉ được gọi từ thread build (các lần build không chạy chồng lên nhau).
+ *
+ * @param <R> kết quả chuyển đổi của một glyph
+ */
+public class RebuildPlanner<R> {
+
+    public enum Action {
+        UNCHANGED("giữ nguyên"),
+        FONT_ONLY("chỉ đổi font"),
+        PATCH_METADATA("vá metadata"),
+        RECONVERT("chuyển đổi lại");
+
+        private final String label;
+
+        Action(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Glyph đã build ở lần trước cùng kết quả của nó
+     */
+    private static final class Built<R> {
+        private final GlyphDefinition glyph;
+        private final String pixelKey;
+        private final R result;
+
+        private Built(GlyphDefinition glyph, String pixelKey, R result) {
+            this.glyph = glyph;
+            this.pixelKey = pixelKey;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Kế hoạch cho một lần build, cùng thứ tự với danh sách glyph
+     */
+    public static final class Plan<R> {
+        private final Action[] actions;
+        private final List<R> previousResults;
+        private final String[] pixelKeys;
+        private final int removed;
+        private final boolean configChanged;
+
+        private Plan(Action[] actions, List<R> previousResults, String[] pixelKeys, int removed, boolean configChanged) {
+            this.actions = actions;
+            this.previousResults = previousResults;
+            this.pixelKeys = pixelKeys;
+            this.removed = removed;
+            this.configChanged = configChanged;
+        }
+
+        public Action getAction(int index) {
+            return actions[index];
+        }
+
+        /**
+         * Kết quả của lần build trước cho glyph (null khi phải chuyển đổi lại)
+         */
+        public R getPreviousResult(int index) {
+            return previousResults.get(index);
+        }
+
+        public String getPixelKey(int index) {
+            return pixelKeys[index];
+        }
+
+        /**
+         * Không glyph nào thay đổi, không glyph nào bị xóa và config build giữ nguyên: pack sẽ giống hệt lần trước
+         */
+        public boolean isNoop() {
+            if (configChanged || removed > 0) {
+                return false;
+            }
+            for (Action action : actions) {
+                if (action != Action.UNCHANGED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Ví dụ: "10 giữ nguyên, 1 vá metadata, 2 bị xóa"
+         */
+        public String summary() {
+            int[] counts = new int[Action.values().length];
+            for (Action action : actions) {
+                counts[action.ordinal()]++;
+            }
+            StringBuilder text = new StringBuilder();
+            for (Action action : Action.values()) {
+                if (counts[action.ordinal()] > 0) {
+                    text.append(text.length() > 0 ? ", " : "").append(counts[action.ordinal()]).append(' ').append(action.label);
+                }
+            }
+            if (removed > 0) {
+                text.append(text.length() > 0 ? ", " : "").append(removed).append(" bị xóa");
+            }
+            if (configChanged) {
+                text.append(text.length() > 0 ? ", " : "").append("config build thay đổi");
+            }
+            return text.length() > 0 ? text.toString() : "không có glyph";
+        }
+    }
+
+    // Glyph của lần build thành công gần nhất theo tên
+    private Map<String, Built<R>> previous = new HashMap<>();
+    private String previousConfigKey;
+    // Glyph của lần build đang chạy, thay cho previous khi build thành công
+    private Map<String, Built<R>> next = new HashMap<>();
+
+    /**
+     * Lập kế hoạch cho danh sách glyph hiện tại
+     *
+     * @param pixelKey  khóa pixel của glyph
+     * @param configKey các tùy chọn build ảnh hưởng tới pack ngoài glyph (mô tả pack, chế độ output...)
+     */
+    public Plan<R> plan(List<GlyphDefinition> glyphs, Function<GlyphDefinition, String> pixelKey, String configKey) {
+        Action[] actions = new Action[glyphs.size()];
+        String[] pixelKeys = new String[glyphs.size()];
+        List<R> previousResults = new ArrayList<>(glyphs.size());
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < glyphs.size(); i++) {
+            GlyphDefinition glyph = glyphs.get(i);
+            names.add(glyph.getName());
+            pixelKeys[i] = pixelKey.apply(glyph);
+            Built<R> built = previous.get(glyph.getName());
+            actions[i] = classify(built, glyph, pixelKeys[i]);
+            previousResults.add(actions[i] != Action.RECONVERT ? built.result : null);
+        }
+
+        int removed = 0;
+        for (String name : previous.keySet()) {
+            if (!names.contains(name)) {
+                removed++;
+            }
+        }
+        next = new HashMap<>();
+        return new Plan<>(actions, previousResults, pixelKeys, removed, !configKey.equals(previousConfigKey));
+    }
+
+    private Action classify(Built<R> built, GlyphDefinition glyph, String pixelKey) {
+        if (built == null || built.result == null || !built.pixelKey.equals(pixelKey)) {
+            return Action.RECONVERT;
+        }
+        GlyphDefinition old = built.glyph;
+        if (Double.compare(old.getDuration(), glyph.getDuration()) != 0) {
+            return Action.PATCH_METADATA;
+        }
+        if (old.getAscent() != glyph.getAscent() || old.getHeight() != glyph.getHeight()
+                || !old.getChars().equals(glyph.getChars())) {
+            return Action.FONT_ONLY;
+        }
+        return Action.UNCHANGED;
+    }
+
+    /**
+     * Ghi lại kết quả của glyph trong lần build đang chạy
+     *
+     * @param result null nếu không giữ kết quả (lần sau glyph sẽ được chuyển đổi lại)
+     */
+    public void record(GlyphDefinition glyph, String pixelKey, R result) {
+        next.put(glyph.getName(), new Built<>(glyph, pixelKey, result));
+    }
+
+    /**
+     * Build thành công: các glyph vừa ghi lại trở thành mốc so sánh cho lần sau
+     */
+    public void commit(String configKey) {
+        previous = next;
+        previousConfigKey = configKey;
+        next = new HashMap<>();
+    }
+
+    /**
+     * Quên mọi lần build trước: lần lập kế hoạch sau chuyển đổi lại tất cả glyph
+     */
+    public void clear() {
+        previous = new HashMap<>();
+        previousConfigKey = null;
+    }
+
+    /**
+     * Quên các glyph có khóa pixel bắt đầu bằng prefix (ví dụ GIF vừa bị sửa)
+     */
+    public void invalidate(String pixelKeyPrefix) {
+        previous.values().removeIf(built -> built.pixelKey.startsWith(pixelKeyPrefix));
+    }
+}
@@ -2,108 +2,857 @@ package org.animatedglyphplugin.resourcepack;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import org.animatedglyphplugin.cache.SheetCache;
 import org.animatedglyphplugin.config.ConfigManager;
+import org.animatedglyphplugin.gif.FrameSource;
 import org.animatedglyphplugin.gif.GifToPngConverter;
+import org.animatedglyphplugin.gif.PngEncoder;
+import org.animatedglyphplugin.gif.SheetLayout;
 import org.animatedglyphplugin.glyph.GlyphDefinition;
 import org.animatedglyphplugin.glyph.GlyphManager;
+import org.animatedglyphplugin.metrics.BuildMetrics;
+import org.animatedglyphplugin.metrics.BuildStage;
+import org.animatedglyphplugin.metrics.BuildStats;
+import org.animatedglyphplugin.metrics.StageTimer;
+import org.animatedglyphplugin.scheduler.BuildThrottle;
+import org.animatedglyphplugin.util.Hex;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 public class ResourcePackBuilder {
-    private final JavaPlugin plugin;
+    public static final String PACK_ZIP_NAME = "pack.zip";
+    private static final String TEXTURE_PATH = "assets/minecraft/textures/gif/";
+
+    private final File dataFolder;
+    private final Logger logger;
     private final GlyphManager glyphManager;
     private final ConfigManager configManager;
     private final Gson gson;
+    private volatile BuildResult lastResult;
+    private volatile BuildStats lastStats;
+    private final AtomicLong buildCounter = new AtomicLong();
+    // Glyph và kết quả chuyển đổi của lần build trước, để chỉ làm lại phần đã thay đổi
+    private final RebuildPlanner<GlyphResult> planner = new RebuildPlanner<>();
+    // png-streaming-min-pixels của lần build đang chạy (các lần build không chạy chồng lên nhau)
+    private volatile long streamingMinPixels;
 
     public ResourcePackBuilder(JavaPlugin plugin, GlyphManager glyphManager, ConfigManager configManager) {
-        this.plugin = plugin;
+        this(plugin.getDataFolder(), plugin.getLogger(), glyphManager, configManager);
+    }
+
+    /**
+     * Khởi tạo không cần plugin (benchmark, công cụ build ngoài server)
+     */
+    public ResourcePackBuilder(File dataFolder, Logger logger, GlyphManager glyphManager, ConfigManager configManager) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
         this.glyphManager = glyphManager;
         this.configManager = configManager;
         this.gson = new GsonBuilder().setPrettyPrinting().create();
     }
 
-    public void build() throws Exception {
-        File buildDir = new File(plugin.getDataFolder(), "animatedGlyph/build");
-        if (buildDir.exists()) {
-            deleteDirectory(buildDir);
+    /**
+     * Build lại resourcepack, chỉ làm phần việc cần thiết so với lần build trước (xem {@link RebuildPlanner}):
+     * glyph có GIF (kích thước, thời gian sửa) và tham số chuyển đổi không đổi dùng lại sprite sheet,
+     * glyph chỉ đổi duration được vá pixel metadata, còn lại được chuyển đổi (hoặc lấy từ sheet cache).
+     * Nếu không có gì thay đổi, pack hiện tại được giữ nguyên.
+     */
+    public BuildResult build() throws Exception {
+        return build(BuildThrottle.UNLIMITED);
+    }
+
+    /**
+     * Như {@link #build()}, giới hạn số thread, độ ưu tiên và thời gian CPU theo throttle và báo tiến độ vào đó
+     */
+    public BuildResult build(BuildThrottle throttle) throws Exception {
+        return buildPack(throttle);
+    }
+
+    /**
+     * Build lại toàn bộ như lần build đầu tiên, không dùng lại kết quả của các lần build trước
+     * (sheet cache vẫn được dùng nếu bật)
+     */
+    public BuildResult buildFull() throws Exception {
+        planner.clear();
+        return buildPack(BuildThrottle.UNLIMITED);
+    }
+
+    /**
+     * Như {@link #build()}, nhưng glyph dùng các GIF trong danh sách luôn được chuyển đổi lại
+     * (phòng khi file bị sửa mà kích thước và thời gian sửa không đổi)
+     *
+     * @param changedGifs tên file (trong gif/) đã thay đổi
+     */
+    public BuildResult buildIncremental(Collection<String> changedGifs) throws Exception {
+        return buildIncremental(changedGifs, BuildThrottle.UNLIMITED);
+    }
+
+    /**
+     * Như {@link #buildIncremental(Collection)} với ngân sách CPU của {@link #build(BuildThrottle)}
+     */
+    public BuildResult buildIncremental(Collection<String> changedGifs, BuildThrottle throttle) throws Exception {
+        for (String gifName : changedGifs) {
+            planner.invalidate(canonicalPath(new File(dataFolder, "animatedGlyph/gif/" + gifName)) + "|");
         }
-        buildDir.mkdirs();
+        return buildPack(throttle);
+    }
 
-        // Tạo pack.mcmeta
-        createPackMcmeta(buildDir);
+    private BuildResult buildPack(BuildThrottle throttle) throws Exception {
+        // Thread gọi build cũng làm phần việc chung (và xử lý glyph khi không chạy song song)
+        try (BuildThrottle.Scope scope = throttle.enter()) {
+            return buildPack();
+        }
+    }
 
-        // Tạo cấu trúc thư mục đúng chuẩn
-        File assetsDir = new File(buildDir, "assets/minecraft");
-        new File(assetsDir, "textures/gif").mkdirs();  // Thay đổi: gif thay vì animatedGif
-        new File(assetsDir, "font").mkdirs();
-        new File(assetsDir, "shaders/core").mkdirs();
+    private BuildResult buildPack() throws Exception {
+        String outputMode = configManager.getOutputMode();
+        boolean writeDirectory = !outputMode.equals("zip");
+        // HTTP server luôn cần file zip để phục vụ
+        boolean writeZip = !outputMode.equals("directory") || configManager.isHttpServerEnabled();
+
+        File buildDir = new File(dataFolder, "animatedGlyph/build");
+        File stagingDir = new File(dataFolder, "animatedGlyph/build.staging");
+        File zipFile = new File(dataFolder, "animatedGlyph/" + PACK_ZIP_NAME);
+        File zipTempFile = new File(dataFolder, "animatedGlyph/" + PACK_ZIP_NAME + ".tmp");
 
-        // Xử lý từng glyph và tập hợp vào default.json
         List<GlyphDefinition> glyphs = glyphManager.getGlyphs();
-        List<Map<String, Object>> allProviders = new ArrayList<>();
-
-        for (GlyphDefinition glyph : glyphs) {
-            String pngFileName = processGlyph(glyph, assetsDir);
-            if (pngFileName != null) {
-                // Thêm provider vào danh sách chung
-                Map<String, Object> provider = createProvider(glyph, pngFileName);
-                allProviders.add(provider);
+        PngEncoder pngEncoder = new PngEncoder(configManager.isPngPalette(), configManager.isPngQuantize(),
+                configManager.getPngCompressionLevel());
+        boolean atlasMode = configManager.isAtlasMode();
+        streamingMinPixels = configManager.getPngStreamingMinPixels();
+        String configKey = configKey(pngEncoder, atlasMode, writeDirectory, writeZip);
+        RebuildPlanner.Plan<GlyphResult> plan = planner.plan(glyphs, glyph -> pixelKey(glyph, pngEncoder, atlasMode), configKey);
+        if (plan.isNoop() && lastResult != null && (!writeDirectory || buildDir.isDirectory()) && (!writeZip || zipFile.isFile())) {
+            logger.info("✅ Không có thay đổi (" + glyphs.size() + " glyph), giữ nguyên resourcepack hiện tại");
+            return lastResult;
+        }
+        if (configManager.getDebugLevel() > 0) {
+            logger.info("🧩 Kế hoạch build: " + plan.summary());
+        }
+
+        // Build vào thư mục staging / file zip tạm, chỉ thay thế bản cũ khi đã hoàn tất
+        List<PackOutput> outputs = new ArrayList<>();
+        ZipPackOutput zipOutput = null;
+        if (writeDirectory) {
+            if (stagingDir.exists()) {
+                deleteDirectory(stagingDir);
             }
+            stagingDir.mkdirs();
+            outputs.add(new DirectoryPackOutput(stagingDir));
+        }
+        if (writeZip) {
+            zipOutput = new ZipPackOutput(zipTempFile);
+            outputs.add(zipOutput);
+        }
+
+        BuildMetrics metrics = new BuildMetrics();
+        metrics.addShared(glyphManager.getLastLoadStats());
+        try {
+            try (PackOutput output = new TeePackOutput(outputs)) {
+                buildInto(output, metrics, glyphs, plan, pngEncoder, atlasMode);
+            }
+
+            if (writeDirectory) {
+                swapBuildDirectory(stagingDir, buildDir);
+            }
+            if (writeZip) {
+                Files.move(zipTempFile.toPath(), zipFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (Exception e) {
+            if (writeDirectory) {
+                deleteDirectory(stagingDir);
+            }
+            zipTempFile.delete();
+            throw e;
+        }
+
+        BuildResult result = new BuildResult(
+                writeDirectory ? buildDir : null,
+                writeZip ? zipFile : null,
+                zipOutput != null ? zipOutput.getSha1() : null);
+        if (writeZip) {
+            Files.write(new File(dataFolder, "animatedGlyph/" + PACK_ZIP_NAME + ".sha1").toPath(),
+                    result.getSha1Hex().getBytes(StandardCharsets.US_ASCII));
+        }
+        lastResult = result;
+        planner.commit(configKey);
+        BuildStats stats = metrics.finish(buildCounter.incrementAndGet());
+        lastStats = stats;
+        logger.info(stats.toSummaryLine());
+
+        if (writeDirectory) {
+            logger.info("ResourcePack đã được tạo thành công tại: " + buildDir.getAbsolutePath());
+        }
+        if (writeZip) {
+            logger.info("ResourcePack zip: " + zipFile.getAbsolutePath() + " (SHA-1 " + result.getSha1Hex() + ")");
+        }
+        return result;
+    }
+
+    /**
+     * Kết quả của lần build thành công gần nhất (null nếu chưa build)
+     */
+    public BuildResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Số liệu của lần build thành công gần nhất (null nếu chưa build)
+     */
+    public BuildStats getLastStats() {
+        return lastStats;
+    }
+
+    private void buildInto(PackOutput output, BuildMetrics metrics, List<GlyphDefinition> glyphs,
+                           RebuildPlanner.Plan<GlyphResult> plan, PngEncoder pngEncoder, boolean atlasMode) throws Exception {
+        // Timer cho phần việc chung trên thread build (JSON, shader, trang atlas)
+        try (StageTimer timer = metrics.startShared()) {
+            buildContents(output, metrics, glyphs, plan, pngEncoder, atlasMode);
+        }
+    }
+
+    private void buildContents(PackOutput output, BuildMetrics metrics, List<GlyphDefinition> glyphs,
+                               RebuildPlanner.Plan<GlyphResult> plan, PngEncoder pngEncoder, boolean atlasMode) throws Exception {
+
+        // Tạo pack.mcmeta
+        createPackMcmeta(output);
+
+        // Xử lý từng glyph và tập hợp vào default.json
+        SheetCache sheetCache = createSheetCache();
+        // Sheet của chế độ atlas được ghép lại vào trang rồi mới quantize, nên PNG trung gian phải giữ đúng pixel
+        PngEncoder sheetEncoder = atlasMode ? pngEncoder.withoutQuantize() : pngEncoder;
+        List<GlyphResult> results = processGlyphs(glyphs, plan, sheetCache, sheetEncoder, metrics);
+        if (sheetCache != null) {
+            sheetCache.evict();
+        }
+
+        List<Map<String, Object>> allProviders;
+        if (atlasMode) {
+            allProviders = packAtlas(results, output, pngEncoder);
+        } else {
+            allProviders = new ArrayList<>();
+            // Sheet giống hệt nhau (cùng hash nội dung) chỉ ghi một file, các provider trỏ chung vào file đó
+            Map<String, String> fileBySheet = new HashMap<>();
+            int sharedSheets = 0;
+            long savedBytes = 0;
+            // Giữ đúng thứ tự glyph ban đầu dù xử lý song song
+            for (GlyphResult result : results) {
+                if (result != null) {
+                    String existing = fileBySheet.putIfAbsent(contentHash(result.png), result.pngFileName);
+                    if (existing == null) {
+                        writeTimed(output, TEXTURE_PATH + result.pngFileName, result.png, BuildStage.PNG_ENCODE);
+                    } else {
+                        result.pngFileName = existing;
+                        sharedSheets++;
+                        savedBytes += result.png.length;
+                    }
+                    // Thêm provider vào danh sách chung
+                    Map<String, Object> provider = createProvider(result.glyph, result.pngFileName);
+                    allProviders.add(provider);
+                }
+            }
+            logSharedSheets(sharedSheets, savedBytes, "byte");
         }
 
         // Tạo default.json duy nhất
-        createDefaultFontJson(allProviders, new File(assetsDir, "font"));
+        createDefaultFontJson(allProviders, output);
 
         // Copy shader files
-        copyShaderFiles(new File(assetsDir, "shaders/core"));
+        copyShaderFiles(output);
+    }
 
-        plugin.getLogger().info("ResourcePack đã được tạo thành công tại: " + buildDir.getAbsolutePath());
+    /**
+     * Đưa thư mục staging vào vị trí build bằng các thao tác rename nguyên tử.
+     * Build cũ được giữ lại cho đến khi staging đã vào đúng chỗ.
+     */
+    private void swapBuildDirectory(File stagingDir, File buildDir) throws IOException {
+        File oldDir = new File(buildDir.getParentFile(), buildDir.getName() + ".old");
+        if (oldDir.exists()) {
+            deleteDirectory(oldDir);
+        }
+
+        boolean hadPreviousBuild = buildDir.exists();
+        if (hadPreviousBuild) {
+            Files.move(buildDir.toPath(), oldDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        try {
+            Files.move(stagingDir.toPath(), buildDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Khôi phục build cũ nếu không thể đưa staging vào
+            if (hadPreviousBuild) {
+                Files.move(oldDir.toPath(), buildDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+
+        if (hadPreviousBuild) {
+            deleteDirectory(oldDir);
+        }
+    }
+
+    /**
+     * Xử lý danh sách glyph, song song nếu được bật trong config.
+     * Glyph có cùng đầu vào chuyển đổi chỉ được chuyển đổi một lần và dùng chung kết quả.
+     * Kết quả trả về cùng thứ tự với danh sách đầu vào (null nếu glyph lỗi).
+     */
+    private List<GlyphResult> processGlyphs(List<GlyphDefinition> glyphs, RebuildPlanner.Plan<GlyphResult> plan,
+                                            SheetCache sheetCache, PngEncoder pngEncoder,
+                                            BuildMetrics metrics) throws Exception {
+        int[] sourceOf = findDuplicateInputs(glyphs);
+        List<GlyphResult> results = new ArrayList<>(glyphs.size());
+        BuildThrottle throttle = BuildThrottle.current();
+        int threads = Math.min(throttle.workersFor(configManager.getBuildThreads()), glyphs.size());
+        int uniqueGlyphs = 0;
+        for (int i = 0; i < glyphs.size(); i++) {
+            if (sourceOf[i] == i) {
+                uniqueGlyphs++;
+            }
+        }
+        throttle.startGlyphs(uniqueGlyphs);
+
+        if (!configManager.isParallelBuild() || threads <= 1) {
+            for (int i = 0; i < glyphs.size(); i++) {
+                results.add(sourceOf[i] == i
+                        ? processGlyphPaced(glyphs.get(i), plan.getAction(i), plan.getPreviousResult(i), sheetCache, pngEncoder, metrics)
+                        : null);
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new BuildThreadFactory(throttle));
+            try {
+                List<Future<GlyphResult>> futures = new ArrayList<>(glyphs.size());
+                for (int i = 0; i < glyphs.size(); i++) {
+                    GlyphDefinition glyph = glyphs.get(i);
+                    RebuildPlanner.Action action = plan.getAction(i);
+                    GlyphResult previous = plan.getPreviousResult(i);
+                    futures.add(sourceOf[i] == i
+                            ? executor.submit(() -> processGlyphPaced(glyph, action, previous, sheetCache, pngEncoder, metrics))
+                            : null);
+                }
+
+                for (int i = 0; i < futures.size(); i++) {
+                    if (futures.get(i) == null) {
+                        results.add(null);
+                        continue;
+                    }
+                    try {
+                        results.add(futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        // Lỗi của một glyph không được làm hỏng cả build
+                        logger.severe("❌ Lỗi xử lý glyph " + glyphs.get(i).getName() + ": " + e.getCause());
+                        results.add(null);
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // Glyph trùng đầu vào dùng lại kết quả của glyph đầu tiên
+        int reused = 0;
+        for (int i = 0; i < glyphs.size(); i++) {
+            GlyphResult source = results.get(sourceOf[i]);
+            if (sourceOf[i] != i && source != null) {
+                results.set(i, source.forGlyph(glyphs.get(i)));
+                reused++;
+            }
+        }
+        if (reused > 0) {
+            logger.info("♻️ Bỏ qua chuyển đổi " + reused + " glyph có cùng GIF, frames và duration");
+        }
+
+        // Ghi lại cho lần build sau (bản sao riêng vì tên file của kết quả có thể bị đổi khi sheet được dùng chung)
+        for (int i = 0; i < glyphs.size(); i++) {
+            GlyphResult result = results.get(i);
+            planner.record(glyphs.get(i), plan.getPixelKey(i), result != null ? result.forGlyph(result.glyph) : null);
+        }
+        return results;
+    }
+
+    /**
+     * Tìm các glyph có cùng đầu vào chuyển đổi (file GIF, frames, duration)
+     *
+     * @return với mỗi glyph, vị trí glyph đầu tiên có cùng đầu vào (chính nó nếu không trùng)
+     */
+    private int[] findDuplicateInputs(List<GlyphDefinition> glyphs) {
+        int[] sourceOf = new int[glyphs.size()];
+        Map<String, Integer> firstByInput = new HashMap<>();
+        for (int i = 0; i < glyphs.size(); i++) {
+            GlyphDefinition glyph = glyphs.get(i);
+            String key = inputKey(glyph) + "|" + glyph.getFrames() + "|" + glyph.getFrameSize() + "|" + glyph.getFrameError()
+                    + "|" + Double.toString(glyph.getDuration());
+            Integer first = firstByInput.putIfAbsent(key, i);
+            sourceOf[i] = first != null ? first : i;
+        }
+        return sourceOf;
+    }
+
+    private File getGifFile(GlyphDefinition glyph) {
+        return new File(dataFolder, "animatedGlyph/gif/" + glyph.getFile());
+    }
+
+    /**
+     * Định danh đầu vào của glyph: đường dẫn GIF, hoặc hash nội dung với glyph có ảnh trong bộ nhớ
+     */
+    private String inputKey(GlyphDefinition glyph) {
+        FrameSource source = glyph.getSource();
+        return source != null ? "source:" + source.getContentHash() : canonicalPath(getGifFile(glyph));
+    }
+
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Khóa pixel của glyph cho {@link RebuildPlanner}, bắt đầu bằng đường dẫn GIF để có thể bỏ theo file.
+     * Kích thước và thời gian sửa file thay cho việc đọc lại nội dung GIF. Không gồm duration.
+     */
+    private String pixelKey(GlyphDefinition glyph, PngEncoder pngEncoder, boolean atlasMode) {
+        String input = inputKey(glyph);
+        if (glyph.getSource() == null) {
+            File gifFile = getGifFile(glyph);
+            input += "|" + gifFile.length() + "|" + gifFile.lastModified();
+        }
+        return input + "|" + glyph.getFrames() + "|" + glyph.getFrameSize() + "|" + glyph.getFrameError() + "|"
+                + pngEncoder.describe() + "|" + (atlasMode ? "atlas" : "png");
+    }
+
+    /**
+     * Các tùy chọn ảnh hưởng tới pack ngoài từng glyph; khác lần trước thì pack luôn được ghi lại
+     */
+    private String configKey(PngEncoder pngEncoder, boolean atlasMode, boolean writeDirectory, boolean writeZip) {
+        return configManager.getMaxTextureSize() + "|" + pngEncoder.describe() + "|" + atlasMode + "|" + writeDirectory + "|" + writeZip;
     }
 
-    private String processGlyph(GlyphDefinition glyph, File assetsDir) throws Exception {
-        // Tìm file GIF
-        File gifFile = new File(plugin.getDataFolder(), "animatedGlyph/gif/" + glyph.getFile());
-        if (!gifFile.exists()) {
-            plugin.getLogger().warning("❌ Không tìm thấy file GIF: " + gifFile.getAbsolutePath());
+    private SheetCache createSheetCache() {
+        if (!configManager.isSheetCacheEnabled()) {
             return null;
         }
+        File cacheDir = new File(dataFolder, "animatedGlyph/cache");
+        return new SheetCache(cacheDir, configManager.getSheetCacheMaxBytes(), logger);
+    }
 
+    /**
+     * {@link #processGlyph} sau một điểm dừng của ngân sách build, tính vào tiến độ khi xong (kể cả khi lỗi)
+     */
+    private GlyphResult processGlyphPaced(GlyphDefinition glyph, RebuildPlanner.Action action, GlyphResult previous,
+                                          SheetCache sheetCache, PngEncoder pngEncoder,
+                                          BuildMetrics metrics) throws Exception {
+        BuildThrottle.checkpoint();
         try {
-            // Chuyển đổi GIF thành PNG sprite sheet với frames configurable
-            BufferedImage spriteSheet = GifToPngConverter.convertGifToPngSheet(
-                    gifFile,
-                    glyph.getDuration(),
-                    glyph.getFrames()  // Sử dụng frames từ config
-            );
+            return processGlyph(glyph, action, previous, sheetCache, pngEncoder, metrics);
+        } finally {
+            BuildThrottle.current().glyphDone();
+        }
+    }
+
+    /**
+     * Chuyển đổi một glyph thành nội dung PNG của sprite sheet. Ở chế độ atlas PNG này chỉ được giữ lại
+     * (nhỏ hơn nhiều so với ảnh ARGB) và decode lại từng sheet khi ghép trang atlas.
+     * Thời gian từng giai đoạn được ghi vào số liệu build của glyph.
+     *
+     * @param pngEncoder encoder của sprite sheet (không quantize ở chế độ atlas)
+     */
+    private GlyphResult processGlyph(GlyphDefinition glyph, RebuildPlanner.Action action, GlyphResult previous,
+                                     SheetCache sheetCache, PngEncoder pngEncoder,
+                                     BuildMetrics metrics) throws Exception {
+        try (StageTimer timer = metrics.startGlyph(glyph.getName())) {
+            String pngFileName = glyph.getName() + ".png";
+            switch (action) {
+                case UNCHANGED:
+                case FONT_ONLY:
+                    // Pixel không đổi, chỉ provider trong default.json (tạo lại mỗi lần build) khác đi
+                    timer.markCached();
+                    return GlyphResult.ofPng(glyph, pngFileName, previous.png);
+                case PATCH_METADATA:
+                    // Sheet lớn đi theo đường streaming như khi chuyển đổi lại, không decode cả sheet để vá
+                    if (previous.getPixelCount() >= streamingMinPixels) {
+                        break;
+                    }
+                    try {
+                        return patchAnimationTime(glyph, previous, sheetCache, pngEncoder);
+                    } catch (IOException e) {
+                        logger.warning("Không thể vá metadata của " + glyph.getName() + ", chuyển đổi lại: " + e.getMessage());
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return processGlyph(glyph, sheetCache, pngEncoder, timer);
+        }
+    }
+
+    /**
+     * Glyph chỉ đổi duration: ghi lại pixel thời gian trên sprite sheet cũ thay vì decode lại GIF.
+     * Chỉ dùng cho sheet dưới png-streaming-min-pixels vì cả sheet được decode thành ảnh ARGB.
+     * Sheet đã vá được lưu vào cache với khóa của duration mới như khi chuyển đổi lại, để lần khởi động sau
+     * (planner trống) không phải decode lại GIF.
+     */
+    private GlyphResult patchAnimationTime(GlyphDefinition glyph, GlyphResult previous, SheetCache sheetCache,
+                                           PngEncoder pngEncoder) throws IOException {
+        StageTimer timer = StageTimer.current();
+        BufferedImage sheet;
+        timer.enter(BuildStage.SHEET_ASSEMBLY);
+        try {
+            sheet = readArgb(previous.png);
+            GifToPngConverter.writeAnimationTime(sheet, glyph.getDuration());
+        } finally {
+            timer.exit();
+        }
+
+        byte[] png = encodeTimed(pngEncoder, sheet);
+        if (sheetCache != null) {
+            sheetCache.store(computeCacheKey(sheetCache, glyph, glyph.getSource(), getGifFile(glyph), pngEncoder), png);
+        }
+        return GlyphResult.ofPng(glyph, glyph.getName() + ".png", png);
+    }
+
+    /**
+     * Khóa sheet cache của glyph với các tham số hiện tại (gồm duration)
+     */
+    private static String computeCacheKey(SheetCache sheetCache, GlyphDefinition glyph, FrameSource source, File gifFile,
+                                          PngEncoder pngEncoder) throws IOException {
+        return source != null
+                ? sheetCache.computeKey(source, glyph.getFrames(), glyph.getDuration(),
+                        glyph.getFrameSize(), glyph.getFrameError(), pngEncoder.describe())
+                : sheetCache.computeKey(gifFile, glyph.getFrames(), glyph.getDuration(),
+                        glyph.getFrameSize(), glyph.getFrameError(), pngEncoder.describe());
+    }
+
+    private static BufferedImage copyArgb(BufferedImage source) {
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+        source.getRGB(0, 0, source.getWidth(), source.getHeight(), pixels, 0, source.getWidth());
+        return copy;
+    }
 
+    private static BufferedImage readArgb(byte[] png) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        if (decoded == null) {
+            throw new IOException("không đọc được PNG");
+        }
+        // PNG có thể là ảnh palette: chuyển về ARGB với đúng giá trị pixel (không qua Graphics để alpha thấp không bị làm tròn)
+        return copyArgb(decoded);
+    }
+
+    private GlyphResult processGlyph(GlyphDefinition glyph, SheetCache sheetCache, PngEncoder pngEncoder,
+                                     StageTimer timer) throws Exception {
+        // Tìm file GIF (glyph đăng ký qua API đã có ảnh trong bộ nhớ)
+        FrameSource source = glyph.getSource();
+        File gifFile = source == null ? getGifFile(glyph) : null;
+        if (gifFile != null && !gifFile.exists()) {
+            logger.warning("❌ Không tìm thấy file GIF: " + gifFile.getAbsolutePath());
+            return null;
+        }
+
+        try {
             String pngFileName = glyph.getName() + ".png";
-            File pngFile = new File(assetsDir, "textures/gif/" + pngFileName);
-            GifToPngConverter.savePng(spriteSheet, pngFile);
 
-            // Debug thông tin chi tiết
-            int gridSize = GifToPngConverter.getGridSizeFromFrames(glyph.getFrames());
-            plugin.getLogger().info("✅ Đã tạo sprite sheet: " + pngFileName);
-            plugin.getLogger().info("   📏 Kích thước: " + spriteSheet.getWidth() + "x" + spriteSheet.getHeight());
-            plugin.getLogger().info("   🎯 Grid: " + gridSize + "x" + gridSize + " (" + glyph.getFrames() + " frames)");
-            plugin.getLogger().info("   📁 Đường dẫn: textures/gif/" + pngFileName);
+            // Dùng lại sprite sheet đã chuyển đổi nếu GIF và tham số không đổi
+            String cacheKey = null;
+            if (sheetCache != null) {
+                cacheKey = computeCacheKey(sheetCache, glyph, source, gifFile, pngEncoder);
+                byte[] cachedPng = sheetCache.read(cacheKey);
+                if (cachedPng != null) {
+                    timer.markCached();
+                    timer.addBytesRead(BuildStage.PNG_ENCODE, cachedPng.length);
+                    return GlyphResult.ofPng(glyph, pngFileName, cachedPng);
+                }
+            }
+
+            // Sheet lớn được ghi thẳng thành PNG theo từng hàng ô, không dựng cả ảnh trong bộ nhớ
+            // (chọn frame thích ứng chỉ làm sheet nhỏ đi nên số frame tối đa là đủ để quyết định)
+            SheetLayout layout = SheetLayout.of(glyph.getFrames(), glyph.getFrameSize());
+            if ((long) layout.getWidth() * layout.getHeight() >= streamingMinPixels) {
+                byte[] png = encodeStreamingTimed(glyph, source, gifFile, pngEncoder);
+                if (cacheKey != null) {
+                    sheetCache.store(cacheKey, png);
+                }
+                return GlyphResult.ofPng(glyph, pngFileName, png);
+            }
 
-            return pngFileName;
+            // Chuyển đổi GIF thành PNG sprite sheet với frames configurable
+            BufferedImage spriteSheet = source != null
+                    ? GifToPngConverter.convertToPngSheet(source, glyph.getName(), glyph.getDuration(),
+                            glyph.getFrames(), glyph.getFrameSize(), glyph.getFrameError())
+                    : GifToPngConverter.convertGifToPngSheet(
+                            gifFile,
+                            glyph.getDuration(),
+                            glyph.getFrames(),  // Sử dụng frames từ config
+                            glyph.getFrameSize(),
+                            glyph.getFrameError()
+                    );
+
+            byte[] png = encodeTimed(pngEncoder, spriteSheet);
+            if (cacheKey != null) {
+                sheetCache.store(cacheKey, png);
+            }
+
+            return GlyphResult.ofPng(glyph, pngFileName, png);
 
         } catch (Exception e) {
-            plugin.getLogger().severe("❌ Lỗi chuyển đổi GIF " + glyph.getName() + ": " + e.getMessage());
+            logger.severe("❌ Lỗi chuyển đổi GIF " + glyph.getName() + ": " + e.getMessage());
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Xếp các sprite sheet vào trang atlas và tạo provider trỏ tới ô của từng glyph.
+     * Sheet lớn hơn max-texture-size được ghi thành file PNG riêng như chế độ thường (giữ nguyên PNG của sheet).
+     */
+    private List<Map<String, Object>> packAtlas(List<GlyphResult> results, PackOutput output,
+                                                PngEncoder pngEncoder) throws Exception {
+        AtlasPacker packer = new AtlasPacker(configManager.getMaxTextureSize());
+        List<AtlasPacker.Placement> placements = new ArrayList<>(results.size());
+
+        // Sheet giống hệt nhau chỉ chiếm một ô, các glyph sau dùng chung ô (hoặc file riêng) của sheet đầu tiên
+        Map<String, Integer> firstBySheet = new HashMap<>();
+        int sharedSheets = 0;
+        long savedBytes = 0;
+
+        for (int i = 0; i < results.size(); i++) {
+            GlyphResult result = results.get(i);
+            AtlasPacker.Placement placement = null;
+            Integer first = result != null ? firstBySheet.putIfAbsent(contentHash(result.png), i) : null;
+            if (first != null) {
+                placement = placements.get(first);
+                result.pngFileName = results.get(first).pngFileName;
+                sharedSheets++;
+                savedBytes += result.getPixelCount() * 4;
+            } else if (result != null) {
+                placement = packer.add(result.width, result.height, result.png);
+                if (placement == null) {
+                    logger.warning("Sprite sheet " + result.glyph.getName() + " lớn hơn max-texture-size, ghi thành file riêng");
+                    result.pngFileName = result.glyph.getName() + ".png";
+                    writeTimed(output, TEXTURE_PATH + result.pngFileName, result.png, BuildStage.PNG_ENCODE);
+                }
+            }
+            placements.add(placement);
+        }
+        logSharedSheets(sharedSheets, savedBytes, "byte texture");
+
+        for (AtlasPacker.Page page : packer.getPages()) {
+            writeTimed(output, TEXTURE_PATH + page.getFileName(), encodeTimed(pngEncoder, page),
+                    BuildStage.PNG_ENCODE);
+            logger.info("🧩 Atlas " + page.getFileName() + ": " + page.getWidth() + "x" + page.getHeight()
+                    + " (" + page.getSheetCount() + " sheet)");
+        }
+
+        // Một provider cho mỗi (trang, ascent, height): mọi glyph cùng nhóm nằm chung một lưới ký tự,
+        // giữ vị trí provider đầu tiên của nhóm trong thứ tự glyph
+        List<Map<String, Object>> providers = new ArrayList<>();
+        Map<String, AtlasGrid> grids = new LinkedHashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            GlyphResult result = results.get(i);
+            if (result == null) {
+                continue;
+            }
+            AtlasPacker.Placement placement = placements.get(i);
+            if (placement == null) {
+                providers.add(createProvider(result.glyph, result.pngFileName));
+                continue;
+            }
+            GlyphDefinition glyph = result.glyph;
+            String groupKey = placement.getPage().getFileName() + "|" + glyph.getAscent() + "|" + glyph.getHeight();
+            AtlasGrid grid = grids.get(groupKey);
+            if (grid == null) {
+                grid = new AtlasGrid(placement.getPage(), glyph.getAscent(), glyph.getHeight());
+                grids.put(groupKey, grid);
+                providers.add(grid.provider);
+            }
+            grid.add(glyph, placement);
+        }
+        for (AtlasGrid grid : grids.values()) {
+            grid.finish(providers);
+        }
+        return providers;
+    }
+
+    /**
+     * Encode PNG, tính vào giai đoạn png của timer trên thread hiện tại
+     */
+    private static byte[] encodeTimed(PngEncoder pngEncoder, BufferedImage image) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.PNG_ENCODE);
+        try {
+            return pngEncoder.encode(image);
+        } finally {
+            timer.exit();
+        }
+    }
+
+    /**
+     * Encode trang atlas theo từng hàng ô: mỗi dải chỉ decode các sheet của hàng đó, không dựng ảnh cả trang
+     */
+    private static byte[] encodeTimed(PngEncoder pngEncoder, AtlasPacker.Page page) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.PNG_ENCODE);
+        try {
+            return pngEncoder.encode(page, page.getWidth(), page.getHeight());
+        } finally {
+            timer.exit();
+        }
+    }
+
+    /**
+     * Chuyển đổi và encode sprite sheet theo kiểu streaming. Decode và resize bên trong được tính vào
+     * giai đoạn riêng của chúng, phần còn lại vào png.
+     */
+    private static byte[] encodeStreamingTimed(GlyphDefinition glyph, FrameSource source, File gifFile,
+                                               PngEncoder pngEncoder) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.PNG_ENCODE);
+        try {
+            return source != null
+                    ? GifToPngConverter.encodeToPngSheet(source, glyph.getName(), glyph.getDuration(),
+                            glyph.getFrames(), glyph.getFrameSize(), glyph.getFrameError(), pngEncoder)
+                    : GifToPngConverter.encodeGifToPngSheet(gifFile, glyph.getDuration(),
+                            glyph.getFrames(), glyph.getFrameSize(), glyph.getFrameError(), pngEncoder);
+        } finally {
+            timer.exit();
+        }
+    }
+
+    /**
+     * Ghi file vào pack, tính thời gian và số byte vào giai đoạn cho trước
+     */
+    private static void writeTimed(PackOutput output, String path, byte[] data, BuildStage stage) throws IOException {
+        StageTimer timer = StageTimer.current();
+        timer.enter(stage);
+        try {
+            output.write(path, data);
+            timer.addBytesWritten(stage, data.length);
+        } finally {
+            timer.exit();
+        }
+    }
+
+    private void logSharedSheets(int sharedSheets, long savedBytes, String unit) {
+        if (sharedSheets > 0) {
+            logger.info("♻️ " + sharedSheets + " sprite sheet trùng lặp được dùng chung, tiết kiệm "
+                    + savedBytes + " " + unit);
+        }
+    }
+
+    /**
+     * Hash SHA-256 của nội dung PNG, dùng để nhận ra các sheet giống hệt nhau
+     */
+    private static String contentHash(byte[] png) {
+        MessageDigest digest = newDigest();
+        digest.update(png);
+        return Hex.toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+
+    /**
+     * Lưới ký tự của một nhóm glyph trên cùng trang atlas với cùng ascent và height.
+     * Mỗi ô của trang nhận ký tự của glyph nằm ở đó, ô trống là U+0000 (bỏ qua). Glyph có nhiều ký tự (hoặc nhiều glyph
+     * dùng chung một sheet) cần thêm lưới phụ cho các ký tự trùng ô; mỗi lưới phụ thành thêm một provider
+     * trỏ vào cùng trang, nên thông thường cả trang chỉ được client nạp một lần.
+     */
+    private static final class AtlasGrid {
+        private final AtlasPacker.Page page;
+        private final Map<String, Object> provider = new HashMap<>();
+        // Lưới chính và các lưới phụ: codepoint theo từng ô (0 = trống)
+        private final List<int[]> layers = new ArrayList<>();
+
+        private AtlasGrid(AtlasPacker.Page page, int ascent, int height) {
+            this.page = page;
+            provider.put("type", "bitmap");
+            provider.put("file", "minecraft:gif/" + page.getFileName());
+            provider.put("ascent", ascent);
+            provider.put("height", height);
+            layers.add(new int[page.getRows() * page.getColumns()]);
+        }
+
+        private void add(GlyphDefinition glyph, AtlasPacker.Placement placement) {
+            int cell = placement.getRow() * page.getColumns() + placement.getColumn();
+            for (String chars : glyph.getChars()) {
+                int offset = 0;
+                while (offset < chars.length()) {
+                    int codePoint = chars.codePointAt(offset);
+                    offset += Character.charCount(codePoint);
+                    layerWithFreeCell(cell)[cell] = codePoint;
+                }
+            }
+        }
+
+        private int[] layerWithFreeCell(int cell) {
+            for (int[] layer : layers) {
+                if (layer[cell] == 0) {
+                    return layer;
+                }
+            }
+            int[] layer = new int[page.getRows() * page.getColumns()];
+            layers.add(layer);
+            return layer;
+        }
+
+        /**
+         * Ghi lưới chính vào provider của nhóm, các lưới phụ thành provider mới ở cuối danh sách
+         */
+        private void finish(List<Map<String, Object>> providers) {
+            provider.put("chars", toRows(layers.get(0)));
+            for (int i = 1; i < layers.size(); i++) {
+                Map<String, Object> extra = new HashMap<>(provider);
+                extra.put("chars", toRows(layers.get(i)));
+                providers.add(extra);
+            }
+        }
+
+        private List<String> toRows(int[] layer) {
+            List<String> rows = new ArrayList<>(page.getRows());
+            for (int row = 0; row < page.getRows(); row++) {
+                StringBuilder line = new StringBuilder();
+                for (int column = 0; column < page.getColumns(); column++) {
+                    // Ô trống giữ giá trị 0, tức U+0000
+                    line.appendCodePoint(layer[row * page.getColumns() + column]);
+                }
+                rows.add(line.toString());
+            }
+            return rows;
+        }
+    }
+
     private Map<String, Object> createProvider(GlyphDefinition glyph, String pngFileName) {
         Map<String, Object> provider = new HashMap<>();
         provider.put("type", "bitmap");
@@ -117,42 +866,41 @@ public class ResourcePackBuilder {
     /**
      * Tạo file default.json duy nhất chứa tất cả providers
      */
-    private void createDefaultFontJson(List<Map<String, Object>> providers, File fontDir) throws Exception {
-        Map<String, Object> fontData = new HashMap<>();
-        fontData.put("providers", providers);
+    private void createDefaultFontJson(List<Map<String, Object>> providers, PackOutput output) throws Exception {
+        StageTimer timer = StageTimer.current();
+        timer.enter(BuildStage.JSON_WRITE);
+        try {
+            Map<String, Object> fontData = new HashMap<>();
+            fontData.put("providers", providers);
 
-        File defaultFontFile = new File(fontDir, "default.json");
-        try (FileWriter writer = new FileWriter(defaultFontFile)) {
-            gson.toJson(fontData, writer);
+            writeTimed(output, "assets/minecraft/font/default.json",
+                    gson.toJson(fontData).getBytes(StandardCharsets.UTF_8), BuildStage.JSON_WRITE);
+        } finally {
+            timer.exit();
         }
-
-        plugin.getLogger().info("Đã tạo default.json với " + providers.size() + " providers");
     }
 
-    private void createPackMcmeta(File buildDir) throws Exception {
+    private void createPackMcmeta(PackOutput output) throws Exception {
         Map<String, Object> packData = new HashMap<>();
         Map<String, Object> pack = new HashMap<>();
         pack.put("pack_format", 46);
         pack.put("description", "Animated Gif resourcepack");
         packData.put("pack", pack);
 
-        File packFile = new File(buildDir, "pack.mcmeta");
-        try (FileWriter writer = new FileWriter(packFile)) {
-            gson.toJson(packData, writer);
-        }
+        writeTimed(output, "pack.mcmeta", gson.toJson(packData).getBytes(StandardCharsets.UTF_8), BuildStage.JSON_WRITE);
     }
 
     // ... (Các phương thức copyShaderFiles, deleteDirectory giữ nguyên như trước)
 
-    private void copyShaderFiles(File shaderDir) throws Exception {
-        copyShaderFile(shaderDir, "rendertype_text.fsh", getFragmentShaderContent());
-        copyShaderFile(shaderDir, "rendertype_text.vsh", getVertexShaderContent());
-        copyShaderFile(shaderDir, "rendertype_text.json", getShaderJsonContent());
+    private void copyShaderFiles(PackOutput output) throws Exception {
+        copyShaderFile(output, "rendertype_text.fsh", getFragmentShaderContent());
+        copyShaderFile(output, "rendertype_text.vsh", getVertexShaderContent());
+        copyShaderFile(output, "rendertype_text.json", getShaderJsonContent());
     }
 
-    private void copyShaderFile(File shaderDir, String fileName, String content) throws Exception {
-        File shaderFile = new File(shaderDir, fileName);
-        Files.write(shaderFile.toPath(), content.getBytes());
+    private void copyShaderFile(PackOutput output, String fileName, String content) throws Exception {
+        writeTimed(output, "assets/minecraft/shaders/core/" + fileName, content.getBytes(StandardCharsets.UTF_8),
+                BuildStage.SHADER_COPY);
     }
 
     private String getFragmentShaderContent() {
@@ -201,31 +949,41 @@ public class ResourcePackBuilder {
                 "bool validateProperty2(vec4 data) {\n" +
                 "    return ivec2(round(data.zw * 255.0)) == ivec2(75, 1);\n" +
                 "}\n\n" +
-                "bool decodeProperties0(in ivec2 coord, out ivec2 dim, out int frame_dim,\n" +
+                "int readUint16(vec4 data) {\n" +
+                "    ivec2 bytes = ivec2(round(data.xy * 255.0));\n" +
+                "    return bytes.x * 256 + bytes.y;\n" +
+                "}\n\n" +
+                "bool readProperty16(ivec2 coord, out int value) {\n" +
+                "    vec4 data = texelFetch(Sampler0, coord, 0);\n" +
+                "    value = readUint16(data);\n" +
+                "    return validateProperty2(data);\n" +
+                "}\n\n" +
+                "bool decodeProperties0(in ivec2 coord, out ivec2 dim, out ivec2 frame_dim,\n" +
                 "                       out int nframes, out float time) {\n" +
                 "    vec4 magic = texelFetch(Sampler0, coord, 0);\n" +
                 "    if (ivec4(round(magic * 255.0)) != ivec4(149, 213, 75, 1)) {\n" +
                 "        return false;\n" +
                 "    }\n\n" +
-                "    vec4 dim_in = texelFetch(Sampler0, coord + ivec2(1, 0), 0);\n" +
-                "    if (!validateProperty2(dim_in)) {\n" +
+                "    if (!readProperty16(coord + ivec2(1, 0), dim.x) || !readProperty16(coord + ivec2(2, 0), dim.y)) {\n" +
+                "        return false;\n" +
+                "    }\n\n" +
+                "    if (!readProperty16(coord + ivec2(3, 0), frame_dim.x) || !readProperty16(coord + ivec2(4, 0), frame_dim.y)\n" +
+                "            || !readProperty16(coord + ivec2(5, 0), nframes)) {\n" +
                 "        return false;\n" +
                 "    }\n\n" +
-                "    dim = ivec2(round(dim_in.xy * 255.0));\n\n" +
-                "    vec4 frame_data = texelFetch(Sampler0, coord + ivec2(2, 0), 0);\n" +
-                "    if (!validateProperty2(frame_data)) {\n" +
+                "    if (frame_dim.x <= 0 || frame_dim.y <= 0 || nframes <= 0) {\n" +
                 "        return false;\n" +
                 "    }\n\n" +
-                "    frame_dim = int(round(frame_data.x * 255.0));\n" +
-                "    nframes = int(round(frame_data.y * 255.0));\n\n" +
-                "    vec4 packed_time = texelFetch(Sampler0, coord + ivec2(3, 0), 0);\n" +
+                "    vec4 packed_time = texelFetch(Sampler0, coord + ivec2(6, 0), 0);\n" +
                 "    if (!validateProperty2(packed_time)) {\n" +
                 "        return false;\n" +
                 "    }\n\n" +
                 "    time = packed_time.x * 255.0 + packed_time.y;\n" +
                 "    return true;\n" +
                 "}\n\n" +
-                "bool decodeProperties(in vec2 uv, out ivec2 dim, out int frame_dim, out int nframes,\n" +
+                // Các góc khác của sprite sheet chứa marker: tag 76 = lùi theo trục x, tag 77 = lùi theo trục y
+                // (góc dưới phải -> góc trên phải -> gốc). Giữ source GLSL chỉ gồm ký tự ASCII.
+                "bool decodeProperties(in vec2 uv, out ivec2 dim, out ivec2 frame_dim, out int nframes,\n" +
                 "                      out float time, out ivec2 size, out vec2 origin) {\n" +
                 "    vec2 texSize = vec2(textureSize(Sampler0, 0));\n" +
                 "    size = ivec2(texSize);\n\n" +
@@ -234,20 +992,33 @@ public class ResourcePackBuilder {
                 "        origin = uv;\n" +
                 "        return true;\n" +
                 "    }\n\n" +
-                "    vec4 uv_offset = texelFetch(Sampler0, coord, 0);\n" +
-                "    if (!validateProperty2(uv_offset)) {\n" +
-                "        return false;\n" +
-                "    }\n\n" +
-                "    ivec2 pointing = coord - ivec2(round(uv_offset.xy * 255.0));\n" +
-                "    origin = vec2(pointing) / texSize;\n\n" +
-                "    return decodeProperties0(pointing, dim, frame_dim, nframes, time);\n" +
+                "    ivec2 pointing = coord;\n" +
+                "    for (int hop = 0; hop < 2; hop++) {\n" +
+                "        vec4 marker = texelFetch(Sampler0, pointing, 0);\n" +
+                "        ivec2 tag = ivec2(round(marker.zw * 255.0));\n" +
+                "        if (tag == ivec2(76, 1)) {\n" +
+                "            pointing.x -= readUint16(marker);\n" +
+                "        } else if (tag == ivec2(77, 1)) {\n" +
+                "            pointing.y -= readUint16(marker);\n" +
+                "        } else {\n" +
+                "            return false;\n" +
+                "        }\n" +
+                "        if (pointing.x < 0 || pointing.y < 0) {\n" +
+                "            return false;\n" +
+                "        }\n" +
+                "        if (decodeProperties0(pointing, dim, frame_dim, nframes, time)) {\n" +
+                "            origin = vec2(pointing) / texSize;\n" +
+                "            return true;\n" +
+                "        }\n" +
+                "    }\n" +
+                "    return false;\n" +
                 "}\n\n" +
                 "void main() {\n" +
                 "    gl_Position = ProjMat * ModelViewMat * vec4(Position, 1.0);\n\n" +
                 "    isAnimated = 0.0;\n" +
                 "    vec2 uv = UV0;\n\n" +
                 "    ivec2 dim;\n" +
-                "    int frame_dim;\n" +
+                "    ivec2 frame_dim;\n" +
                 "    int nframes;\n" +
                 "    float loop_time;\n" +
                 "    ivec2 size;\n" +
@@ -255,11 +1026,11 @@ public class ResourcePackBuilder {
                 "    if (decodeProperties(UV0, dim, frame_dim, nframes, loop_time, size, origin)) {\n" +
                 "        isAnimated = 1.0;\n" +
                 "        float time = fract(GameTime * 1200.0 / loop_time);\n" +
-                "        int frame = int(time * nframes);\n" +
-                "        int uframes = (dim.x - 2) / frame_dim;\n" +
+                "        int frame = min(int(time * nframes), nframes - 1);\n" +
+                "        int uframes = (dim.x - 2) / frame_dim.x;\n" +
                 "        int u = frame % uframes;\n" +
                 "        int v = frame / uframes;\n" +
-                "        uv = vec2((uv.x - origin.x) / float(dim.x) * float(frame_dim) + origin.x, (uv.y - origin.y) / float(dim.y) * float(frame_dim) + origin.y);\n" +
+                "        uv = (uv - origin) / vec2(dim) * vec2(frame_dim) + origin;\n" +
                 "        uv += (vec2(u, v) * vec2(frame_dim) + 1.0) / vec2(size);\n" +
                 "    }\n\n" +
                 "    vertexDistance = fog_distance(Position, FogShape);\n" +
@@ -296,6 +1067,91 @@ public class ResourcePackBuilder {
                 "}";
     }
 
+    /**
+     * Kết quả xử lý một glyph: nội dung PNG của sprite sheet, ghi thành file riêng hoặc xếp vào atlas
+     */
+    private static class GlyphResult {
+        private final GlyphDefinition glyph;
+        private String pngFileName;
+        private final byte[] png;
+        private final int width;
+        private final int height;
+
+        private GlyphResult(GlyphDefinition glyph, String pngFileName, byte[] png, int width, int height) {
+            this.glyph = glyph;
+            this.pngFileName = pngFileName;
+            this.png = png;
+            this.width = width;
+            this.height = height;
+        }
+
+        static GlyphResult ofPng(GlyphDefinition glyph, String pngFileName, byte[] png) throws IOException {
+            Dimension size = PngEncoder.readSize(png);
+            return new GlyphResult(glyph, pngFileName, png, size.width, size.height);
+        }
+
+        long getPixelCount() {
+            return (long) width * height;
+        }
+
+        /**
+         * Kết quả dùng chung sprite sheet này cho một glyph khác
+         */
+        GlyphResult forGlyph(GlyphDefinition other) {
+            return new GlyphResult(other, pngFileName, png, width, height);
+        }
+    }
+
+    /**
+     * Ghi cùng lúc ra nhiều PackOutput (ví dụ thư mục và zip)
+     */
+    private static class TeePackOutput implements PackOutput {
+        private final List<PackOutput> outputs;
+
+        private TeePackOutput(List<PackOutput> outputs) {
+            this.outputs = outputs;
+        }
+
+        @Override
+        public void write(String path, byte[] data) throws IOException {
+            // Nén zip và ghi file cũng nằm trong ngân sách CPU của build
+            BuildThrottle.checkpoint();
+            for (PackOutput output : outputs) {
+                output.write(path, data);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (PackOutput output : outputs) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * Thread daemon có tên dễ nhận biết cho pool build, chạy với ngân sách CPU của lần build
+     */
+    private static class BuildThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final BuildThrottle throttle;
+
+        BuildThreadFactory(BuildThrottle throttle) {
+            this.throttle = throttle;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                try (BuildThrottle.Scope scope = throttle.enter()) {
+                    runnable.run();
+                }
+            }, "AnimatedGlyph-Build-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     private void deleteDirectory(File directory) {
         File[] files = directory.listFiles();
         if (files != null) {
@@ -0,0 +1,75 @@
+package org.animatedglyphplugin.resourcepack;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Ghi resourcepack thẳng vào file zip, tính SHA-1 ngay trong lúc ghi.
+ * PNG đã được nén sẵn nên lưu dạng STORED, JSON và shader nén DEFLATED.
+ */
+public class ZipPackOutput implements PackOutput {
+
+    // Thời gian cố định cho mọi entry để cùng nội dung luôn cho cùng hash
+    private static final long ENTRY_TIME = 315532800000L; // 1980-01-01T00:00:00Z
+
+    private final MessageDigest digest;
+    private final ZipOutputStream zip;
+    private byte[] sha1;
+
+    public ZipPackOutput(File zipFile) throws IOException {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 không khả dụng", e);
+        }
+        if (zipFile.getParentFile() != null && !zipFile.getParentFile().exists()) {
+            zipFile.getParentFile().mkdirs();
+        }
+        this.zip = new ZipOutputStream(new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(zipFile), 64 * 1024), digest));
+    }
+
+    @Override
+    public void write(String path, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setTime(ENTRY_TIME);
+
+        if (path.endsWith(".png")) {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+        }
+
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sha1 == null) {
+            zip.close();
+            sha1 = digest.digest();
+        }
+    }
+
+    /**
+     * SHA-1 của file zip, chỉ có sau khi đã close()
+     */
+    public byte[] getSha1() {
+        return sha1 == null ? null : sha1.clone();
+    }
+}
@@ -0,0 +1,184 @@
+package org.animatedglyphplugin.scheduler;
+
+import org.animatedglyphplugin.config.ConfigManager;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Locale;
+
+/**
+ * Chạy build trên server đang hoạt động trong ngân sách CPU (build-budget) để không kéo tụt TPS:
+ * tạo {@link BuildThrottle} theo config cho từng lần build, theo dõi thời gian tick trung bình (MSPT) trên
+ * main thread để tạm dừng build khi server chậm và chạy tiếp khi đã hồi phục, đồng thời báo tiến độ và
+ * thời gian còn lại cho người gõ lệnh.
+ * <p>
+ * Các lần build không chạy chồng lên nhau nên mỗi lúc chỉ có một lần build được theo dõi.
+ */
+public final class BuildScheduler {
+
+    // Nửa giây: getAverageTickTime() là trung bình 100 tick nên kiểm tra dày hơn không giúp gì
+    private static final long MONITOR_PERIOD_TICKS = 10;
+
+    private final JavaPlugin plugin;
+    private final ConfigManager configManager;
+    private Monitor active;
+
+    public BuildScheduler(JavaPlugin plugin, ConfigManager configManager) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+    }
+
+    /**
+     * Bắt đầu một lần build theo config hiện tại (gọi sau khi đã reload config)
+     *
+     * @param sender nhận tiến độ build, null nếu build tự động (chỉ ghi log khi tạm dừng / chạy tiếp)
+     * @return throttle truyền cho ResourcePackBuilder, phải được trả lại qua {@link #end(BuildThrottle)}
+     */
+    public synchronized BuildThrottle begin(CommandSender sender) {
+        cancelActive();
+        boolean budgeted = configManager.isBuildBudgetEnabled();
+        BuildThrottle throttle = budgeted
+                ? new BuildThrottle(configManager.getBudgetMaxWorkers(), configManager.getBudgetThreadPriority(),
+                        configManager.getBudgetCpuMillisPerSecond())
+                : new BuildThrottle(0, Thread.NORM_PRIORITY, 0);
+        Monitor monitor = new Monitor(throttle, sender,
+                budgeted ? configManager.getBudgetPauseAboveMspt() : 0,
+                configManager.getBudgetResumeBelowMspt(),
+                configManager.getBudgetMaxPauseMillis(),
+                configManager.getBuildProgressIntervalMillis());
+        monitor.task = plugin.getServer().getScheduler().runTaskTimer(plugin, monitor, MONITOR_PERIOD_TICKS, MONITOR_PERIOD_TICKS);
+        active = monitor;
+        return throttle;
+    }
+
+    /**
+     * Kết thúc lần build: ngừng theo dõi và ghi lại thời gian build đã phải chờ (nếu có)
+     */
+    public synchronized void end(BuildThrottle throttle) {
+        throttle.finish();
+        if (active == null || active.throttle != throttle) {
+            return;
+        }
+        cancelActive();
+        long throttled = throttle.getThrottledMillis();
+        long paused = throttle.getPausedMillis();
+        if (throttled > 0 || paused > 0) {
+            plugin.getLogger().info("⏱️ Build mất " + formatSeconds(throttle.getElapsedMillis())
+                    + ", chờ ngân sách CPU " + formatSeconds(throttled)
+                    + ", tạm dừng vì server chậm " + formatSeconds(paused));
+        }
+    }
+
+    /**
+     * Plugin tắt: thả các thread build đang tạm dừng
+     */
+    public synchronized void shutdown() {
+        if (active != null) {
+            active.throttle.finish();
+        }
+        cancelActive();
+    }
+
+    private void cancelActive() {
+        if (active != null) {
+            active.task.cancel();
+            active = null;
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format(Locale.ROOT, "%.1f giây", millis / 1000.0);
+    }
+
+    /**
+     * Task lặp trên main thread: so MSPT với ngưỡng và báo tiến độ theo chu kỳ
+     */
+    private final class Monitor implements Runnable {
+        private final BuildThrottle throttle;
+        private final CommandSender sender;
+        private final double pauseAboveMspt;
+        private final double resumeBelowMspt;
+        private final long maxPauseMillis;
+        private final long progressIntervalMillis;
+        private BukkitTask task;
+        private long lastReport = System.currentTimeMillis();
+        // Đã chạy tiếp sau khi tạm dừng quá lâu: không tạm dừng lại tới khi MSPT xuống dưới ngưỡng chạy tiếp
+        private boolean overridden;
+
+        private Monitor(BuildThrottle throttle, CommandSender sender, double pauseAboveMspt, double resumeBelowMspt,
+                        long maxPauseMillis, long progressIntervalMillis) {
+            this.throttle = throttle;
+            this.sender = sender;
+            this.pauseAboveMspt = pauseAboveMspt;
+            this.resumeBelowMspt = resumeBelowMspt;
+            this.maxPauseMillis = maxPauseMillis;
+            this.progressIntervalMillis = progressIntervalMillis;
+        }
+
+        @Override
+        public void run() {
+            double mspt = plugin.getServer().getAverageTickTime();
+            if (pauseAboveMspt > 0) {
+                updatePause(mspt);
+            }
+
+            long now = System.currentTimeMillis();
+            if (sender != null && now - lastReport >= progressIntervalMillis) {
+                lastReport = now;
+                sender.sendMessage("§7[AnimatedGlyph] " + describeProgress(mspt));
+            }
+        }
+
+        private void updatePause(double mspt) {
+            if (!throttle.isPaused()) {
+                if (mspt < resumeBelowMspt) {
+                    overridden = false;
+                } else if (mspt > pauseAboveMspt && !overridden) {
+                    throttle.setPaused(true);
+                    announce("§e", "⏸️ Tạm dừng build: MSPT " + formatMspt(mspt) + " > " + formatMspt(pauseAboveMspt));
+                }
+            } else if (mspt < resumeBelowMspt) {
+                throttle.setPaused(false);
+                announce("§a", "▶️ Tiếp tục build: MSPT " + formatMspt(mspt));
+            } else if (maxPauseMillis > 0 && throttle.getCurrentPauseMillis() >= maxPauseMillis) {
+                throttle.setPaused(false);
+                overridden = true;
+                announce("§e", "▶️ Tiếp tục build sau " + formatSeconds(maxPauseMillis) + " tạm dừng dù MSPT vẫn là "
+                        + formatMspt(mspt));
+            }
+        }
+
+        private void announce(String color, String message) {
+            plugin.getLogger().info(message);
+            if (sender != null) {
+                sender.sendMessage(color + "[AnimatedGlyph] " + message);
+            }
+        }
+
+        private String describeProgress(double mspt) {
+            int total = throttle.getTotalGlyphs();
+            int done = throttle.getDoneGlyphs();
+            StringBuilder line = new StringBuilder("⏳ ");
+            if (total == 0) {
+                line.append("Đang chuẩn bị build");
+            } else if (done >= total) {
+                line.append("Đã xử lý ").append(total).append(" glyph, đang đóng gói resourcepack");
+            } else {
+                line.append(done).append('/').append(total).append(" glyph (").append(done * 100 / total).append("%)");
+                long eta = throttle.getEtaMillis();
+                if (eta >= 0) {
+                    line.append(", còn khoảng ").append(formatSeconds(eta));
+                }
+            }
+            if (throttle.isPaused()) {
+                line.append(" - đang tạm dừng (MSPT ").append(formatMspt(mspt)).append(')');
+            }
+            return line.toString();
+        }
+    }
+
+    private static String formatMspt(double mspt) {
+        return String.format(Locale.ROOT, "%.1f ms", mspt);
+    }
+}
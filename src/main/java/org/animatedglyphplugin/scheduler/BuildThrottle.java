@@ -0,0 +1,269 @@
+package org.animatedglyphplugin.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ngân sách CPU và tiến độ của một lần build: số thread tối đa, độ ưu tiên thread, thời gian CPU được dùng
+ * mỗi giây (chung cho mọi thread build) và trạng thái tạm dừng khi server chậm.
+ * <p>
+ * Code build gọi {@link #checkpoint()} ở các điểm dừng an toàn (mỗi frame, mỗi glyph, mỗi file ghi ra pack).
+ * Tại đó thời gian CPU thread đã dùng từ điểm dừng trước được trừ vào ngân sách (token bucket chứa tối đa
+ * một giây); hết ngân sách thì thread ngủ cho tới khi đủ lại, đang tạm dừng thì chờ tới khi được chạy tiếp.
+ * Throttle được gắn với thread qua {@link #enter()}; thread không gắn throttle nào thì {@link #checkpoint()}
+ * không làm gì, nên build ngoài server và benchmark không bị ảnh hưởng.
+ */
+public final class BuildThrottle {
+
+    /**
+     * Không giới hạn, dùng cho build lúc khởi động và build ngoài server
+     */
+    public static final BuildThrottle UNLIMITED = new BuildThrottle(0, Thread.NORM_PRIORITY, 0);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxWorkers;
+    private final int threadPriority;
+    private final long quotaNanos;
+    private final long startNanos = System.nanoTime();
+
+    // Token bucket (khóa bằng this): thời gian CPU còn được dùng, âm khi các thread đã dùng quá
+    private double credit;
+    private long lastRefill = startNanos;
+    // Trạng thái tạm dừng (khóa bằng this)
+    private boolean paused;
+    private boolean finished;
+    private long pausedSince;
+    private long pausedNanos;
+
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private volatile int totalGlyphs;
+    private final AtomicInteger doneGlyphs = new AtomicInteger();
+
+    /**
+     * @param maxWorkers         số thread build tối đa (0 = không giới hạn)
+     * @param threadPriority     độ ưu tiên Java của thread build
+     * @param cpuMillisPerSecond thời gian CPU mọi thread build được dùng chung mỗi giây (0 = không giới hạn)
+     */
+    public BuildThrottle(int maxWorkers, int threadPriority, long cpuMillisPerSecond) {
+        this.maxWorkers = Math.max(0, maxWorkers);
+        this.threadPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, threadPriority));
+        this.quotaNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cpuMillisPerSecond));
+        this.credit = quotaNanos;
+    }
+
+    /**
+     * Throttle gắn với thread hiện tại, hoặc {@link #UNLIMITED}
+     */
+    public static BuildThrottle current() {
+        Scope scope = CURRENT.get();
+        return scope != null ? scope.throttle : UNLIMITED;
+    }
+
+    /**
+     * Điểm dừng của thread hiện tại: trừ thời gian CPU đã dùng vào ngân sách, ngủ nếu đã dùng quá
+     * và chờ nếu build đang tạm dừng
+     */
+    public static void checkpoint() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.throttle.pace(scope);
+        }
+    }
+
+    /**
+     * Gắn throttle vào thread hiện tại (và hạ độ ưu tiên thread) cho tới khi {@link Scope#close()}
+     */
+    public Scope enter() {
+        Scope scope = new Scope(this, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * Số thread build được dùng khi config cho phép threads thread
+     */
+    public int workersFor(int threads) {
+        return maxWorkers > 0 ? Math.min(threads, maxWorkers) : threads;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * Bắt đầu đếm tiến độ cho số glyph cần xử lý
+     */
+    public void startGlyphs(int glyphs) {
+        doneGlyphs.set(0);
+        totalGlyphs = glyphs;
+    }
+
+    public void glyphDone() {
+        doneGlyphs.incrementAndGet();
+    }
+
+    public int getTotalGlyphs() {
+        return totalGlyphs;
+    }
+
+    public int getDoneGlyphs() {
+        return doneGlyphs.get();
+    }
+
+    /**
+     * Thời gian còn lại ước tính theo tốc độ xử lý glyph tới giờ (không tính lúc tạm dừng), -1 nếu chưa ước tính được
+     */
+    public long getEtaMillis() {
+        int done = doneGlyphs.get();
+        int total = totalGlyphs;
+        if (done <= 0 || total <= 0) {
+            return -1;
+        }
+        long active = System.nanoTime() - startNanos - getPausedNanos();
+        return TimeUnit.NANOSECONDS.toMillis((long) ((double) active / done * Math.max(0, total - done)));
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Tổng thời gian các thread build đã ngủ vì hết ngân sách CPU
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+
+    /**
+     * Tổng thời gian build bị tạm dừng, kể cả lần đang tạm dừng
+     */
+    public long getPausedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(getPausedNanos());
+    }
+
+    /**
+     * Thời gian của lần tạm dừng hiện tại (0 nếu đang chạy)
+     */
+    public synchronized long getCurrentPauseMillis() {
+        return paused ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pausedSince) : 0;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Tạm dừng hoặc cho chạy tiếp các thread build tại điểm dừng kế tiếp
+     */
+    public synchronized void setPaused(boolean pause) {
+        if (finished || pause == paused) {
+            return;
+        }
+        paused = pause;
+        if (pause) {
+            pausedSince = System.nanoTime();
+        } else {
+            pausedNanos += System.nanoTime() - pausedSince;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Build đã kết thúc hoặc plugin tắt: không tạm dừng nữa và thả các thread đang chờ
+     */
+    public synchronized void finish() {
+        setPaused(false);
+        finished = true;
+    }
+
+    private synchronized long getPausedNanos() {
+        return pausedNanos + (paused ? System.nanoTime() - pausedSince : 0);
+    }
+
+    private void pace(Scope scope) {
+        long now = scope.clock();
+        long used = now - scope.lastClock;
+        scope.lastClock = now;
+
+        long sleepNanos = charge(used);
+        try {
+            if (sleepNanos > 0) {
+                throttledNanos.addAndGet(sleepNanos);
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            awaitResume();
+        } catch (InterruptedException e) {
+            // Build bị hủy: giữ cờ interrupt để code build dừng lại
+            Thread.currentThread().interrupt();
+        }
+        // Thời gian ngủ / chờ không tính vào ngân sách (khi đo bằng wall time)
+        scope.lastClock = scope.clock();
+    }
+
+    /**
+     * Trừ thời gian CPU vào ngân sách
+     *
+     * @return thời gian cần ngủ để ngân sách về lại 0
+     */
+    private synchronized long charge(long usedNanos) {
+        if (quotaNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long elapsed = Math.min(now - lastRefill, SECOND_NANOS);
+        lastRefill = now;
+        credit = Math.min(quotaNanos, credit + (double) elapsed * quotaNanos / SECOND_NANOS) - usedNanos;
+        return credit < 0 ? (long) (-credit * SECOND_NANOS / quotaNanos) : 0;
+    }
+
+    private synchronized void awaitResume() throws InterruptedException {
+        while (paused && !finished) {
+            wait();
+        }
+    }
+
+    /**
+     * Throttle gắn với một thread, trả lại throttle trước đó và độ ưu tiên cũ khi đóng
+     */
+    public static final class Scope implements AutoCloseable {
+        private final BuildThrottle throttle;
+        private final Scope previous;
+        private final int previousPriority;
+        private long lastClock;
+
+        private Scope(BuildThrottle throttle, Scope previous) {
+            this.throttle = throttle;
+            this.previous = previous;
+            Thread thread = Thread.currentThread();
+            this.previousPriority = thread.getPriority();
+            if (throttle.threadPriority < previousPriority) {
+                thread.setPriority(throttle.threadPriority);
+            }
+            this.lastClock = clock();
+        }
+
+        /**
+         * Thời gian CPU của thread, hoặc wall time nếu JVM không đo được
+         */
+        private long clock() {
+            return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            Thread.currentThread().setPriority(previousPriority);
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+}
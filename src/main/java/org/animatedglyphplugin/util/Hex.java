@@ -0,0 +1,21 @@
+package org.animatedglyphplugin.util;
+
+/**
+ * Chuyển hash sang chuỗi hex chữ thường, dùng chung cho key cache, hash nội dung sheet và SHA-1 của pack
+ */
+public final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
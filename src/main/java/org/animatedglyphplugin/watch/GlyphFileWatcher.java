@@ -0,0 +1,213 @@
+package org.animatedglyphplugin.watch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Theo dõi thư mục gif/, glyph/ và file config.yml bằng WatchService trên một thread riêng.
+ * Các sự kiện đến liên tiếp được gom lại cho tới khi thư mục yên lặng trong khoảng debounce,
+ * sau đó cả nhóm thay đổi được gửi cho listener (vẫn trên thread của watcher).
+ */
+public class GlyphFileWatcher {
+
+    private static final String CONFIG_FILE = "config.yml";
+    // Sự kiện đến liên tục vẫn phải được xử lý sau tối đa chừng này lần debounce
+    private static final int MAX_DEBOUNCE_ROUNDS = 10;
+
+    /**
+     * Nhận nhóm thay đổi đã debounce
+     */
+    public interface Listener {
+        /**
+         * @return false nếu chưa xử lý được (ví dụ đang có reload khác), watcher sẽ giữ lại và gửi lại sau
+         */
+        boolean onChanges(ChangeSet changes);
+    }
+
+    /**
+     * Các file đã thay đổi trong một nhóm sự kiện
+     */
+    public static final class ChangeSet {
+        private final Set<String> gifFiles = new TreeSet<>();
+        private final Set<String> glyphFiles = new TreeSet<>();
+        private boolean configChanged;
+
+        /**
+         * Tên file (trong gif/) được tạo, sửa hoặc xóa
+         */
+        public Set<String> getGifFiles() {
+            return Collections.unmodifiableSet(gifFiles);
+        }
+
+        /**
+         * Tên file .yml (trong glyph/) được tạo, sửa hoặc xóa
+         */
+        public Set<String> getGlyphFiles() {
+            return Collections.unmodifiableSet(glyphFiles);
+        }
+
+        /**
+         * config.yml thay đổi hoặc sự kiện bị tràn (không biết chính xác file nào), cần build lại toàn bộ
+         */
+        public boolean isConfigChanged() {
+            return configChanged;
+        }
+
+        private boolean isEmpty() {
+            return gifFiles.isEmpty() && glyphFiles.isEmpty() && !configChanged;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (!gifFiles.isEmpty()) {
+                text.append(gifFiles.size()).append(" GIF ").append(gifFiles);
+            }
+            if (!glyphFiles.isEmpty()) {
+                text.append(text.length() > 0 ? ", " : "").append(glyphFiles.size()).append(" glyph ").append(glyphFiles);
+            }
+            if (configChanged) {
+                text.append(text.length() > 0 ? ", " : "").append(CONFIG_FILE);
+            }
+            return text.toString();
+        }
+    }
+
+    private final Path rootDir;
+    private final Path gifDir;
+    private final Path glyphDir;
+    private final long debounceMillis;
+    private final Listener listener;
+    private final Logger logger;
+
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param dataFolder thư mục dữ liệu chứa animatedGlyph/
+     */
+    public GlyphFileWatcher(File dataFolder, long debounceMillis, Listener listener, Logger logger) {
+        File root = new File(dataFolder, "animatedGlyph");
+        this.rootDir = root.toPath().toAbsolutePath();
+        this.gifDir = new File(root, "gif").toPath().toAbsolutePath();
+        this.glyphDir = new File(root, "glyph").toPath().toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+        this.logger = logger;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public void start() throws IOException {
+        gifDir.toFile().mkdirs();
+        glyphDir.toFile().mkdirs();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path dir : new Path[]{rootDir, gifDir, glyphDir}) {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        running = true;
+        thread = new Thread(this::run, "AnimatedGlyph-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("👀 Đang theo dõi thay đổi trong " + gifDir + " và " + glyphDir + " (debounce " + debounceMillis + " ms)");
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Lỗi khi đóng WatchService", e);
+        }
+        // stop() có thể được gọi từ chính listener khi config tắt watcher
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+        watchService = null;
+    }
+
+    private void run() {
+        ChangeSet pending = new ChangeSet();
+        int quietRounds = 0;
+        try {
+            while (running) {
+                // Chưa có thay đổi: chờ sự kiện đầu tiên. Đã có: chờ thêm tối đa một khoảng debounce.
+                WatchKey key = pending.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    collect(key, pending);
+                    if (pending.isEmpty() || ++quietRounds < MAX_DEBOUNCE_ROUNDS) {
+                        continue;
+                    }
+                }
+
+                if (!pending.isEmpty() && running && listener.onChanges(pending)) {
+                    pending = new ChangeSet();
+                }
+                quietRounds = 0;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher bị dừng
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Watcher dừng vì lỗi", e);
+        }
+    }
+
+    private void collect(WatchKey key, ChangeSet changes) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.configChanged = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (dir.equals(gifDir)) {
+                changes.gifFiles.add(name);
+            } else if (dir.equals(glyphDir)) {
+                if (name.endsWith(".yml")) {
+                    changes.glyphFiles.add(name);
+                }
+            } else if (dir.equals(rootDir) && name.equals(CONFIG_FILE)) {
+                changes.configChanged = true;
+            }
+            // Các file khác trong animatedGlyph/ (build, cache, pack.zip) do chính plugin ghi ra
+        }
+        if (!key.reset()) {
+            logger.warning("Thư mục " + dir + " không còn được theo dõi (đã bị xóa?)");
+        }
+    }
+}